@@ -0,0 +1,115 @@
+package com.bernerbits.zillow.test;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of a shared tree under reads, writes, and a 90/10 mix of the two, comparing a TrinaryTree behind
+ * a global lock (what callers had to do before) with ConcurrentTrinaryTree.
+ *
+ * Run with JMH's thread count option to see how each scales, e.g. -t 1, then -t 2, -t 4 and so on up to the
+ * number of cores. Writes insert a random value and delete another, so the tree stays the same size.
+ *
+ * @author derekberner
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(3)
+public class ConcurrentTrinaryTreeBenchmark {
+	
+	public enum Implementation {
+		LOCKED {
+			Tree create() {
+				final TrinaryTree<Integer> tree = TrinaryTree.create(true);
+				return new Tree() {
+					public synchronized boolean contains(Integer value) {
+						return tree.contains(value);
+					}
+					public synchronized void insert(Integer value) {
+						tree.insert(value);
+					}
+					public synchronized boolean delete(Integer value) {
+						return tree.delete(value);
+					}
+				};
+			}
+		},
+		CONCURRENT {
+			Tree create() {
+				final ConcurrentTrinaryTree<Integer> tree = ConcurrentTrinaryTree.create();
+				return new Tree() {
+					public boolean contains(Integer value) {
+						return tree.contains(value);
+					}
+					public void insert(Integer value) {
+						tree.insert(value);
+					}
+					public boolean delete(Integer value) {
+						return tree.delete(value);
+					}
+				};
+			}
+		};
+		
+		abstract Tree create();
+	}
+	
+	interface Tree {
+		boolean contains(Integer value);
+		void insert(Integer value);
+		boolean delete(Integer value);
+	}
+	
+	@Param({"100000"})
+	public int size;
+	
+	@Param
+	public Implementation implementation;
+	
+	private Tree tree;
+	
+	@Setup(Level.Trial)
+	public void fill() {
+		tree = implementation.create();
+		for(int i = 0; i < size; i++) {
+			tree.insert(ThreadLocalRandom.current().nextInt(size));
+		}
+	}
+	
+	@Benchmark
+	public boolean read() {
+		return tree.contains(ThreadLocalRandom.current().nextInt(size));
+	}
+	
+	@Benchmark
+	public boolean write() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		tree.insert(random.nextInt(size));
+		return tree.delete(random.nextInt(size));
+	}
+	
+	@Benchmark
+	public boolean mixed() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		if(random.nextInt(10) == 0) {
+			return write();
+		}
+		return read();
+	}
+}
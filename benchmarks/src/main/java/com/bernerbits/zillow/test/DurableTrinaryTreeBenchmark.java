@@ -0,0 +1,79 @@
+package com.bernerbits.zillow.test;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of logged inserts into a DurableTrinaryTree, under each fsync policy, against an in-memory
+ * TrinaryTree behind a lock for comparison.
+ *
+ * Run with JMH's thread count option, e.g. -t 1, then -t 8: with ALWAYS, more writers share each fsync, so
+ * throughput should rise with the thread count even on one core. The tree lives in a temporary directory
+ * (java.io.tmpdir), so results depend a great deal on the disk under it.
+ *
+ * @author derekberner
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DurableTrinaryTreeBenchmark {
+	
+	@Param
+	public DurableTrinaryTree.FsyncPolicy policy;
+	
+	private Path directory;
+	private DurableTrinaryTree<Long> durable;
+	private TrinaryTree<Long> memory;
+	
+	@Setup(Level.Trial)
+	public void open() throws IOException {
+		directory = Files.createTempDirectory("trinary");
+		durable = DurableTrinaryTree.open(directory, Comparator.<Long>naturalOrder(), false, TrinaryTreeCodecs.LONG, policy, 1000000);
+		memory = TrinaryTree.create();
+	}
+	
+	@TearDown(Level.Trial)
+	public void close() throws IOException {
+		durable.close();
+		try(DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			for(Path file : files) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(directory);
+	}
+	
+	@Benchmark
+	public void insertDurable() throws IOException {
+		durable.insert(ThreadLocalRandom.current().nextLong());
+	}
+	
+	@Benchmark
+	public void insertInMemory() {
+		synchronized(memory) {
+			memory.insert(ThreadLocalRandom.current().nextLong());
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package com.bernerbits.zillow.test;
+
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Whole-tree insert, iterate and delete of random longs, comparing a TrinaryTree of Longs with
+ * LongTrinaryTree, and with OffHeapLongTrinaryTree in direct memory. Values are drawn from a range of a quarter of the tree size, so most of them appear
+ * several times.
+ * 
+ * The generic tree is handed values that are already boxed, which flatters it a little: callers
+ * parsing longs would also pay for boxing them.
+ * 
+ * @author derekberner
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LongTrinaryTreeBenchmark {
+
+	@Param({"1000000"})
+	public int size;
+	
+	private long[] values;
+	private Long[] boxed;
+	
+	/**
+	 * Full trees for the iterate and delete benchmarks, rebuilt before every invocation since delete 
+	 * empties them.
+	 */
+	@State(Scope.Thread)
+	public static class FullTrees {
+		private TrinaryTree<Long> generic;
+		private LongTrinaryTree primitive;
+		private OffHeapLongTrinaryTree offHeap;
+		
+		@Setup(Level.Invocation)
+		public void fill(LongTrinaryTreeBenchmark benchmark) {
+			generic = benchmark.buildGeneric();
+			primitive = benchmark.buildPrimitive();
+			offHeap = benchmark.buildOffHeap();
+		}
+	}
+	
+	@Setup(Level.Trial)
+	public void generate() {
+		Random random = new Random(42);
+		values = new long[size];
+		boxed = new Long[size];
+		for(int i = 0; i < size; i++) {
+			values[i] = (random.nextInt(size / 4) - size / 8) * 1000003L;
+			boxed[i] = values[i];
+		}
+	}
+	
+	@Benchmark
+	public TrinaryTree<Long> insertGeneric() {
+		return buildGeneric();
+	}
+	
+	@Benchmark
+	public LongTrinaryTree insertPrimitive() {
+		return buildPrimitive();
+	}
+	
+	@Benchmark
+	public OffHeapLongTrinaryTree insertOffHeap() {
+		return buildOffHeap();
+	}
+	
+	@Benchmark
+	public long iterateGeneric(FullTrees full) {
+		long sum = 0;
+		for(Iterator<Long> iter = full.generic.iterator(); iter.hasNext();) {
+			sum += iter.next();
+		}
+		return sum;
+	}
+	
+	@Benchmark
+	public long iteratePrimitive(FullTrees full) {
+		long sum = 0;
+		for(LongTrinaryTreeIterator iter = full.primitive.iterator(); iter.hasNext();) {
+			sum += iter.nextLong();
+		}
+		return sum;
+	}
+	
+	@Benchmark
+	public long iterateOffHeap(FullTrees full) {
+		long sum = 0;
+		for(LongTrinaryTreeIterator iter = full.offHeap.iterator(); iter.hasNext();) {
+			sum += iter.nextLong();
+		}
+		return sum;
+	}
+	
+	@Benchmark
+	public TrinaryTree<Long> deleteGeneric(FullTrees full) {
+		for(Long value : boxed) {
+			full.generic.delete(value);
+		}
+		return full.generic;
+	}
+	
+	@Benchmark
+	public LongTrinaryTree deletePrimitive(FullTrees full) {
+		for(long value : values) {
+			full.primitive.delete(value);
+		}
+		return full.primitive;
+	}
+	
+	@Benchmark
+	public OffHeapLongTrinaryTree deleteOffHeap(FullTrees full) {
+		for(long value : values) {
+			full.offHeap.delete(value);
+		}
+		return full.offHeap;
+	}
+	
+	private TrinaryTree<Long> buildGeneric() {
+		TrinaryTree<Long> tree = TrinaryTree.create();
+		for(Long value : boxed) {
+			tree.insert(value);
+		}
+		return tree;
+	}
+	
+	private LongTrinaryTree buildPrimitive() {
+		LongTrinaryTree tree = new LongTrinaryTree();
+		for(long value : values) {
+			tree.insert(value);
+		}
+		return tree;
+	}
+	
+	private OffHeapLongTrinaryTree buildOffHeap() {
+		OffHeapLongTrinaryTree tree = new OffHeapLongTrinaryTree();
+		for(long value : values) {
+			tree.insert(value);
+		}
+		return tree;
+	}
+}
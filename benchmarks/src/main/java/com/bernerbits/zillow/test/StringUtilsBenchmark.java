@@ -0,0 +1,229 @@
+package com.bernerbits.zillow.test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time per call of StringUtils.stringToLong, and of Long.parseLong for comparison, over a few kinds of
+ * input. Each call takes the next of a few thousand random strings of the kind, so the JIT can't fold the
+ * parse away and the branches on the digits aren't all predicted.
+ *
+ * The CharSequence, char[], byte[], heap ByteBuffer and direct ByteBuffer benchmarks parse the same strings in place, out of one
+ * long buffer holding them all.
+ * 
+ * Run with -prof gc to see allocation per call as well.
+ *
+ * @author derekberner
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StringUtilsBenchmark {
+	
+	public enum Input {
+		/** One to four digits. */
+		SHORT,
+		/** Fifteen to nineteen digits, all within range. */
+		LONG,
+		/** A minus sign and one to eighteen digits. */
+		NEGATIVE,
+		/** Eight digits with a letter somewhere among them. */
+		INVALID,
+		/**
+		 * A rough guess at a real feed: seven in ten are quantities or prices of one to six digits, two are
+		 * millisecond timestamps of thirteen, and one is an ID of sixteen to nineteen. One in five is negative.
+		 */
+		MIXED;
+		
+		String generate(Random random) {
+			StringBuilder s = new StringBuilder();
+			switch(this) {
+			case SHORT:
+				appendDigits(s, 1 + random.nextInt(4), random);
+				break;
+			case LONG:
+				// Nineteen digits starting with a 1 can't overflow.
+				int length = 15 + random.nextInt(5);
+				s.append(length == 19 ? '1' : (char)('1' + random.nextInt(9)));
+				appendDigits(s, length - 1, random);
+				break;
+			case NEGATIVE:
+				s.append('-');
+				appendDigits(s, 1 + random.nextInt(18), random);
+				break;
+			case INVALID:
+				appendDigits(s, 8, random);
+				s.setCharAt(random.nextInt(8), (char)('a' + random.nextInt(26)));
+				break;
+			case MIXED:
+				if(random.nextInt(5) == 0) {
+					s.append('-');
+				}
+				int kind = random.nextInt(10);
+				int digits = kind < 7 ? 1 + random.nextInt(6) : kind < 9 ? 13 : 16 + random.nextInt(4);
+				s.append((char)('1' + random.nextInt(digits == 19 ? 1 : 9)));
+				appendDigits(s, digits - 1, random);
+				break;
+			}
+			return s.toString();
+		}
+		
+		private static void appendDigits(StringBuilder s, int count, Random random) {
+			for(int i = 0; i < count; i++) {
+				s.append((char)('0' + random.nextInt(10)));
+			}
+		}
+	}
+	
+	@Param
+	public Input input;
+	
+	private String[] strings;
+	private int next;
+	
+	// The same strings one after another, as in a line buffer, with the start of each.
+	private StringBuilder line;
+	private char[] chars;
+	private byte[] bytes;
+	private ByteBuffer heap;
+	private ByteBuffer direct;
+	private int[] starts;
+	
+	private final LongParseResult result = new LongParseResult();
+	
+	@Setup(Level.Trial)
+	public void generate() {
+		Random random = new Random(42);
+		strings = new String[4096];
+		for(int i = 0; i < strings.length; i++) {
+			strings[i] = input.generate(random);
+		}
+		line = new StringBuilder();
+		starts = new int[strings.length + 1];
+		for(int i = 0; i < strings.length; i++) {
+			starts[i] = line.length();
+			line.append(strings[i]);
+		}
+		starts[strings.length] = line.length();
+		chars = line.toString().toCharArray();
+		bytes = line.toString().getBytes(StandardCharsets.US_ASCII);
+		heap = ByteBuffer.wrap(bytes);
+		direct = ByteBuffer.allocateDirect(bytes.length);
+		direct.put(bytes).flip();
+	}
+	
+	@Benchmark
+	public long stringToLong() {
+		try {
+			return StringUtils.stringToLong(strings[next++ & (strings.length - 1)]);
+		} catch(ParseException e) {
+			return e.getErrorOffset();
+		}
+	}
+	
+	@Benchmark
+	public long tryStringToLong() {
+		StringUtils.tryStringToLong(strings[next++ & (strings.length - 1)], result);
+		return result.isSuccess() ? result.getValue() : result.getErrorIndex();
+	}
+	
+	@Benchmark
+	public long stringToLongCharSequence() {
+		int i = next++ & (strings.length - 1);
+		try {
+			return StringUtils.stringToLong(line, starts[i], starts[i + 1]);
+		} catch(ParseException e) {
+			return e.getErrorOffset();
+		}
+	}
+	
+	@Benchmark
+	public long stringToLongChars() {
+		int i = next++ & (strings.length - 1);
+		try {
+			return StringUtils.stringToLong(chars, starts[i], starts[i + 1] - starts[i]);
+		} catch(ParseException e) {
+			return e.getErrorOffset();
+		}
+	}
+	
+	@Benchmark
+	public long asciiToLongBytes() {
+		int i = next++ & (strings.length - 1);
+		try {
+			return StringUtils.asciiToLong(bytes, starts[i], starts[i + 1] - starts[i]);
+		} catch(ParseException e) {
+			return e.getErrorOffset();
+		}
+	}
+	
+	@Benchmark
+	public long tryAsciiToLongBytes() {
+		int i = next++ & (strings.length - 1);
+		StringUtils.tryAsciiToLong(bytes, starts[i], starts[i + 1] - starts[i], result);
+		return result.isSuccess() ? result.getValue() : result.getErrorIndex();
+	}
+	
+	@Benchmark
+	public long asciiToLongHeap() {
+		int i = next++ & (strings.length - 1);
+		heap.limit(starts[i + 1]).position(starts[i]);
+		try {
+			return StringUtils.asciiToLong(heap);
+		} catch(ParseException e) {
+			return e.getErrorOffset();
+		}
+	}
+	
+	@Benchmark
+	public long asciiToLongDirect() {
+		int i = next++ & (strings.length - 1);
+		direct.limit(starts[i + 1]).position(starts[i]);
+		try {
+			return StringUtils.asciiToLong(direct);
+		} catch(ParseException e) {
+			return e.getErrorOffset();
+		}
+	}
+	
+	/**
+	 * What parsing bytes took before asciiToLong: decoding them to a String first.
+	 */
+	@Benchmark
+	public long decodeThenStringToLong() {
+		int i = next++ & (strings.length - 1);
+		try {
+			return StringUtils.stringToLong(new String(bytes, starts[i], starts[i + 1] - starts[i], StandardCharsets.US_ASCII));
+		} catch(ParseException e) {
+			return e.getErrorOffset();
+		}
+	}
+	
+	@Benchmark
+	public long parseLong() {
+		try {
+			return Long.parseLong(strings[next++ & (strings.length - 1)]);
+		} catch(NumberFormatException e) {
+			return -1;
+		}
+	}
+}
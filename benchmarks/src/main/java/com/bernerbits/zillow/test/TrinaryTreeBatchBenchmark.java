@@ -0,0 +1,78 @@
+package com.bernerbits.zillow.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Inserting a batch of random values into a large tree, then deleting it again, one value at a time versus
+ * with insertAll and deleteAll. Each invocation leaves the tree holding the same values it started with, 
+ * so one tree serves the whole trial.
+ * 
+ * @author derekberner
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TrinaryTreeBatchBenchmark {
+
+	@Param({"1000000"})
+	public int size;
+	
+	@Param({"1000", "100000"})
+	public int batchSize;
+	
+	private TrinaryTree<Integer> tree;
+	private List<Integer> batch;
+	
+	@Setup(Level.Trial)
+	public void fill() {
+		Random random = new Random(42);
+		List<Integer> values = new ArrayList<Integer>();
+		for(int i = 0; i < size; i++) {
+			values.add(random.nextInt());
+		}
+		tree = TrinaryTree.create();
+		tree.bulkLoad(values);
+		
+		batch = new ArrayList<Integer>();
+		for(int i = 0; i < batchSize; i++) {
+			batch.add(random.nextInt());
+		}
+	}
+	
+	@Benchmark
+	public TrinaryTree<Integer> oneByOne() {
+		for(Integer value : batch) {
+			tree.insert(value);
+		}
+		for(Integer value : batch) {
+			tree.delete(value);
+		}
+		return tree;
+	}
+	
+	@Benchmark
+	public TrinaryTree<Integer> batched() {
+		tree.insertAll(batch);
+		tree.deleteAll(batch);
+		return tree;
+	}
+}
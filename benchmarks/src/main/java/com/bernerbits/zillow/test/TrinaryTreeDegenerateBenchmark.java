@@ -0,0 +1,133 @@
+package com.bernerbits.zillow.test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Whole-tree insert, bulk load, iterate and delete over inputs that used to either degrade the tree into a 
+ * linked list or overflow the stack: sorted, reverse-sorted, and duplicate-heavy values.
+ * 
+ * Each invocation processes every element, so results are reported as time per million-element pass.
+ * 
+ * @author derekberner
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TrinaryTreeDegenerateBenchmark {
+
+	public enum Shape {
+		SORTED,
+		REVERSE_SORTED,
+		/** 
+		 * Every value appears 16 times, interleaved. Appending to a center chain walks the whole chain, so
+		 * much longer chains make insert quadratic rather than exercising the tree, unless duplicates are
+		 * collapsed.
+		 */
+		DUPLICATES,
+		/** Every value once, in random order, for comparison. */
+		SHUFFLED;
+		
+		Integer[] generate(int size) {
+			Integer[] values = new Integer[size];
+			for(int i = 0; i < size; i++) {
+				switch(this) {
+				case SORTED: values[i] = i; break;
+				case REVERSE_SORTED: values[i] = size - i; break;
+				case DUPLICATES: values[i] = i % (size / 16); break;
+				case SHUFFLED: values[i] = i; break;
+				}
+			}
+			if(this == SHUFFLED) {
+				Collections.shuffle(Arrays.asList(values), new Random(42));
+			}
+			return values;
+		}
+	}
+	
+	@Param({"1000000"})
+	public int size;
+	
+	@Param
+	public Shape shape;
+	
+	@Param({"false", "true"})
+	public boolean collapseDuplicates;
+	
+	private Integer[] values;
+	
+	/**
+	 * The delete and iterate benchmarks each need a full tree to work on. Delete empties it, so it has
+	 * to be rebuilt before every invocation.
+	 */
+	@State(Scope.Thread)
+	public static class FullTree {
+		private TrinaryTree<Integer> tree;
+		
+		@Setup(Level.Invocation)
+		public void fill(TrinaryTreeDegenerateBenchmark benchmark) {
+			tree = benchmark.build();
+		}
+	}
+	
+	@Setup(Level.Trial)
+	public void generate() {
+		values = shape.generate(size);
+	}
+	
+	@Benchmark
+	public TrinaryTree<Integer> insert() {
+		return build();
+	}
+	
+	@Benchmark
+	public TrinaryTree<Integer> bulkLoad() {
+		TrinaryTree<Integer> tree = TrinaryTree.create(collapseDuplicates);
+		tree.bulkLoad(Arrays.asList(values));
+		return tree;
+	}
+	
+	@Benchmark
+	public long iterate(FullTree full) {
+		long sum = 0;
+		for(Iterator<Integer> iter = full.tree.iterator(); iter.hasNext();) {
+			sum += iter.next();
+		}
+		return sum;
+	}
+	
+	@Benchmark
+	public TrinaryTree<Integer> delete(FullTree full) {
+		for(Integer value : values) {
+			full.tree.delete(value);
+		}
+		return full.tree;
+	}
+	
+	private TrinaryTree<Integer> build() {
+		TrinaryTree<Integer> tree = TrinaryTree.create(collapseDuplicates);
+		for(Integer value : values) {
+			tree.insert(value);
+		}
+		return tree;
+	}
+}
@@ -0,0 +1,95 @@
+package com.bernerbits.zillow.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Restoring a tree of random longs: inserting the values again one by one, bulk loading them, or reading the
+ * tree back from its serialized form. Also times writing that form. Values come from a range of half the
+ * tree size, so there are plenty of duplicates.
+ *
+ * Everything is in memory, so this times the work of rebuilding rather than the disk.
+ *
+ * @author derekberner
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TrinaryTreeSerializationBenchmark {
+	
+	@Param({"1000000"})
+	public int size;
+	
+	@Param({"false", "true"})
+	public boolean collapseDuplicates;
+	
+	private List<Long> values;
+	private TrinaryTree<Long> tree;
+	private byte[] serialized;
+	
+	@Setup(Level.Trial)
+	public void generate() throws IOException {
+		Random random = new Random(42);
+		values = new ArrayList<Long>();
+		for(int i = 0; i < size; i++) {
+			values.add(random.nextInt(size / 2) * 1000L);
+		}
+		tree = TrinaryTree.create(collapseDuplicates);
+		tree.bulkLoad(values);
+		serialized = write();
+	}
+	
+	@Benchmark
+	public TrinaryTree<Long> reinsert() {
+		TrinaryTree<Long> tree = TrinaryTree.create(collapseDuplicates);
+		for(Long value : values) {
+			tree.insert(value);
+		}
+		return tree;
+	}
+	
+	@Benchmark
+	public TrinaryTree<Long> bulkLoad() {
+		TrinaryTree<Long> tree = TrinaryTree.create(collapseDuplicates);
+		tree.bulkLoad(values);
+		return tree;
+	}
+	
+	@Benchmark
+	public TrinaryTree<Long> read() throws IOException {
+		return TrinaryTree.readFrom(new DataInputStream(new ByteArrayInputStream(serialized)), Comparator.<Long>naturalOrder(), TrinaryTreeCodecs.LONG);
+	}
+	
+	@Benchmark
+	public byte[] write() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		tree.writeTo(out, TrinaryTreeCodecs.LONG);
+		out.flush();
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,136 @@
+package com.bernerbits.zillow.test;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookups, whole-tree inserts and iteration, comparing TrinaryTree with WideTrinaryTree as the tree
+ * outgrows the caches. Values are random Longs from a range of a quarter of the tree size, so most of
+ * them appear several times, and lookups are of random values in the same range.
+ *
+ * A hundred million values needs a heap of 16G or so for each tree: add -p size=100000000 and
+ * -jvmArgs -Xmx24g to run it.
+ *
+ * @author derekberner
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WideTrinaryTreeBenchmark {
+	
+	@Param({"1000", "100000", "10000000"})
+	public int size;
+	
+	@Param({"64"})
+	public int capacity;
+	
+	private Long[] values;
+	private Long[] lookups;
+	private int next;
+	
+	private TrinaryTree<Long> trinary;
+	private WideTrinaryTree<Long> wide;
+	
+	@Setup(Level.Trial)
+	public void generate() {
+		Random random = new Random(42);
+		values = new Long[size];
+		for(int i = 0; i < size; i++) {
+			values[i] = random.nextInt(Math.max(size / 4, 1)) * 1000003L;
+		}
+		lookups = new Long[1 << 16];
+		for(int i = 0; i < lookups.length; i++) {
+			lookups[i] = random.nextInt(Math.max(size / 4, 1)) * 1000003L;
+		}
+		trinary = buildTrinary();
+		wide = buildWide();
+	}
+	
+	@Benchmark
+	public boolean containsTrinary() {
+		return trinary.contains(lookups[next++ & (lookups.length - 1)]);
+	}
+	
+	@Benchmark
+	public boolean containsWide() {
+		return wide.contains(lookups[next++ & (lookups.length - 1)]);
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 3)
+	@Measurement(iterations = 5)
+	public TrinaryTree<Long> insertTrinary() {
+		return buildTrinary();
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 3)
+	@Measurement(iterations = 5)
+	public WideTrinaryTree<Long> insertWide() {
+		return buildWide();
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 3)
+	@Measurement(iterations = 5)
+	public long iterateTrinary() {
+		long sum = 0;
+		for(Iterator<Long> iter = trinary.iterator(); iter.hasNext();) {
+			sum += iter.next();
+		}
+		return sum;
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 3)
+	@Measurement(iterations = 5)
+	public long iterateWide() {
+		long sum = 0;
+		for(Iterator<Long> iter = wide.iterator(); iter.hasNext();) {
+			sum += iter.next();
+		}
+		return sum;
+	}
+	
+	private TrinaryTree<Long> buildTrinary() {
+		TrinaryTree<Long> tree = TrinaryTree.create();
+		for(Long value : values) {
+			tree.insert(value);
+		}
+		return tree;
+	}
+	
+	private WideTrinaryTree<Long> buildWide() {
+		WideTrinaryTree<Long> tree = new WideTrinaryTree<Long>(Comparator.<Long>naturalOrder(), capacity);
+		for(Long value : values) {
+			tree.insert(value);
+		}
+		return tree;
+	}
+}
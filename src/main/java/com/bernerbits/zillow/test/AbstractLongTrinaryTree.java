@@ -0,0 +1,298 @@
+package com.bernerbits.zillow.test;
+
+/**
+ * Trinary tree of primitive longs, independent of where its nodes are stored.
+ *
+ * Holds the tree logic shared by {@link LongTrinaryTree}, which keeps its nodes in parallel arrays on the
+ * heap, and {@link OffHeapLongTrinaryTree}, which keeps them in buffers outside it. Nodes are numbered slots,
+ * and children are referred to by slot number, with {@link #NIL} for none; subclasses only say how to read
+ * and write a slot's fields, and how to make room for more slots. Slots freed by delete are kept on a free
+ * list (linked through the left child field) and reused by later inserts, so storage only ever grows to the
+ * largest number of distinct values held at once.
+ *
+ * Equal longs can't be told apart, so there is no need for a center chain to keep them in insertion order.
+ * Each slot simply counts how many times its value has been inserted. Iteration order and delete results are
+ * exactly those of the equivalent TrinaryTree, and inserting or deleting a duplicate never reshapes the tree.
+ *
+ * The tree is kept height-balanced (AVL) just like TrinaryTree, and insert and delete walk it with loops,
+ * remembering their path in a reusable array. A tree of 2^31 slots is less than 48 levels tall, so that
+ * array never needs to grow.
+ *
+ * Not thread-safe, and not a Collection, so that nothing here ever needs to box.
+ *
+ * @see com.bernerbits.zillow.test.LongTrinaryTreeIterator
+ *
+ * @author derekberner
+ */
+public abstract class AbstractLongTrinaryTree {
+	
+	/* package-private */ static final int NIL = -1;
+	
+	/* package-private */ static final int MAX_HEIGHT = 48;
+	
+	// Subclasses that keep the tree somewhere lasting save and restore these too.
+	/* package-private */ int root = NIL;
+	/* package-private */ int free = NIL;
+	/* package-private */ int used = 0;
+	/* package-private */ int size = 0;
+	
+	private final int[] path = new int[MAX_HEIGHT];
+	
+	/* package-private */ AbstractLongTrinaryTree() {
+	}
+	
+	public void insert(long value) {
+		// Making room for a new slot can fail, so size is only counted once the value is in the tree.
+		if(root == NIL) {
+			root = allocate(value);
+			size++;
+			return;
+		}
+		
+		int depth = 0;
+		int node = root;
+		while(true) {
+			long key = getKey(node);
+			if(value == key) {
+				setCount(node, getCount(node) + 1);
+				size++;
+				return;
+			}
+			path[depth++] = node;
+			int next = value < key ? getLeft(node) : getRight(node);
+			if(next == NIL) {
+				next = allocate(value);
+				if(value < key) {
+					setLeft(node, next);
+				} else {
+					setRight(node, next);
+				}
+				break;
+			}
+			node = next;
+		}
+		size++;
+		rebalancePath(depth);
+	}
+	
+	/**
+	 * Deletes one occurrence of a value.
+	 *
+	 * @return Whether the value was found.
+	 */
+	public boolean delete(long value) {
+		int depth = 0;
+		int node = root;
+		while(node != NIL && getKey(node) != value) {
+			path[depth++] = node;
+			node = value < getKey(node) ? getLeft(node) : getRight(node);
+		}
+		if(node == NIL) {
+			return false;
+		}
+		
+		size--;
+		int count = getCount(node) - 1;
+		if(count > 0) {
+			setCount(node, count);
+			return true;
+		}
+		
+		int replacement;
+		if(getLeft(node) == NIL) {
+			replacement = getRight(node);
+		} else if(getRight(node) == NIL) {
+			replacement = getLeft(node);
+		} else {
+			// Two children. Values can't be told apart by identity, so rather than moving the in-order
+			// successor's slot into our place, just take its value and count and free its slot instead.
+			path[depth++] = node;
+			int successor = getRight(node);
+			while(getLeft(successor) != NIL) {
+				path[depth++] = successor;
+				successor = getLeft(successor);
+			}
+			setKey(node, getKey(successor));
+			setCount(node, getCount(successor));
+			replaceChild(path[depth - 1], successor, getRight(successor));
+			release(successor);
+			rebalancePath(depth);
+			return true;
+		}
+		replaceChild(depth == 0 ? NIL : path[depth - 1], node, replacement);
+		release(node);
+		rebalancePath(depth);
+		return true;
+	}
+	
+	/**
+	 * @return Whether the tree holds the given value.
+	 */
+	public boolean contains(long value) {
+		return find(value) != NIL;
+	}
+	
+	/**
+	 * @return The number of times the given value is in the tree.
+	 */
+	public int count(long value) {
+		int node = find(value);
+		return node == NIL ? 0 : getCount(node);
+	}
+	
+	/**
+	 * @return The number of values in the tree, counting duplicates.
+	 */
+	public int size() {
+		return size;
+	}
+	
+	public LongTrinaryTreeIterator iterator() {
+		return new LongTrinaryTreeIterator(this);
+	}
+	
+	private int find(long value) {
+		int node = root;
+		while(node != NIL && getKey(node) != value) {
+			node = value < getKey(node) ? getLeft(node) : getRight(node);
+		}
+		return node;
+	}
+	
+	private int allocate(long value) {
+		int node;
+		if(free != NIL) {
+			node = free;
+			free = getLeft(node);
+		} else {
+			if(used == Integer.MAX_VALUE) {
+				throw new IllegalStateException("Tree is full");
+			}
+			ensureCapacity(used + 1);
+			node = used++;
+		}
+		setKey(node, value);
+		setCount(node, 1);
+		setLeft(node, NIL);
+		setRight(node, NIL);
+		setHeight(node, 1);
+		return node;
+	}
+	
+	private void release(int node) {
+		setLeft(node, free);
+		free = node;
+	}
+	
+	/**
+	 * Rebalances the slots on the remembered path from the bottom up, stopping early once a subtree comes
+	 * out the same height it went in, since nothing above it can have changed.
+	 *
+	 * @param depth The number of slots on the path.
+	 */
+	private void rebalancePath(int depth) {
+		for(int i = depth - 1; i >= 0; i--) {
+			int node = path[i];
+			int previousHeight = getHeight(node);
+			int balanced = rebalance(node);
+			if(balanced != node) {
+				replaceChild(i == 0 ? NIL : path[i - 1], node, balanced);
+			}
+			if(getHeight(balanced) == previousHeight) {
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Restores the AVL invariant for a subtree, assuming both its child subtrees already satisfy it and
+	 * their heights differ by at most two.
+	 *
+	 * @return The slot now at the top of the subtree.
+	 */
+	private int rebalance(int node) {
+		updateHeight(node);
+		int balance = balance(node);
+		if(balance > 1) {
+			if(balance(getLeft(node)) < 0) {
+				setLeft(node, rotateLeft(getLeft(node)));
+			}
+			return rotateRight(node);
+		} else if(balance < -1) {
+			if(balance(getRight(node)) > 0) {
+				setRight(node, rotateRight(getRight(node)));
+			}
+			return rotateLeft(node);
+		}
+		return node;
+	}
+	
+	private int rotateLeft(int node) {
+		int pivot = getRight(node);
+		setRight(node, getLeft(pivot));
+		setLeft(pivot, node);
+		updateHeight(node);
+		updateHeight(pivot);
+		return pivot;
+	}
+	
+	private int rotateRight(int node) {
+		int pivot = getLeft(node);
+		setLeft(node, getRight(pivot));
+		setRight(pivot, node);
+		updateHeight(node);
+		updateHeight(pivot);
+		return pivot;
+	}
+	
+	private int height(int node) {
+		return node == NIL ? 0 : getHeight(node);
+	}
+	
+	private int balance(int node) {
+		return height(getLeft(node)) - height(getRight(node));
+	}
+	
+	private void updateHeight(int node) {
+		setHeight(node, 1 + Math.max(height(getLeft(node)), height(getRight(node))));
+	}
+	
+	private void replaceChild(int parent, int child, int replacement) {
+		if(parent == NIL) {
+			root = replacement;
+		} else if(getLeft(parent) == child) {
+			setLeft(parent, replacement);
+		} else {
+			setRight(parent, replacement);
+		}
+	}
+	
+	/* package-private */ int getRoot() {
+		return root;
+	}
+	
+	/**
+	 * Makes sure slots 0 up to (but not including) the given number can be written.
+	 */
+	/* package-private */ abstract void ensureCapacity(int slots);
+	
+	/* package-private */ abstract long getKey(int node);
+	
+	/* package-private */ abstract void setKey(int node, long key);
+	
+	/* package-private */ abstract int getCount(int node);
+	
+	/* package-private */ abstract void setCount(int node, int count);
+	
+	/* package-private */ abstract int getLeft(int node);
+	
+	/* package-private */ abstract void setLeft(int node, int left);
+	
+	/* package-private */ abstract int getRight(int node);
+	
+	/* package-private */ abstract void setRight(int node, int right);
+	
+	/* package-private */ abstract int getHeight(int node);
+	
+	/* package-private */ abstract void setHeight(int node, int height);
+}
@@ -0,0 +1,323 @@
+package com.bernerbits.zillow.test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Thread-safe trinary tree.
+ *
+ * Holds values the same way as a {@link TrinaryTree} that collapses duplicates, and gives the same iteration
+ * order and delete behavior, but any number of threads can use it at once without locking.
+ *
+ * The tree is made of immutable nodes (see {@link PersistentTrinaryTreeNode}), split by key range into
+ * stripes, each with a root of its own. Readers find the stripe for a value and walk down from its root, so
+ * they never block, never retry, and never see a half-finished change. Writers copy the path from the stripe's
+ * root down to the change, which is O(log n) nodes, and then swap in the new root with a compare-and-set. Only
+ * writers to the same stripe can get in each other's way: if another got there first, the copy is thrown
+ * away and the write is retried against the new root. Writers to different stripes run in parallel.
+ *
+ * Finer-grained write locking doesn't fit a balanced tree well, since rebalancing after any write can rotate
+ * nodes all the way up to the root. Stripes sidestep that by giving each range of keys its own balanced tree.
+ * The ranges are picked from the values themselves, so that each stripe holds about the same number of them,
+ * and there are a few stripes for each processor, so that writers rarely meet. Whenever a stripe grows to twice
+ * the size of the biggest one when they were last split, the stripes are joined and split again at new bounds.
+ * That only copies O(log n) nodes per stripe, s log n in all for s stripes, but writers wait while it happens.
+ * Values inserted in order all land in the last stripe, so writers doing that still take turns.
+ *
+ * Iterators and {@link #snapshot()} need the whole tree as it was at one instant. For that, each stripe's root
+ * is frozen in turn, which makes writers to it wait, until every root has been collected, and then thawed
+ * again, so writers wait for O(s), whatever the size of the tree. The collected roots are then joined into one
+ * tree, without holding anything up, in O(s log n).
+ *
+ * Iterators walk the tree as it was when they were created, so they never throw
+ * {@link java.util.ConcurrentModificationException} and never see a value twice or skip one, but don't
+ * reflect later changes. Removing through an iterator removes that exact value from the current tree. For a
+ * consistent view that lasts beyond one iteration, take a {@link #snapshot()}.
+ *
+ * @see com.bernerbits.zillow.test.PersistentTrinaryTree
+ * @see com.bernerbits.zillow.test.PersistentTrinaryTreeNode
+ * @see com.bernerbits.zillow.test.PersistentTrinaryTreeIterator
+ *
+ * @author derekberner
+ *
+ * @param <T> The type parameter
+ */
+public class ConcurrentTrinaryTree<T> {
+	
+	// Enough stripes that writers on different processors rarely pick the same one.
+	private static final int MAX_STRIPES = Math.min(64, 4 * Runtime.getRuntime().availableProcessors());
+	
+	// A tree is only split into stripes of at least this many values, so small trees aren't all stripes.
+	private static final int MIN_STRIPE_SIZE = 32;
+	
+	private volatile Layout<T> layout;
+	
+	private final Comparator<T> comparator;
+	
+	/**
+	 * Constructs a new ConcurrentTrinaryTree using a default comparator for Comparable class. See
+	 * {@link TrinaryTree#create()}.
+	 */
+	public static <C extends Comparable<C>> ConcurrentTrinaryTree<C> create() {
+		return new ConcurrentTrinaryTree<C>(new Comparator<C>() {
+			public int compare(C o1, C o2) {
+				return o1.compareTo(o2);
+			}
+		});
+	}
+	
+	/**
+	 * Constructs a new ConcurrentTrinaryTree using a custom comparator.
+	 *
+	 * @param comparator the Comparator to use.
+	 */
+	public ConcurrentTrinaryTree(Comparator<T> comparator) {
+		this.comparator = comparator;
+		AtomicReferenceArray<Version<T>> stripes = new AtomicReferenceArray<Version<T>>(1);
+		stripes.set(0, new Version<T>(null, false));
+		layout = new Layout<T>(new Object[0], stripes, 2 * MIN_STRIPE_SIZE);
+	}
+	
+	public void insert(T value) {
+		if(value == null) {
+			throw new IllegalArgumentException("Attempted null insert detected.");
+		}
+		while(true) {
+			Layout<T> layout = this.layout;
+			int stripe = layout.stripeOf(value, comparator);
+			Version<T> current = layout.stripes.get(stripe);
+			if(current.frozen) {
+				Thread.yield();
+				continue;
+			}
+			PersistentTrinaryTreeNode<T> root = PersistentTrinaryTreeNode.insert(current.root, value, comparator);
+			if(layout.stripes.compareAndSet(stripe, current, new Version<T>(root, false))) {
+				if(PersistentTrinaryTreeNode.size(root) > layout.limit) {
+					restripe(layout);
+				}
+				return;
+			}
+		}
+	}
+	
+	public boolean delete(T value) {
+		return delete(value, false);
+	}
+	
+	/**
+	 * @return An iterator over the tree as it is now. See the class documentation.
+	 */
+	public Iterator<T> iterator() {
+		return new PersistentTrinaryTreeIterator<T>(this, getRoot());
+	}
+	
+	/**
+	 * @return Whether the tree holds a value equal to the given one, according to the comparator.
+	 */
+	public boolean contains(T value) {
+		return PersistentTrinaryTreeNode.find(rootFor(value), value, comparator) != null;
+	}
+	
+	/**
+	 * @return The number of values in the tree equal to the given one, according to the comparator.
+	 */
+	public int count(T value) {
+		PersistentTrinaryTreeNode<T> node = PersistentTrinaryTreeNode.find(rootFor(value), value, comparator);
+		return node == null ? 0 : node.getCount();
+	}
+	
+	/**
+	 * Adds up the sizes of the stripes, one after another, so while writers are busy this might not be the
+	 * size the tree had at any one instant; for that, take the size of a {@link #snapshot()}.
+	 *
+	 * @return The number of values in the tree.
+	 */
+	public int size() {
+		Layout<T> layout = this.layout;
+		int size = 0;
+		for(int i = 0; i < layout.stripes.length(); i++) {
+			size += PersistentTrinaryTreeNode.size(layout.stripes.get(i).root);
+		}
+		return size;
+	}
+	
+	/**
+	 * Takes a snapshot of the tree. Nodes are never modified, only replaced, so the snapshot can share every one
+	 * of them with the tree, and stays exactly as it is while the tree changes. Writers only wait while the
+	 * stripes' roots are collected; see the class documentation.
+	 *
+	 * @return The tree as it is now.
+	 */
+	public PersistentTrinaryTree<T> snapshot() {
+		return new PersistentTrinaryTree<T>(getRoot(), comparator);
+	}
+	
+	/**
+	 * Removes the given instance, rather than the first value equal to it, for iterators.
+	 *
+	 * @return Whether the value was found.
+	 */
+	/* package-private */ boolean remove(T value) {
+		return delete(value, true);
+	}
+	
+	private boolean delete(T value, boolean exact) {
+		while(true) {
+			Layout<T> layout = this.layout;
+			int stripe = layout.stripeOf(value, comparator);
+			Version<T> current = layout.stripes.get(stripe);
+			PersistentTrinaryTreeNode<T> deleted = PersistentTrinaryTreeNode.delete(current.root, value, exact, comparator);
+			if(deleted == current.root) {
+				return false;
+			}
+			if(current.frozen) {
+				Thread.yield();
+				continue;
+			}
+			if(layout.stripes.compareAndSet(stripe, current, new Version<T>(deleted, false))) {
+				return true;
+			}
+		}
+	}
+	
+	private PersistentTrinaryTreeNode<T> rootFor(T value) {
+		Layout<T> layout = this.layout;
+		return layout.stripes.get(layout.stripeOf(value, comparator)).root;
+	}
+	
+	/**
+	 * @return The whole tree as it is now, joined into one.
+	 */
+	/* package-private */ PersistentTrinaryTreeNode<T> getRoot() {
+		PersistentTrinaryTreeNode<T>[] roots;
+		synchronized(this) {
+			Layout<T> layout = this.layout;
+			roots = freeze(layout);
+			for(int i = 0; i < roots.length; i++) {
+				layout.stripes.set(i, new Version<T>(roots[i], false));
+			}
+		}
+		PersistentTrinaryTreeNode<T> root = null;
+		for(PersistentTrinaryTreeNode<T> stripe : roots) {
+			root = PersistentTrinaryTreeNode.join(root, stripe);
+		}
+		return root;
+	}
+	
+	/**
+	 * Joins the stripes and splits them again at new bounds, so that each has about the same number of values.
+	 * The old stripes stay frozen for good, so writers still working on them move to the new ones.
+	 *
+	 * @param outgrown The layout a writer found had a stripe grown past its limit.
+	 */
+	private synchronized void restripe(Layout<T> outgrown) {
+		if(layout != outgrown) {
+			// Someone else got there first.
+			return;
+		}
+		PersistentTrinaryTreeNode<T> root = null;
+		for(PersistentTrinaryTreeNode<T> stripe : freeze(outgrown)) {
+			root = PersistentTrinaryTreeNode.join(root, stripe);
+		}
+		
+		int size = PersistentTrinaryTreeNode.size(root);
+		int stripes = Math.max(1, Math.min(MAX_STRIPES, size / MIN_STRIPE_SIZE));
+		List<T> bounds = new ArrayList<T>(stripes - 1);
+		for(int i = 1; i < stripes; i++) {
+			T bound = PersistentTrinaryTreeNode.select(root, (int)((long)size * i / stripes)).getValue();
+			// A long run of equal values can span what would have been several stripes.
+			if(bounds.isEmpty() || comparator.compare(bound, bounds.get(bounds.size() - 1)) > 0) {
+				bounds.add(bound);
+			}
+		}
+		
+		AtomicReferenceArray<Version<T>> split = new AtomicReferenceArray<Version<T>>(bounds.size() + 1);
+		int largest = 0;
+		for(int i = 0; i <= bounds.size(); i++) {
+			PersistentTrinaryTreeNode<T> stripe = root;
+			if(i < bounds.size()) {
+				stripe = PersistentTrinaryTreeNode.lessThan(root, bounds.get(i), comparator);
+				root = PersistentTrinaryTreeNode.atLeast(root, bounds.get(i), comparator);
+			}
+			split.set(i, new Version<T>(stripe, false));
+			largest = Math.max(largest, PersistentTrinaryTreeNode.size(stripe));
+		}
+		// The biggest stripe has at least n / s values, so at least that many inserts come before the next split,
+		// which keeps splitting down to O(s^2 log n / n) per insert, even when one stripe is a run of equal values
+		// that can't be split.
+		layout = new Layout<T>(bounds.toArray(), split, Math.max(2 * MIN_STRIPE_SIZE, 2 * largest));
+	}
+	
+	/**
+	 * Freezes every stripe's root, so that writers wait rather than change it. Must hold the tree's lock, so
+	 * the layout can't change and nothing else is freezing it.
+	 *
+	 * @return The frozen roots.
+	 */
+	private PersistentTrinaryTreeNode<T>[] freeze(Layout<T> layout) {
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		PersistentTrinaryTreeNode<T>[] roots = new PersistentTrinaryTreeNode[layout.stripes.length()];
+		for(int i = 0; i < roots.length; i++) {
+			while(true) {
+				Version<T> current = layout.stripes.get(i);
+				if(layout.stripes.compareAndSet(i, current, new Version<T>(current.root, true))) {
+					roots[i] = current.root;
+					break;
+				}
+			}
+		}
+		return roots;
+	}
+	
+	/**
+	 * A stripe's root. Every change makes a new one, so a compare-and-set of a stripe's version fails if
+	 * anything at all has happened to the stripe since it was read, including being frozen.
+	 */
+	private static final class Version<T> {
+		
+		private final PersistentTrinaryTreeNode<T> root;
+		private final boolean frozen;
+		
+		private Version(PersistentTrinaryTreeNode<T> root, boolean frozen) {
+			this.root = root;
+			this.frozen = frozen;
+		}
+	}
+	
+	/**
+	 * How the tree is split into stripes. Stripe i holds the values from bound i - 1, inclusive, up to bound i,
+	 * exclusive; the first and last are open-ended.
+	 */
+	private static final class Layout<T> {
+		
+		private final Object[] bounds;
+		private final AtomicReferenceArray<Version<T>> stripes;
+		
+		// Any stripe bigger than this is due to be split.
+		private final int limit;
+		
+		private Layout(Object[] bounds, AtomicReferenceArray<Version<T>> stripes, int limit) {
+			this.bounds = bounds;
+			this.stripes = stripes;
+			this.limit = limit;
+		}
+		
+		@SuppressWarnings("unchecked")
+		private int stripeOf(T value, Comparator<T> comparator) {
+			int low = 0;
+			int high = bounds.length;
+			while(low < high) {
+				int middle = (low + high) >>> 1;
+				if(comparator.compare(value, (T)bounds[middle]) < 0) {
+					high = middle;
+				} else {
+					low = middle + 1;
+				}
+			}
+			return low;
+		}
+	}
+}
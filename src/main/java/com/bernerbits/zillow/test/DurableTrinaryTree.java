@@ -0,0 +1,599 @@
+package com.bernerbits.zillow.test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.zip.CRC32;
+
+/**
+ * Trinary tree that survives a crash, by logging every change before reporting it done.
+ *
+ * The tree in memory is a {@link PersistentTrinaryTree}, holding values the same way as a {@link TrinaryTree}
+ * that collapses duplicates. Each insert, and each delete that finds something, replaces it with a new version
+ * and is appended to a write-ahead log in a directory of its own. On opening, the tree is restored from the
+ * last checkpoint and the log written since is replayed on top. A new version only copies the O(log n) nodes
+ * on the path to the change, which costs a little more than changing a TrinaryTree in place, but little next
+ * to the log write, and it means any version can be kept and read while the tree carries on changing.
+ *
+ * Log writes use group commit. A change is encoded into a shared buffer while holding the tree's lock, which
+ * is quick; the caller then waits, without the lock, until the buffer holding its change has been written.
+ * The first caller to find no write in progress writes everything buffered so far, its own change and any
+ * others that have arrived, in one FileChannel write (and one fsync, see {@link FsyncPolicy}), then wakes the
+ * rest. Under load a single fsync covers many changes, so throughput rises with the number of writers even
+ * though each one waits for durability.
+ *
+ * A change is applied to the tree in memory before its record is durable, so other threads can see it, and
+ * act on it, before insert or delete has returned to the thread that made it. If the process crashes in
+ * between, the change is lost even though it was seen. A reader that must only act on durable changes can
+ * call {@link #sync()} first, which waits for everything applied so far.
+ *
+ * Every so often (see {@link #open(Path, Comparator, boolean, TrinaryTreeCodec, FsyncPolicy, long)}), or
+ * whenever {@link #checkpoint()} is called, the whole tree is written out in the form of
+ * {@link TrinaryTree#writeTo(java.io.DataOutput, TrinaryTreeCodec)}, so recovery only ever replays the changes
+ * since. Checkpoints and logs are numbered by generation. A checkpoint first finishes the current log and starts
+ * the next one, and takes the current version of the tree, all under the lock and none of it dependent on the
+ * size of the tree. It then writes that version to a temporary file without the lock, so changes carry on into
+ * the new log meanwhile, and takes the lock again only to rename the file into place and delete the old log.
+ * Recovery replays every log from the checkpoint's generation on, so a crash at any point loses nothing: before
+ * the rename, the old checkpoint and both logs are still there.
+ *
+ * Each log record is its length, a CRC32 of its contents, a type byte and the value as written by the codec.
+ * A crash can leave the last records half written; recovery stops at the first record that is incomplete or
+ * fails its check, and cuts the log off there.
+ *
+ * Thread-safe. Reads take the same lock as writes, but only for as long as a lookup. Iterators walk the version
+ * of the tree there was when they were created, so they need no lock, and don't see later changes.
+ *
+ * @author derekberner
+ *
+ * @param <T> The type parameter
+ */
+public class DurableTrinaryTree<T> implements Closeable {
+	
+	/**
+	 * When the log is forced to disk.
+	 */
+	public enum FsyncPolicy {
+		/**
+		 * Every change is on disk (fsync'd) before insert or delete returns, surviving power loss. Concurrent
+		 * changes share an fsync.
+		 */
+		ALWAYS,
+		/**
+		 * Every change is handed to the operating system before insert or delete returns, which survives the
+		 * process crashing, but not the machine. The log is only forced at checkpoints, {@link #sync()} and
+		 * {@link #close()}.
+		 */
+		NEVER
+	}
+	
+	private static final String CHECKPOINT = "checkpoint";
+	private static final String LOG_PREFIX = "log-";
+	
+	private static final byte INSERT = 1;
+	private static final byte DELETE = 2;
+	
+	private final Path directory;
+	private final TrinaryTreeCodec<T> codec;
+	private final FsyncPolicy policy;
+	private final long checkpointInterval;
+	
+	private final Comparator<T> comparator;
+	private final boolean collapseDuplicates;
+	
+	// Everything below is guarded by this.
+	private PersistentTrinaryTree<T> tree;
+	private long generation;
+	private FileChannel log;
+	private boolean closed;
+	private boolean checkpointing;
+	
+	private final RecordBuffer scratch = new RecordBuffer();
+	private final DataOutputStream scratchOut = new DataOutputStream(scratch);
+	private final CRC32 crc = new CRC32();
+	
+	// Records waiting to be written, and an empty buffer to swap in while they are.
+	private RecordBuffer pending = new RecordBuffer();
+	private RecordBuffer spare = new RecordBuffer();
+	private boolean writing;
+	private IOException failure;
+	
+	// Sequence numbers of the last record appended, and the last one written.
+	private long appended;
+	private long written;
+	private long sinceCheckpoint;
+	
+	private DurableTrinaryTree(Path directory, PersistentTrinaryTree<T> tree, Comparator<T> comparator, boolean collapseDuplicates, long generation, TrinaryTreeCodec<T> codec, FsyncPolicy policy, long checkpointInterval) {
+		this.directory = directory;
+		this.tree = tree;
+		this.comparator = comparator;
+		this.collapseDuplicates = collapseDuplicates;
+		this.generation = generation;
+		this.codec = codec;
+		this.policy = policy;
+		this.checkpointInterval = checkpointInterval;
+	}
+	
+	/**
+	 * Opens a durable tree of a Comparable class, fsyncing every change and checkpointing every million. See
+	 * {@link #open(Path, Comparator, boolean, TrinaryTreeCodec, FsyncPolicy, long)}.
+	 */
+	public static <C extends Comparable<C>> DurableTrinaryTree<C> open(Path directory, TrinaryTreeCodec<C> codec) throws IOException {
+		return open(directory, Comparator.<C>naturalOrder(), false, codec, FsyncPolicy.ALWAYS, 1000000);
+	}
+	
+	/**
+	 * Opens a durable tree kept in a directory, recovering whatever is there, or starting an empty tree if
+	 * there's nothing.
+	 *
+	 * @param directory Where to keep the checkpoint and log. Created if need be.
+	 * @param comparator The comparator to use.
+	 * @param collapseDuplicates Whether a new tree's checkpoints keep equal values in a single node, as read
+	 * 	back by {@link TrinaryTree#readFrom(java.io.DataInput, Comparator, TrinaryTreeCodec)}. A recovered tree
+	 * 	keeps whatever it was checkpointed with. In memory, equal values are always kept in a single node.
+	 * @param codec How to write and read values.
+	 * @param policy When to force the log to disk.
+	 * @param checkpointInterval How many changes to log before checkpointing, or 0 to only checkpoint when
+	 * 	asked.
+	 * @return The tree.
+	 * @throws IOException If the directory can't be used, or holds a damaged checkpoint.
+	 */
+	public static <T> DurableTrinaryTree<T> open(Path directory, Comparator<T> comparator, boolean collapseDuplicates, TrinaryTreeCodec<T> codec, FsyncPolicy policy, long checkpointInterval) throws IOException {
+		if(checkpointInterval < 0) {
+			throw new IllegalArgumentException("Negative checkpoint interval: " + checkpointInterval);
+		}
+		Files.createDirectories(directory);
+		
+		PersistentTrinaryTree<T> tree;
+		boolean collapse = collapseDuplicates;
+		long generation;
+		Path checkpoint = directory.resolve(CHECKPOINT);
+		if(Files.exists(checkpoint)) {
+			try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(checkpoint), 65536))) {
+				generation = in.readLong();
+				TrinaryTree<T> restored = TrinaryTree.readFrom(in, comparator, codec);
+				collapse = restored.isCollapseDuplicates();
+				tree = new PersistentTrinaryTree<T>(PersistentTrinaryTreeNode.build(restored.iterator(), comparator), comparator);
+			}
+		} else {
+			generation = 0;
+			tree = new PersistentTrinaryTree<T>(comparator);
+		}
+		
+		DurableTrinaryTree<T> durable = new DurableTrinaryTree<T>(directory, tree, comparator, collapse, generation, codec, policy, checkpointInterval);
+		try {
+			durable.recover();
+		} catch(IOException | RuntimeException e) {
+			if(durable.log != null) {
+				durable.log.close();
+			}
+			throw e;
+		}
+		return durable;
+	}
+	
+	public void insert(T value) throws IOException {
+		if(value == null) {
+			throw new IllegalArgumentException("Attempted null insert detected.");
+		}
+		long sequence;
+		synchronized(this) {
+			checkOpen();
+			encode(INSERT, value);
+			tree = tree.insert(value);
+			sequence = append();
+		}
+		commit(sequence);
+	}
+	
+	/**
+	 * Deletes the earliest value equal to the given one. Only a delete that finds something is logged.
+	 *
+	 * @return Whether a value was found and deleted.
+	 */
+	public boolean delete(T value) throws IOException {
+		long sequence;
+		synchronized(this) {
+			checkOpen();
+			encode(DELETE, value);
+			PersistentTrinaryTree<T> deleted = tree.delete(value);
+			if(deleted == tree) {
+				return false;
+			}
+			tree = deleted;
+			sequence = append();
+		}
+		commit(sequence);
+		return true;
+	}
+	
+	public synchronized boolean contains(T value) {
+		return tree.contains(value);
+	}
+	
+	public synchronized int count(T value) {
+		return tree.count(value);
+	}
+	
+	public synchronized int size() {
+		return tree.size();
+	}
+	
+	/**
+	 * @return An iterator over the tree as it is now, which doesn't support remove.
+	 */
+	public synchronized Iterator<T> iterator() {
+		return tree.iterator();
+	}
+	
+	/**
+	 * Makes sure every change so far is on disk, whatever the fsync policy.
+	 */
+	public void sync() throws IOException {
+		long sequence;
+		synchronized(this) {
+			checkOpen();
+			sequence = appended;
+		}
+		commit(sequence);
+		synchronized(this) {
+			if(!closed) {
+				log.force(false);
+			}
+		}
+	}
+	
+	/**
+	 * Writes the whole tree out and starts a new, empty log. Changes only wait while the log is switched, not
+	 * while the tree is written; see the class comment. If another checkpoint
+	 * is already being written, waits for it first.
+	 */
+	public void checkpoint() throws IOException {
+		checkpoint(false);
+	}
+	
+	/**
+	 * @param ifDue Whether to only checkpoint if enough changes have been logged, and no other checkpoint is
+	 * 	being written, rather than always.
+	 */
+	private void checkpoint(boolean ifDue) throws IOException {
+		long next;
+		PersistentTrinaryTree<T> snapshot;
+		synchronized(this) {
+			if(ifDue && (checkpointInterval == 0 || sinceCheckpoint < checkpointInterval || checkpointing || closed)) {
+				return;
+			}
+			checkOpen();
+			while(checkpointing || writing) {
+				await();
+				checkOpen();
+			}
+			
+			// Finish the current log, so it holds exactly the changes up to the version taken below.
+			FileChannel previous = log;
+			try {
+				write(previous, pending);
+				previous.force(false);
+			} catch(IOException e) {
+				failure = e;
+				notifyAll();
+				throw e;
+			}
+			pending.reset();
+			written = appended;
+			next = generation + 1;
+			log = FileChannel.open(logFile(next), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			previous.close();
+			generation = next;
+			sinceCheckpoint = 0;
+			checkpointing = true;
+			notifyAll();
+			snapshot = tree;
+		}
+		
+		Path temporary = directory.resolve(CHECKPOINT + ".tmp");
+		boolean done = false;
+		try {
+			// The values are in order already, so this is a single pass.
+			TrinaryTree<T> copy = new TrinaryTree<T>(comparator, collapseDuplicates);
+			copy.bulkLoad(snapshot.iterator());
+			try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 65536));
+				out.writeLong(next);
+				copy.writeTo(out, codec);
+				out.flush();
+				channel.force(true);
+			}
+			synchronized(this) {
+				Files.move(temporary, directory.resolve(CHECKPOINT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				syncDirectory();
+				deleteLogsBefore(next);
+			}
+			done = true;
+		} finally {
+			if(!done) {
+				// The logs since the last checkpoint are all still there, so nothing is lost.
+				Files.deleteIfExists(temporary);
+			}
+			synchronized(this) {
+				checkpointing = false;
+				notifyAll();
+			}
+		}
+	}
+	
+	/**
+	 * Writes and forces out any changes not yet on disk, and closes the log. The tree can't be used afterwards.
+	 */
+	public synchronized void close() throws IOException {
+		if(closed) {
+			return;
+		}
+		while(writing || checkpointing) {
+			await();
+		}
+		closed = true;
+		try {
+			if(failure != null) {
+				throw new IOException("An earlier log write failed", failure);
+			}
+			write(log, pending);
+			log.force(false);
+			written = appended;
+		} finally {
+			log.close();
+			notifyAll();
+		}
+	}
+	
+	/**
+	 * Replays the logs from the checkpoint's generation on, cutting off anything torn at the end of the last,
+	 * and clears away files left over from older generations. There's more than one log only if a checkpoint
+	 * was interrupted before it was renamed into place.
+	 */
+	private void recover() throws IOException {
+		long first = generation;
+		while(Files.exists(logFile(generation + 1))) {
+			generation++;
+		}
+		for(long replaying = first; replaying < generation; replaying++) {
+			// Each log was forced before the next was started, so only the last can have been torn.
+			Path file = logFile(replaying);
+			if(replay(file) != Files.size(file)) {
+				throw new IOException("Damaged log " + file);
+			}
+		}
+		Path file = logFile(generation);
+		long valid = Files.exists(file) ? replay(file) : 0;
+		log = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		log.truncate(valid);
+		log.position(valid);
+		
+		deleteLogsBefore(first);
+		Files.deleteIfExists(directory.resolve(CHECKPOINT + ".tmp"));
+	}
+	
+	/**
+	 * Replays a log up to its first incomplete or damaged record.
+	 *
+	 * @return The length of the log up to that record.
+	 */
+	private long replay(Path file) throws IOException {
+		long length = Files.size(file);
+		long valid = 0;
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 65536))) {
+			byte[] record = new byte[64];
+			while(true) {
+				int size;
+				int checksum;
+				try {
+					size = in.readInt();
+					checksum = in.readInt();
+					if(size < 1 || size > length - valid - 8) {
+						break;
+					}
+					if(record.length < size) {
+						record = new byte[Math.max(size, record.length * 2)];
+					}
+					in.readFully(record, 0, size);
+				} catch(EOFException e) {
+					break;
+				}
+				crc.reset();
+				crc.update(record, 0, size);
+				if((int)crc.getValue() != checksum) {
+					break;
+				}
+				replay(record, size);
+				valid += 8 + size;
+				sinceCheckpoint++;
+			}
+		}
+		return valid;
+	}
+	
+	/**
+	 * Deletes the logs of generations before the given one, which a checkpoint of that generation covers.
+	 */
+	private void deleteLogsBefore(long generation) throws IOException {
+		try(DirectoryStream<Path> files = Files.newDirectoryStream(directory, LOG_PREFIX + "*")) {
+			for(Path file : files) {
+				String name = file.getFileName().toString();
+				try {
+					if(Long.parseLong(name.substring(LOG_PREFIX.length())) < generation) {
+						Files.delete(file);
+					}
+				} catch(NumberFormatException e) {
+					// Not one of ours.
+				}
+			}
+		}
+	}
+	
+	private void replay(byte[] record, int length) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(record, 1, length - 1));
+		T value = codec.read(in, null);
+		if(record[0] == INSERT) {
+			tree = tree.insert(value);
+		} else if(record[0] == DELETE) {
+			tree = tree.delete(value);
+		} else {
+			throw new IOException("Unknown log record type " + record[0] + " in " + logFile(generation));
+		}
+	}
+	
+	/**
+	 * Encodes a change into the scratch buffer, before it's applied, so a value the codec can't write never
+	 * changes the tree.
+	 */
+	private void encode(byte type, T value) throws IOException {
+		scratch.reset();
+		scratchOut.writeByte(type);
+		codec.write(scratchOut, null, value);
+	}
+	
+	/**
+	 * Moves the encoded change from the scratch buffer into the pending records.
+	 *
+	 * @return Its sequence number.
+	 */
+	private long append() {
+		crc.reset();
+		crc.update(scratch.array(), 0, scratch.size());
+		pending.writeInt(scratch.size());
+		pending.writeInt((int)crc.getValue());
+		pending.write(scratch.array(), 0, scratch.size());
+		sinceCheckpoint++;
+		return ++appended;
+	}
+	
+	/**
+	 * Waits until the record with the given sequence number has been written, writing it and everything else
+	 * pending if no one else is, then checkpoints if one is due.
+	 */
+	private void commit(long sequence) throws IOException {
+		FileChannel channel = null;
+		RecordBuffer batch = null;
+		long last = 0;
+		synchronized(this) {
+			while(written < sequence && writing) {
+				await();
+			}
+			if(written < sequence) {
+				if(failure != null) {
+					throw new IOException("An earlier log write failed", failure);
+				}
+				writing = true;
+				channel = log;
+				batch = pending;
+				pending = spare;
+				spare = null;
+				last = appended;
+			}
+		}
+		
+		if(batch != null) {
+			try {
+				write(channel, batch);
+				if(policy == FsyncPolicy.ALWAYS) {
+					channel.force(false);
+				}
+			} catch(IOException e) {
+				synchronized(this) {
+					failure = e;
+					writing = false;
+					notifyAll();
+				}
+				throw e;
+			}
+			
+			synchronized(this) {
+				batch.reset();
+				spare = batch;
+				written = Math.max(written, last);
+				writing = false;
+				notifyAll();
+			}
+		}
+		checkpoint(true);
+	}
+	
+	private static void write(FileChannel channel, RecordBuffer records) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(records.array(), 0, records.size());
+		while(buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+	
+	private void await() throws IOException {
+		try {
+			wait();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for the log");
+		}
+	}
+	
+	private void checkOpen() throws IOException {
+		if(closed) {
+			throw new IllegalStateException("Tree is closed");
+		}
+		if(failure != null) {
+			// What's in the log is unknown, so nothing more can be trusted to it.
+			throw new IOException("An earlier log write failed", failure);
+		}
+	}
+	
+	/**
+	 * Forces the directory entry for a renamed file to disk, where the platform allows it.
+	 */
+	private void syncDirectory() {
+		try(FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch(IOException e) {
+			// Some platforms can't open a directory. The rename is still atomic, just not yet durable.
+		}
+	}
+	
+	private Path logFile(long generation) {
+		return directory.resolve(LOG_PREFIX + generation);
+	}
+	
+	/**
+	 * Byte buffer that hands out its array, so it can be written without copying.
+	 */
+	private static final class RecordBuffer extends ByteArrayOutputStream {
+		
+		private RecordBuffer() {
+			super(4096);
+		}
+		
+		private byte[] array() {
+			return buf;
+		}
+		
+		private void writeInt(int value) {
+			write(value >>> 24);
+			write(value >>> 16);
+			write(value >>> 8);
+			write(value);
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package com.bernerbits.zillow.test;
+
+/**
+ * Outcome of one of the StringUtils try methods: either the value parsed, or what was wrong with the input
+ * and where.
+ *
+ * Mutable, so that one can be reused for every parse, and a bad input costs no more than a good one: no
+ * exception, no stack trace, no message. Not thread-safe.
+ *
+ * @see com.bernerbits.zillow.test.StringUtils#tryStringToLong(CharSequence, int, int, LongParseResult)
+ *
+ * @author derekberner
+ */
+public final class LongParseResult {
+	
+	public enum ErrorKind {
+		/** A character other than a digit, or a minus sign anywhere but first. */
+		ILLEGAL_CHARACTER,
+		/** A value above Long.MAX_VALUE or below Long.MIN_VALUE. */
+		OVERFLOW
+	}
+	
+	private long value;
+	private ErrorKind error;
+	private int errorIndex = -1;
+	
+	/**
+	 * @return Whether the last parse succeeded. True before any parse, with a value of 0.
+	 */
+	public boolean isSuccess() {
+		return error == null;
+	}
+	
+	/**
+	 * @return The value parsed, or 0 if the last parse failed.
+	 */
+	public long getValue() {
+		return value;
+	}
+	
+	/**
+	 * @return What was wrong with the input, or null if the last parse succeeded.
+	 */
+	public ErrorKind getError() {
+		return error;
+	}
+	
+	/**
+	 * @return The index in the input of the character that was wrong, or of the digit that took the value out
+	 * 	of range, the same as a ParseException's error offset would be, or -1 if the last parse succeeded.
+	 */
+	public int getErrorIndex() {
+		return errorIndex;
+	}
+	
+	@Override
+	public String toString() {
+		return isSuccess() ? Long.toString(value) : error + " at " + errorIndex;
+	}
+	
+	/* package-private */ long succeed(long value) {
+		this.value = value;
+		this.error = null;
+		this.errorIndex = -1;
+		return value;
+	}
+	
+	/* package-private */ long fail(ErrorKind error, int errorIndex) {
+		this.value = 0;
+		this.error = error;
+		this.errorIndex = errorIndex;
+		return 0;
+	}
+}
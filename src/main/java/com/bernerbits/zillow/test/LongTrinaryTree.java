@@ -0,0 +1,108 @@
+package com.bernerbits.zillow.test;
+
+import java.util.Arrays;
+
+/**
+ * Trinary tree of primitive longs.
+ *
+ * Behaves like a {@link TrinaryTree} of Longs with natural ordering, but without a boxed Long, a comparator
+ * call or a node object per element. Nodes are slots in parallel arrays, and children are referred to by slot
+ * index; see {@link AbstractLongTrinaryTree} for how the tree itself works. The arrays grow by half again
+ * whenever they run out of slots.
+ *
+ * Not thread-safe, and not a Collection, so that nothing here ever needs to box.
+ *
+ * @see com.bernerbits.zillow.test.LongTrinaryTreeIterator
+ * @see com.bernerbits.zillow.test.OffHeapLongTrinaryTree
+ *
+ * @author derekberner
+ */
+public class LongTrinaryTree extends AbstractLongTrinaryTree {
+	
+	private long[] keys;
+	private int[] counts;
+	private int[] left;
+	private int[] right;
+	private byte[] heights;
+	
+	/**
+	 * Constructs a new, empty LongTrinaryTree.
+	 */
+	public LongTrinaryTree() {
+		this(16);
+	}
+	
+	/**
+	 * Constructs a new, empty LongTrinaryTree with room for a number of distinct values before it has to grow.
+	 *
+	 * @param initialCapacity The number of distinct values to make room for.
+	 */
+	public LongTrinaryTree(int initialCapacity) {
+		if(initialCapacity < 1) {
+			throw new IllegalArgumentException("Initial capacity must be positive: " + initialCapacity);
+		}
+		keys = new long[initialCapacity];
+		counts = new int[initialCapacity];
+		left = new int[initialCapacity];
+		right = new int[initialCapacity];
+		heights = new byte[initialCapacity];
+	}
+	
+	/* package-private */ void ensureCapacity(int slots) {
+		if(slots > keys.length) {
+			int capacity = (int)Math.min(Integer.MAX_VALUE - 8, Math.max(slots, keys.length + (keys.length >> 1) + 1L));
+			// Copy everything before replacing anything, so running out of memory part way leaves the arrays
+			// the same length.
+			long[] keys = Arrays.copyOf(this.keys, capacity);
+			int[] counts = Arrays.copyOf(this.counts, capacity);
+			int[] left = Arrays.copyOf(this.left, capacity);
+			int[] right = Arrays.copyOf(this.right, capacity);
+			byte[] heights = Arrays.copyOf(this.heights, capacity);
+			this.keys = keys;
+			this.counts = counts;
+			this.left = left;
+			this.right = right;
+			this.heights = heights;
+		}
+	}
+	
+	/* package-private */ long getKey(int node) {
+		return keys[node];
+	}
+	
+	/* package-private */ void setKey(int node, long key) {
+		keys[node] = key;
+	}
+	
+	/* package-private */ int getCount(int node) {
+		return counts[node];
+	}
+	
+	/* package-private */ void setCount(int node, int count) {
+		counts[node] = count;
+	}
+	
+	/* package-private */ int getLeft(int node) {
+		return left[node];
+	}
+	
+	/* package-private */ void setLeft(int node, int left) {
+		this.left[node] = left;
+	}
+	
+	/* package-private */ int getRight(int node) {
+		return right[node];
+	}
+	
+	/* package-private */ void setRight(int node, int right) {
+		this.right[node] = right;
+	}
+	
+	/* package-private */ int getHeight(int node) {
+		return heights[node];
+	}
+	
+	/* package-private */ void setHeight(int node, int height) {
+		heights[node] = (byte)height;
+	}
+}
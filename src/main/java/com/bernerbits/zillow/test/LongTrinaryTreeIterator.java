@@ -0,0 +1,118 @@
+package com.bernerbits.zillow.test;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator for {@link LongTrinaryTree} and {@link OffHeapLongTrinaryTree}.
+ *
+ * Gives the tree's values in ascending order, each as many times as it was inserted. Use {@link #nextLong()}
+ * rather than {@link #next()} to avoid boxing; next() is only there so the iterator can be used wherever an
+ * Iterator of Longs is expected.
+ *
+ * Works the same way as {@link TrinaryTreeIterator}: a fixed-size stack of the slots we went left from, so
+ * nothing is allocated once iteration starts. Removing a value that has duplicates just lowers its count.
+ * Removing the last one can rotate the tree, or move a value between slots, so afterwards the stack is
+ * rebuilt by searching for the next value from the root.
+ *
+ * @author derekberner
+ */
+public class LongTrinaryTreeIterator implements Iterator<Long> {
+	
+	private static final int NIL = AbstractLongTrinaryTree.NIL;
+	
+	private final AbstractLongTrinaryTree tree;
+	
+	private final int[] pending = new int[AbstractLongTrinaryTree.MAX_HEIGHT];
+	private int depth = 0;
+	
+	private int next;
+	private int nextIndex;
+	
+	private long current;
+	private boolean removable = false;
+	
+	/* package-private */ LongTrinaryTreeIterator(AbstractLongTrinaryTree tree) {
+		this.tree = tree;
+		pushLeft(tree.getRoot());
+		next = pop();
+	}
+	
+	public boolean hasNext() {
+		return next != NIL;
+	}
+	
+	/**
+	 * @return The next value.
+	 * @throws NoSuchElementException If there are no more values.
+	 */
+	public long nextLong() {
+		if(next == NIL) {
+			throw new NoSuchElementException();
+		}
+		current = tree.getKey(next);
+		removable = true;
+		if(++nextIndex == tree.getCount(next)) {
+			pushLeft(tree.getRight(next));
+			next = pop();
+			nextIndex = 0;
+		}
+		return current;
+	}
+	
+	public Long next() {
+		return nextLong();
+	}
+	
+	public void remove() {
+		if(!removable) {
+			throw new IllegalStateException("next() has not been called since the last remove()");
+		}
+		removable = false;
+		
+		if(next != NIL && tree.getKey(next) == current) {
+			// More of the same value to come, so the slot stays put.
+			tree.delete(current);
+			nextIndex--;
+			return;
+		}
+		if(tree.count(current) > 1) {
+			tree.delete(current);
+			return;
+		}
+		
+		long nextKey = next == NIL ? 0 : tree.getKey(next);
+		tree.delete(current);
+		if(next != NIL) {
+			seek(nextKey);
+		}
+	}
+	
+	private void pushLeft(int node) {
+		while(node != NIL) {
+			pending[depth++] = node;
+			node = tree.getLeft(node);
+		}
+	}
+	
+	private int pop() {
+		return depth == 0 ? NIL : pending[--depth];
+	}
+	
+	/**
+	 * Rebuilds the stack so that the slot holding the given value, which must be in the tree, is next.
+	 */
+	private void seek(long key) {
+		depth = 0;
+		int node = tree.getRoot();
+		while(tree.getKey(node) != key) {
+			if(key < tree.getKey(node)) {
+				pending[depth++] = node;
+				node = tree.getLeft(node);
+			} else {
+				node = tree.getRight(node);
+			}
+		}
+		next = node;
+	}
+}
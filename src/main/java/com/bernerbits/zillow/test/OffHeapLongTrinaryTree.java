@@ -0,0 +1,275 @@
+package com.bernerbits.zillow.test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Trinary tree of primitive longs kept outside the Java heap, optionally in a memory-mapped file.
+ *
+ * Works exactly like {@link LongTrinaryTree} (see {@link AbstractLongTrinaryTree}), but each slot is a fixed
+ * size record in a direct or mapped ByteBuffer instead of an entry in parallel arrays. A tree of any size is
+ * then only a handful of objects as far as the garbage collector is concerned, and a tree too big for the
+ * heap can live in a file and be paged in by the operating system as it's used.
+ *
+ * A single ByteBuffer can hold at most 2GB, so records are spread over segments of {@link #SEGMENT_SLOTS}
+ * records each, and a slot number is split into a segment and a record within it by shifting and masking.
+ * Record 0 of the first segment is a header rather than a slot. Each record is laid out as:
+ *
+ * <pre>
+ *   0  key     long
+ *   8  count   int
+ *   12 left    int (slot number, or -1 for none)
+ *   16 right   int
+ *   20 height  byte, then 3 unused bytes
+ * </pre>
+ *
+ * and the header as:
+ *
+ * <pre>
+ *   0  magic   int
+ *   4  root    int
+ *   8  free    int (head of the free list)
+ *   12 used    int (slots ever allocated)
+ *   16 size    int
+ * </pre>
+ *
+ * All little-endian, whatever the platform, so a file can be moved between machines.
+ *
+ * A tree opened with {@link #open(Path)} grows its file a segment at a time, and when opened again picks up
+ * exactly where it left off, without rebuilding anything. The header is only written by {@link #flush()}
+ * and {@link #close()}, and nodes are changed in place, so a file is only guaranteed consistent after one of
+ * those has returned; if the process dies in between, the file may be unusable.
+ *
+ * Not thread-safe.
+ *
+ * @author derekberner
+ */
+public class OffHeapLongTrinaryTree extends AbstractLongTrinaryTree implements Closeable {
+	
+	/* package-private */ static final int RECORD_BYTES = 24;
+	
+	private static final int SEGMENT_SHIFT = 16;
+	
+	/* package-private */ static final int SEGMENT_SLOTS = 1 << SEGMENT_SHIFT;
+	
+	private static final int SEGMENT_MASK = SEGMENT_SLOTS - 1;
+	
+	private static final long SEGMENT_BYTES = (long)SEGMENT_SLOTS * RECORD_BYTES;
+	
+	private static final int KEY = 0;
+	private static final int COUNT = 8;
+	private static final int LEFT = 12;
+	private static final int RIGHT = 16;
+	private static final int HEIGHT = 20;
+	
+	private static final int MAGIC = 0x54524e31;
+	private static final int HEADER_MAGIC = 0;
+	private static final int HEADER_ROOT = 4;
+	private static final int HEADER_FREE = 8;
+	private static final int HEADER_USED = 12;
+	private static final int HEADER_SIZE = 16;
+	
+	// Null for a tree that only lives in memory.
+	private final FileChannel channel;
+	
+	private ByteBuffer[] segments = new ByteBuffer[0];
+	
+	/**
+	 * Constructs a new, empty OffHeapLongTrinaryTree in direct memory. Its memory is freed once the tree is
+	 * garbage collected.
+	 */
+	public OffHeapLongTrinaryTree() {
+		this.channel = null;
+		ensureCapacity(0);
+	}
+	
+	private OffHeapLongTrinaryTree(FileChannel channel) {
+		this.channel = channel;
+	}
+	
+	/**
+	 * Opens a tree stored in a file, creating the file if it doesn't exist or is empty.
+	 *
+	 * @param file The file to keep the tree in.
+	 * @return The tree.
+	 * @throws IOException If the file can't be opened or mapped, or isn't a tree.
+	 */
+	public static OffHeapLongTrinaryTree open(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			OffHeapLongTrinaryTree tree = new OffHeapLongTrinaryTree(channel);
+			long length = channel.size();
+			if(length == 0) {
+				tree.map(1);
+				tree.flush();
+			} else {
+				if(length % SEGMENT_BYTES != 0 || length / SEGMENT_BYTES > Integer.MAX_VALUE) {
+					throw new IOException("Not a trinary tree file, or damaged: " + file);
+				}
+				tree.map((int)(length / SEGMENT_BYTES));
+				tree.readHeader(file);
+			}
+			return tree;
+		} catch(IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Writes the header and, for a tree in a file, forces everything out to disk. Once this returns, the file
+	 * can be reopened as the tree is now.
+	 *
+	 * @throws IOException If the file can't be written.
+	 */
+	public void flush() throws IOException {
+		ByteBuffer header = segment(0);
+		header.putInt(HEADER_MAGIC, MAGIC);
+		header.putInt(HEADER_ROOT, root);
+		header.putInt(HEADER_FREE, free);
+		header.putInt(HEADER_USED, used);
+		header.putInt(HEADER_SIZE, size);
+		if(channel != null) {
+			for(ByteBuffer segment : segments) {
+				((MappedByteBuffer)segment).force();
+			}
+		}
+	}
+	
+	/**
+	 * Flushes the tree, then lets go of its file. The tree can't be used afterwards.
+	 */
+	public void close() throws IOException {
+		if(segments == null) {
+			return;
+		}
+		try {
+			flush();
+		} finally {
+			// Mapped memory is only unmapped once the buffers are garbage collected.
+			segments = null;
+			if(channel != null) {
+				channel.close();
+			}
+		}
+	}
+	
+	/* package-private */ void ensureCapacity(int slots) {
+		// Record 0 is the header.
+		long records = slots + 1L;
+		int needed = (int)((records + SEGMENT_SLOTS - 1) >>> SEGMENT_SHIFT);
+		if(needed > liveSegments().length) {
+			try {
+				map(needed);
+			} catch(IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+	
+	private ByteBuffer[] liveSegments() {
+		if(segments == null) {
+			throw new IllegalStateException("Tree is closed");
+		}
+		return segments;
+	}
+	
+	/**
+	 * Adds segments until there are the given number, mapping them from the file if there is one.
+	 */
+	private void map(int count) throws IOException {
+		int existing = liveSegments().length;
+		ByteBuffer[] grown = Arrays.copyOf(segments, count);
+		for(int i = existing; i < count; i++) {
+			ByteBuffer segment;
+			if(channel == null) {
+				segment = ByteBuffer.allocateDirect((int)SEGMENT_BYTES);
+			} else {
+				// Mapping past the end of the file grows it.
+				segment = channel.map(FileChannel.MapMode.READ_WRITE, i * SEGMENT_BYTES, SEGMENT_BYTES);
+			}
+			grown[i] = segment.order(ByteOrder.LITTLE_ENDIAN);
+		}
+		segments = grown;
+	}
+	
+	private void readHeader(Path file) throws IOException {
+		ByteBuffer header = segment(0);
+		if(header.getInt(HEADER_MAGIC) != MAGIC) {
+			throw new IOException("Not a trinary tree file: " + file);
+		}
+		root = header.getInt(HEADER_ROOT);
+		free = header.getInt(HEADER_FREE);
+		used = header.getInt(HEADER_USED);
+		size = header.getInt(HEADER_SIZE);
+		if(used < 0 || used > (long)segments.length * SEGMENT_SLOTS - 1 || size < 0 || root < NIL || root >= used) {
+			throw new IOException("Damaged trinary tree file: " + file);
+		}
+	}
+	
+	private ByteBuffer segment(int index) {
+		return liveSegments()[index];
+	}
+	
+	/* package-private */ long getKey(int node) {
+		int record = node + 1;
+		return segments[record >>> SEGMENT_SHIFT].getLong((record & SEGMENT_MASK) * RECORD_BYTES + KEY);
+	}
+	
+	/* package-private */ void setKey(int node, long key) {
+		int record = node + 1;
+		segments[record >>> SEGMENT_SHIFT].putLong((record & SEGMENT_MASK) * RECORD_BYTES + KEY, key);
+	}
+	
+	/* package-private */ int getCount(int node) {
+		return getInt(node, COUNT);
+	}
+	
+	/* package-private */ void setCount(int node, int count) {
+		putInt(node, COUNT, count);
+	}
+	
+	/* package-private */ int getLeft(int node) {
+		return getInt(node, LEFT);
+	}
+	
+	/* package-private */ void setLeft(int node, int left) {
+		putInt(node, LEFT, left);
+	}
+	
+	/* package-private */ int getRight(int node) {
+		return getInt(node, RIGHT);
+	}
+	
+	/* package-private */ void setRight(int node, int right) {
+		putInt(node, RIGHT, right);
+	}
+	
+	/* package-private */ int getHeight(int node) {
+		int record = node + 1;
+		return segments[record >>> SEGMENT_SHIFT].get((record & SEGMENT_MASK) * RECORD_BYTES + HEIGHT);
+	}
+	
+	/* package-private */ void setHeight(int node, int height) {
+		int record = node + 1;
+		segments[record >>> SEGMENT_SHIFT].put((record & SEGMENT_MASK) * RECORD_BYTES + HEIGHT, (byte)height);
+	}
+	
+	private int getInt(int node, int field) {
+		int record = node + 1;
+		return segments[record >>> SEGMENT_SHIFT].getInt((record & SEGMENT_MASK) * RECORD_BYTES + field);
+	}
+	
+	private void putInt(int node, int field, int value) {
+		int record = node + 1;
+		segments[record >>> SEGMENT_SHIFT].putInt((record & SEGMENT_MASK) * RECORD_BYTES + field, value);
+	}
+}
@@ -0,0 +1,110 @@
+package com.bernerbits.zillow.test;
+
+import java.util.Comparator;
+import java.util.Iterator;
+
+/**
+ * Persistent (immutable) trinary tree.
+ *
+ * Holds values the same way as a {@link TrinaryTree} that collapses duplicates, in the same order, but can
+ * never change. Instead, insert and delete return a new version of the tree. Only the nodes on the path
+ * from the root down to the change are copied, O(log n) of them (see {@link PersistentTrinaryTreeNode});
+ * every other node is shared between the old version and the new one, and the old version stays exactly
+ * as it was. Keeping many versions around therefore costs memory only for what actually differs between them.
+ *
+ * A version can be handed to any number of threads and read without any locking. The usual way to get
+ * one is {@link ConcurrentTrinaryTree#snapshot()}, which doesn't copy the tree, only joins its stripes in
+ * O(log n) each, and gives e.g. an analytics job a consistent view to iterate over for as long as it likes
+ * while writers carry on changing the tree.
+ *
+ * @see com.bernerbits.zillow.test.PersistentTrinaryTreeNode
+ * @see com.bernerbits.zillow.test.ConcurrentTrinaryTree
+ *
+ * @author derekberner
+ *
+ * @param <T> The type parameter
+ */
+public final class PersistentTrinaryTree<T> {
+	
+	private final PersistentTrinaryTreeNode<T> root;
+	
+	private final Comparator<T> comparator;
+	
+	/**
+	 * Constructs a new, empty PersistentTrinaryTree using a default comparator for Comparable class. See
+	 * {@link TrinaryTree#create()}.
+	 */
+	public static <C extends Comparable<C>> PersistentTrinaryTree<C> create() {
+		return new PersistentTrinaryTree<C>(new Comparator<C>() {
+			public int compare(C o1, C o2) {
+				return o1.compareTo(o2);
+			}
+		});
+	}
+	
+	/**
+	 * Constructs a new, empty PersistentTrinaryTree using a custom comparator.
+	 *
+	 * @param comparator the Comparator to use.
+	 */
+	public PersistentTrinaryTree(Comparator<T> comparator) {
+		this(null, comparator);
+	}
+	
+	/* package-private */ PersistentTrinaryTree(PersistentTrinaryTreeNode<T> root, Comparator<T> comparator) {
+		this.root = root;
+		this.comparator = comparator;
+	}
+	
+	/**
+	 * @return A new version of the tree with the value added after any values equal to it.
+	 */
+	public PersistentTrinaryTree<T> insert(T value) {
+		if(value == null) {
+			throw new IllegalArgumentException("Attempted null insert detected.");
+		}
+		return new PersistentTrinaryTree<T>(PersistentTrinaryTreeNode.insert(root, value, comparator), comparator);
+	}
+	
+	/**
+	 * @return A new version of the tree without the earliest value equal to the given one, or this same
+	 * 	version if there was no such value.
+	 */
+	public PersistentTrinaryTree<T> delete(T value) {
+		PersistentTrinaryTreeNode<T> deleted = PersistentTrinaryTreeNode.delete(root, value, false, comparator);
+		return deleted == root ? this : new PersistentTrinaryTree<T>(deleted, comparator);
+	}
+	
+	/**
+	 * @return An iterator over this version of the tree, which doesn't support remove.
+	 */
+	public Iterator<T> iterator() {
+		return new PersistentTrinaryTreeIterator<T>(null, root);
+	}
+	
+	/**
+	 * @return Whether the tree holds a value equal to the given one, according to the comparator.
+	 */
+	public boolean contains(T value) {
+		return PersistentTrinaryTreeNode.find(root, value, comparator) != null;
+	}
+	
+	/**
+	 * @return The number of values in the tree equal to the given one, according to the comparator.
+	 */
+	public int count(T value) {
+		PersistentTrinaryTreeNode<T> node = PersistentTrinaryTreeNode.find(root, value, comparator);
+		return node == null ? 0 : node.getCount();
+	}
+	
+	/**
+	 * @return The number of values in the tree.
+	 */
+	public int size() {
+		return PersistentTrinaryTreeNode.size(root);
+	}
+	
+	/* package-private */ PersistentTrinaryTreeNode<T> getRoot() {
+		return root;
+	}
+}
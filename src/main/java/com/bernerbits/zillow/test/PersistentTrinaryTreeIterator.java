@@ -0,0 +1,72 @@
+package com.bernerbits.zillow.test;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator for trees of immutable nodes: {@link ConcurrentTrinaryTree} and {@link PersistentTrinaryTree}.
+ *
+ * Walks one version of the tree, in the same order as {@link TrinaryTreeIterator}: a stack of the nodes we went
+ * left from, and a position within the current node's run of equal values. Nodes never change, so nothing
+ * another thread does can disturb the walk. Removing a value from a ConcurrentTrinaryTree only replaces the
+ * tree's root, leaving the version being walked intact. A PersistentTrinaryTree can't be changed at all, so 
+ * iterators over one don't support remove.
+ *
+ * @author derekberner
+ *
+ * @param <T> Type parameter of the source tree.
+ */
+/* package-private */ class PersistentTrinaryTreeIterator<T> implements Iterator<T> {
+	
+	// The tree to remove values from, or null if they can't be removed.
+	private final ConcurrentTrinaryTree<T> tree;
+	
+	private final Deque<PersistentTrinaryTreeNode<T>> pending = new ArrayDeque<PersistentTrinaryTreeNode<T>>();
+	private PersistentTrinaryTreeNode<T> next;
+	private int nextIndex;
+	
+	private T current;
+	
+	/* package-private */ PersistentTrinaryTreeIterator(ConcurrentTrinaryTree<T> tree, PersistentTrinaryTreeNode<T> root) {
+		this.tree = tree;
+		pushLeft(root);
+		next = pending.pollFirst();
+	}
+	
+	public boolean hasNext() {
+		return next != null;
+	}
+	
+	public T next() {
+		if(next == null) {
+			throw new NoSuchElementException();
+		}
+		current = next.getValue(nextIndex);
+		if(++nextIndex == next.getCount()) {
+			pushLeft(next.getRight());
+			next = pending.pollFirst();
+			nextIndex = 0;
+		}
+		return current;
+	}
+	
+	public void remove() {
+		if(tree == null) {
+			throw new UnsupportedOperationException("Persistent trees can't be modified in place.");
+		}
+		if(current == null) {
+			throw new IllegalStateException("next() has not been called since the last remove()");
+		}
+		tree.remove(current);
+		current = null;
+	}
+	
+	private void pushLeft(PersistentTrinaryTreeNode<T> node) {
+		while(node != null) {
+			pending.push(node);
+			node = node.getLeft();
+		}
+	}
+}
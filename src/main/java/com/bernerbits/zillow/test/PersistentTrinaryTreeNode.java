@@ -0,0 +1,361 @@
+package com.bernerbits.zillow.test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Immutable trinary tree node.
+ *
+ * Holds the same things as a {@link TrinaryTreeRunNode}: every value equal to the first, in insertion order,
+ * plus left and right children, a height for rebalancing, and the size of its subtree. None of it ever
+ * changes once the node is constructed, so a node and everything below it can be shared freely between
+ * threads and between versions of a tree. Insert and delete never modify a node; they copy the nodes on the
+ * path from the root down to the change (O(log n) of them) and hand back a new root, leaving the old root
+ * and every tree built from it exactly as they were.
+ *
+ * Equal values are collapsed rather than chained, since appending to a chain would mean copying all of it.
+ * As long as every duplicate is also equals() to the first value, the run is just a count. Otherwise the run
+ * is an array, copied whenever a value is added or removed, which is fine for the handful of distinct
+ * duplicates a key usually has.
+ *
+ * The insert and delete operations are static, and null stands for an empty subtree. They recurse, but
+ * only as deep as the tree is tall.
+ *
+ * @see com.bernerbits.zillow.test.ConcurrentTrinaryTree
+ * @see com.bernerbits.zillow.test.PersistentTrinaryTree
+ *
+ * @author derekberner
+ *
+ * @param <T> Type parameter of the enclosing tree.
+ */
+/* package-private */ final class PersistentTrinaryTreeNode<T> {
+	
+	private final T value;
+	private final Object[] values;
+	private final int count;
+	
+	private final PersistentTrinaryTreeNode<T> left;
+	private final PersistentTrinaryTreeNode<T> right;
+	
+	private final int height;
+	private final int size;
+	
+	private PersistentTrinaryTreeNode(T value, Object[] values, int count, PersistentTrinaryTreeNode<T> left, PersistentTrinaryTreeNode<T> right) {
+		this.value = value;
+		this.values = values;
+		this.count = count;
+		this.left = left;
+		this.right = right;
+		this.height = 1 + Math.max(height(left), height(right));
+		this.size = count + size(left) + size(right);
+	}
+	
+	/**
+	 * @return The node holding values equal to the given one, or null if there isn't one.
+	 */
+	/* package-private */ static <T> PersistentTrinaryTreeNode<T> find(PersistentTrinaryTreeNode<T> node, T value, Comparator<T> comparator) {
+		while(node != null) {
+			int comparison = comparator.compare(value, node.value);
+			if(comparison == 0) {
+				return node;
+			}
+			node = comparison < 0 ? node.left : node.right;
+		}
+		return null;
+	}
+	
+	/**
+	 * @return A tree with the value added after any values equal to it.
+	 */
+	/* package-private */ static <T> PersistentTrinaryTreeNode<T> insert(PersistentTrinaryTreeNode<T> node, T value, Comparator<T> comparator) {
+		if(node == null) {
+			return new PersistentTrinaryTreeNode<T>(value, null, 1, null, null);
+		}
+		int comparison = comparator.compare(value, node.value);
+		if(comparison == 0) {
+			return node.withAdded(value);
+		} else if(comparison < 0) {
+			return balance(node, insert(node.left, value, comparator), node.right);
+		} else {
+			return balance(node, node.left, insert(node.right, value, comparator));
+		}
+	}
+	
+	/**
+	 * @param exact Whether to remove the given instance, rather than the earliest value equal to it. Values
+	 * 	that are equals() to the first in their run aren't kept individually, so for those either will do.
+	 * @return A tree without the value, or the same tree if it wasn't found.
+	 */
+	/* package-private */ static <T> PersistentTrinaryTreeNode<T> delete(PersistentTrinaryTreeNode<T> node, T value, boolean exact, Comparator<T> comparator) {
+		if(node == null) {
+			return null;
+		}
+		int comparison = comparator.compare(value, node.value);
+		if(comparison < 0) {
+			PersistentTrinaryTreeNode<T> left = delete(node.left, value, exact, comparator);
+			return left == node.left ? node : balance(node, left, node.right);
+		} else if(comparison > 0) {
+			PersistentTrinaryTreeNode<T> right = delete(node.right, value, exact, comparator);
+			return right == node.right ? node : balance(node, node.left, right);
+		}
+		
+		int index = exact ? node.indexOf(value) : 0;
+		if(index < 0) {
+			return node;
+		} else if(node.count > 1) {
+			return node.withRemoved(index);
+		} else if(node.left == null) {
+			return node.right;
+		} else if(node.right == null) {
+			return node.left;
+		}
+		// Two children: the smallest run on the right takes our place.
+		PersistentTrinaryTreeNode<T> successor = node.right;
+		while(successor.left != null) {
+			successor = successor.left;
+		}
+		return balance(successor, node.left, deleteFirst(node.right));
+	}
+	
+	/**
+	 * Joins two trees, every value in the first of which comes before every value in the second, in
+	 * O(log n) time. Only the nodes down one edge of the taller tree are copied; the rest are shared.
+	 *
+	 * @return The joined tree.
+	 */
+	/* package-private */ static <T> PersistentTrinaryTreeNode<T> join(PersistentTrinaryTreeNode<T> left, PersistentTrinaryTreeNode<T> right) {
+		if(left == null) {
+			return right;
+		} else if(right == null) {
+			return left;
+		}
+		PersistentTrinaryTreeNode<T> first = right;
+		while(first.left != null) {
+			first = first.left;
+		}
+		return join(left, first, deleteFirst(right));
+	}
+	
+	/**
+	 * Joins two trees around the values of a node that come between them: down the taller tree's inner edge
+	 * to a subtree as tall as the shorter tree, then rebalancing on the way back up, as insert does.
+	 */
+	private static <T> PersistentTrinaryTreeNode<T> join(PersistentTrinaryTreeNode<T> left, PersistentTrinaryTreeNode<T> middle, PersistentTrinaryTreeNode<T> right) {
+		if(height(left) > height(right) + 1) {
+			return balance(left, left.left, join(left.right, middle, right));
+		} else if(height(right) > height(left) + 1) {
+			return balance(right, join(left, middle, right.left), right.right);
+		}
+		return middle.with(left, right);
+	}
+	
+	/**
+	 * @return A tree of the values less than the given one, in O(log n) time.
+	 */
+	/* package-private */ static <T> PersistentTrinaryTreeNode<T> lessThan(PersistentTrinaryTreeNode<T> node, T value, Comparator<T> comparator) {
+		if(node == null) {
+			return null;
+		} else if(comparator.compare(value, node.value) <= 0) {
+			return lessThan(node.left, value, comparator);
+		}
+		return join(node.left, node, lessThan(node.right, value, comparator));
+	}
+	
+	/**
+	 * @return A tree of the values equal to or greater than the given one, in O(log n) time.
+	 */
+	/* package-private */ static <T> PersistentTrinaryTreeNode<T> atLeast(PersistentTrinaryTreeNode<T> node, T value, Comparator<T> comparator) {
+		if(node == null) {
+			return null;
+		} else if(comparator.compare(value, node.value) > 0) {
+			return atLeast(node.right, value, comparator);
+		}
+		return join(atLeast(node.left, value, comparator), node, node.right);
+	}
+	
+	/**
+	 * @param rank A position in the tree's order, counting from 0. Must be less than the tree's size.
+	 * @return The node holding the value at that position.
+	 */
+	/* package-private */ static <T> PersistentTrinaryTreeNode<T> select(PersistentTrinaryTreeNode<T> node, int rank) {
+		while(true) {
+			int leftSize = size(node.left);
+			if(rank < leftSize) {
+				node = node.left;
+			} else if(rank < leftSize + node.count) {
+				return node;
+			} else {
+				rank -= leftSize + node.count;
+				node = node.right;
+			}
+		}
+	}
+	
+	/**
+	 * Builds a perfectly balanced tree from values already in order, in a single pass, as
+	 * {@link TrinaryTree#bulkLoad(Iterator)} does for values that arrive sorted. Equal values keep the order
+	 * given.
+	 *
+	 * @return The root of the tree, or null if there were no values.
+	 */
+	/* package-private */ static <T> PersistentTrinaryTreeNode<T> build(Iterator<? extends T> sorted, Comparator<T> comparator) {
+		List<PersistentTrinaryTreeNode<T>> runs = new ArrayList<PersistentTrinaryTreeNode<T>>();
+		List<T> run = new ArrayList<T>();
+		while(sorted.hasNext()) {
+			T value = sorted.next();
+			if(!run.isEmpty() && comparator.compare(run.get(0), value) != 0) {
+				runs.add(run(run));
+				run.clear();
+			}
+			run.add(value);
+		}
+		if(!run.isEmpty()) {
+			runs.add(run(run));
+		}
+		return build(runs, 0, runs.size());
+	}
+	
+	private static <T> PersistentTrinaryTreeNode<T> build(List<PersistentTrinaryTreeNode<T>> runs, int from, int to) {
+		if(from == to) {
+			return null;
+		}
+		int middle = (from + to) >>> 1;
+		PersistentTrinaryTreeNode<T> node = runs.get(middle);
+		return new PersistentTrinaryTreeNode<T>(node.value, node.values, node.count, build(runs, from, middle), build(runs, middle + 1, to));
+	}
+	
+	/**
+	 * @return A childless node holding a run of equal values.
+	 */
+	private static <T> PersistentTrinaryTreeNode<T> run(List<T> run) {
+		T first = run.get(0);
+		for(T value : run) {
+			if(!value.equals(first)) {
+				return new PersistentTrinaryTreeNode<T>(first, run.toArray(), run.size(), null, null);
+			}
+		}
+		return new PersistentTrinaryTreeNode<T>(first, null, run.size(), null, null);
+	}
+	
+	private static <T> PersistentTrinaryTreeNode<T> deleteFirst(PersistentTrinaryTreeNode<T> node) {
+		if(node.left == null) {
+			return node.right;
+		}
+		return balance(node, deleteFirst(node.left), node.right);
+	}
+	
+	/**
+	 * Copies a node's values with new children, rotating if the children's heights differ by two.
+	 */
+	private static <T> PersistentTrinaryTreeNode<T> balance(PersistentTrinaryTreeNode<T> node, PersistentTrinaryTreeNode<T> left, PersistentTrinaryTreeNode<T> right) {
+		int balance = height(left) - height(right);
+		if(balance > 1) {
+			if(height(left.left) < height(left.right)) {
+				// The "left-right" case.
+				PersistentTrinaryTreeNode<T> pivot = left.right;
+				return pivot.with(left.with(left.left, pivot.left), node.with(pivot.right, right));
+			}
+			return left.with(left.left, node.with(left.right, right));
+		} else if(balance < -1) {
+			// Mirror image of the above.
+			if(height(right.right) < height(right.left)) {
+				PersistentTrinaryTreeNode<T> pivot = right.left;
+				return pivot.with(node.with(left, pivot.left), right.with(pivot.right, right.right));
+			}
+			return right.with(node.with(left, right.left), right.right);
+		}
+		return node.with(left, right);
+	}
+	
+	private PersistentTrinaryTreeNode<T> with(PersistentTrinaryTreeNode<T> left, PersistentTrinaryTreeNode<T> right) {
+		if(left == this.left && right == this.right) {
+			return this;
+		}
+		return new PersistentTrinaryTreeNode<T>(value, values, count, left, right);
+	}
+	
+	private PersistentTrinaryTreeNode<T> withAdded(T added) {
+		Object[] grown;
+		if(values == null) {
+			if(added.equals(value)) {
+				return new PersistentTrinaryTreeNode<T>(value, null, count + 1, left, right);
+			}
+			grown = new Object[count + 1];
+			for(int i = 0; i < count; i++) {
+				grown[i] = value;
+			}
+		} else {
+			grown = new Object[count + 1];
+			System.arraycopy(values, 0, grown, 0, count);
+		}
+		grown[count] = added;
+		return new PersistentTrinaryTreeNode<T>(value, grown, count + 1, left, right);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private PersistentTrinaryTreeNode<T> withRemoved(int index) {
+		if(values == null) {
+			return new PersistentTrinaryTreeNode<T>(value, null, count - 1, left, right);
+		}
+		Object[] shrunk = new Object[count - 1];
+		System.arraycopy(values, 0, shrunk, 0, index);
+		System.arraycopy(values, index + 1, shrunk, index, count - index - 1);
+		return new PersistentTrinaryTreeNode<T>((T)shrunk[0], shrunk, count - 1, left, right);
+	}
+	
+	private int indexOf(T instance) {
+		if(values == null) {
+			return 0;
+		}
+		for(int i = 0; i < count; i++) {
+			if(values[i] == instance) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * @return The earliest inserted of this node's values.
+	 */
+	/* package-private */ T getValue() {
+		return value;
+	}
+	
+	/**
+	 * @param index The position of a value within this node, counting from 0.
+	 */
+	@SuppressWarnings("unchecked")
+	/* package-private */ T getValue(int index) {
+		return values == null ? value : (T)values[index];
+	}
+	
+	/**
+	 * @return The number of values held by this node.
+	 */
+	/* package-private */ int getCount() {
+		return count;
+	}
+	
+	/* package-private */ PersistentTrinaryTreeNode<T> getLeft() {
+		return left;
+	}
+	
+	/* package-private */ PersistentTrinaryTreeNode<T> getRight() {
+		return right;
+	}
+	
+	/* package-private */ int getHeight() {
+		return height;
+	}
+	
+	/* package-private */ static int height(PersistentTrinaryTreeNode<?> node) {
+		return node == null ? 0 : node.height;
+	}
+	
+	/* package-private */ static int size(PersistentTrinaryTreeNode<?> node) {
+		return node == null ? 0 : node.size;
+	}
+}
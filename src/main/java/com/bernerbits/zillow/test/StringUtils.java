@@ -1,5 +1,7 @@
 package com.bernerbits.zillow.test;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.text.ParseException;
 
 /**
@@ -16,13 +18,29 @@ import java.text.ParseException;
  *   Convert "c" to a digit.
  *   If positive, add the digit to the result. Otherwise, subtract the digit from the result.
  * 
- * Finally, return the result.
+ * Finally, check the sign of the result, and return it.
+ * 
+ * Nineteen digits or fewer are converted without checking for overflow: eighteen digits always fit in a long,
+ * and nineteen never come to 10^19, under 2^64, so if they overflow they always wrap around to the wrong sign.
+ * Only more than nineteen digits can fit with leading zeroes, and overflow otherwise; those are rare enough to
+ * take a slower path that checks each digit before multiplying.
+ * 
+ * Numbers of eight or more digits in a ByteBuffer take a faster path, which reads eight bytes at once into a
+ * long and checks and converts them all together with a handful of shifts and multiplies, falling back to one
+ * at a time for the last few digits or if any of the eight isn't one. Results and error offsets are the same
+ * either way. Characters, and bytes in an array, would have to be packed into the long one at a time, which
+ * costs as much as converting them one at a time.
+ * 
+ * The string can also be part of a longer CharSequence or char array, given as a range. Nothing is copied or
+ * allocated unless the string is invalid, so fields can be parsed in place out of a larger buffer. For input
+ * that arrives as bytes, the asciiToLong methods do the same straight from a byte array or ByteBuffer, skipping
+ * decoding the bytes into characters at all.
  *   
  * Known limitations:
  * 
- * 1. This strategy does not explicitly handle overflow. If the string value given exceeds Long.MAX_VALUE 
- *   or is less than Long.MIN_VALUE, the most significant bits will be chopped off. This can be acceptable,
- *   but it should be made clear.
+ * 1. Values greater than Long.MAX_VALUE or less than Long.MIN_VALUE are rejected like invalid characters,
+ *   with the index of the digit that took the value out of range. Leading zeroes don't count towards it, so
+ *   "-00009223372036854775808" is still Long.MIN_VALUE.
  *   
  * 2. Niceties like spaces, comma-separated thousands, decimal points, and currency signs are not accepted.
  *   For this implementation, it is assumed that any input has been scrubbed before being handed to the
@@ -41,34 +59,266 @@ import java.text.ParseException;
  * 5. Invalid data is never dealt with gracefully, opting instead to throw a ParseException when a non-numeric
  *   character is encountered. As an alternative, an input string of "123ZZZ" might still return 123 as its 
  *   result; in this situation, the first invalid character is regarded as the end of the string for purposes 
- *   of numeric conversion.
+ *   of numeric conversion. Where invalid input is common enough that building exceptions would cost more than
+ *   the parsing, the try methods report it in a reusable LongParseResult instead.
  * 
  * @author derekberner
  *
  */
 public class StringUtils {
-
+	
 	/**
 	 * Converts a string in base 10 to a long value. 
 	 * 
 	 * @param s A numeric string to convert.
 	 * @return The numeric value of the string.
-	 * @throws ParseException If a non-numeric character is encountered.
+	 * @throws ParseException If a non-numeric character is encountered, or the value is out of range. The error
+	 * 	offset is the index in s of the character, or of the digit that went out of range.
 	 */
 	public static long stringToLong(String s) throws ParseException {
+		return stringToLong(s, 0, s.length());
+	}
+	
+	/**
+	 * Converts part of a character sequence in base 10 to a long value, without copying it out first. Lets
+	 * a field be parsed straight out of a StringBuilder or a line buffer.
+	 * 
+	 * @param s A character sequence holding the numeric string.
+	 * @param start The index of its first character.
+	 * @param end The index after its last character.
+	 * @return The numeric value of the string.
+	 * @throws ParseException If a non-numeric character is encountered, or the value is out of range. The error
+	 * 	offset is the index in s of the character, or of the digit that went out of range.
+	 * @throws IndexOutOfBoundsException If start or end are outside s, or start is after end.
+	 */
+	public static long stringToLong(CharSequence s, int start, int end) throws ParseException {
+		checkRange(start, end, s.length());
+		return parse(s, start, end, null);
+	}
+	
+	/**
+	 * Converts part of a character array in base 10 to a long value, without copying it out first.
+	 * 
+	 * @param chars A character array holding the numeric string.
+	 * @param offset The index of its first character.
+	 * @param length The number of characters in it.
+	 * @return The numeric value of the string.
+	 * @throws ParseException If a non-numeric character is encountered, or the value is out of range. The error
+	 * 	offset is the index in chars of the character, or of the digit that went out of range.
+	 * @throws IndexOutOfBoundsException If the string would run outside chars.
+	 */
+	public static long stringToLong(char[] chars, int offset, int length) throws ParseException {
+		int end = offset + length;
+		checkRange(offset, end, chars.length);
+		return parse(chars, offset, end, null);
+	}
+	
+	/**
+	 * Converts part of a byte array holding an ASCII numeric string in base 10 to a long value, without
+	 * decoding it to a String first. Same rules as {@link #stringToLong(String)}.
+	 * 
+	 * @param bytes A byte array holding the numeric string.
+	 * @param offset The index of its first byte.
+	 * @param length The number of bytes in it.
+	 * @return The numeric value of the string.
+	 * @throws ParseException If a byte other than an ASCII digit is encountered, or the value is out of range.
+	 * 	The error offset is the index in bytes of the byte, or of the digit that went out of range.
+	 * @throws IndexOutOfBoundsException If the string would run outside bytes.
+	 */
+	public static long asciiToLong(byte[] bytes, int offset, int length) throws ParseException {
+		int end = offset + length;
+		checkRange(offset, end, bytes.length);
+		return parse(bytes, offset, end, null);
+	}
+	
+	/**
+	 * Converts the remaining bytes of a buffer, an ASCII numeric string in base 10, to a long value, and
+	 * moves the buffer's position to its limit. Works on both heap and direct (including memory-mapped)
+	 * buffers, without copying. Same rules as {@link #stringToLong(String)}.
+	 * 
+	 * @param buffer A buffer holding the numeric string between its position and limit.
+	 * @return The numeric value of the string.
+	 * @throws ParseException If a byte other than an ASCII digit is encountered, or the value is out of range.
+	 * 	The error offset is the index in the buffer of the byte, or of the digit that went out of range, and the
+	 * 	buffer's position is left where it was.
+	 */
+	public static long asciiToLong(ByteBuffer buffer) throws ParseException {
+		long result = parse(buffer, buffer.position(), buffer.limit(), null);
+		buffer.position(buffer.limit());
+		return result;
+	}
+	
+	/**
+	 * Converts an ASCII numeric string in base 10 at a buffer's position, ending at a delimiter or the
+	 * buffer's limit, to a long value, and moves the buffer's position to the end of it. That leaves the
+	 * position on the delimiter, if there was one, so fields can be read one after another:
+	 * 
+	 * <pre>
+	 * long first = StringUtils.asciiToLong(buffer, (byte)',');
+	 * buffer.get(); // the comma
+	 * long second = StringUtils.asciiToLong(buffer, (byte)',');
+	 * </pre>
+	 * 
+	 * Works on both heap and direct (including memory-mapped) buffers, without copying. Same rules as
+	 * {@link #stringToLong(String)}.
+	 * 
+	 * @param buffer A buffer holding the numeric string from its position.
+	 * @param delimiter The byte after the numeric string.
+	 * @return The numeric value of the string.
+	 * @throws ParseException If a byte other than an ASCII digit is encountered before the delimiter, or the
+	 * 	value is out of range. The error offset is the index in the buffer of the byte, or of the digit that went
+	 * 	out of range, and the buffer's position is left where it was.
+	 */
+	public static long asciiToLong(ByteBuffer buffer, byte delimiter) throws ParseException {
+		int end = find(buffer, delimiter);
+		long result = parse(buffer, buffer.position(), end, null);
+		buffer.position(end);
+		return result;
+	}
+	
+	/**
+	 * Converts a string in base 10 to a long value, like {@link #stringToLong(String)}, but records invalid
+	 * input in a result rather than throwing, so bad input costs no more than good.
+	 * 
+	 * @param s A numeric string to convert.
+	 * @param result Where to record the value, or the error. Can be reused.
+	 * @return Whether the string was valid.
+	 */
+	public static boolean tryStringToLong(String s, LongParseResult result) {
+		return tryStringToLong(s, 0, s.length(), result);
+	}
+	
+	/**
+	 * Converts part of a character sequence in base 10 to a long value, like
+	 * {@link #stringToLong(CharSequence, int, int)}, but records invalid input in a result rather than throwing.
+	 * 
+	 * @param s A character sequence holding the numeric string.
+	 * @param start The index of its first character.
+	 * @param end The index after its last character.
+	 * @param result Where to record the value, or the error. Can be reused.
+	 * @return Whether the string was valid.
+	 * @throws IndexOutOfBoundsException If start or end are outside s, or start is after end.
+	 */
+	public static boolean tryStringToLong(CharSequence s, int start, int end, LongParseResult result) {
+		checkRange(start, end, s.length());
+		checkResult(result);
+		try {
+			parse(s, start, end, result);
+		} catch(ParseException e) {
+			// Only thrown when there's no result to record the error in.
+			throw new AssertionError(e);
+		}
+		return result.isSuccess();
+	}
+	
+	/**
+	 * Converts part of a character array in base 10 to a long value, like
+	 * {@link #stringToLong(char[], int, int)}, but records invalid input in a result rather than throwing.
+	 * 
+	 * @param chars A character array holding the numeric string.
+	 * @param offset The index of its first character.
+	 * @param length The number of characters in it.
+	 * @param result Where to record the value, or the error. Can be reused.
+	 * @return Whether the string was valid.
+	 * @throws IndexOutOfBoundsException If the string would run outside chars.
+	 */
+	public static boolean tryStringToLong(char[] chars, int offset, int length, LongParseResult result) {
+		int end = offset + length;
+		checkRange(offset, end, chars.length);
+		checkResult(result);
+		try {
+			parse(chars, offset, end, result);
+		} catch(ParseException e) {
+			throw new AssertionError(e);
+		}
+		return result.isSuccess();
+	}
+	
+	/**
+	 * Converts part of a byte array holding an ASCII numeric string in base 10 to a long value, like
+	 * {@link #asciiToLong(byte[], int, int)}, but records invalid input in a result rather than throwing.
+	 * 
+	 * @param bytes A byte array holding the numeric string.
+	 * @param offset The index of its first byte.
+	 * @param length The number of bytes in it.
+	 * @param result Where to record the value, or the error. Can be reused.
+	 * @return Whether the string was valid.
+	 * @throws IndexOutOfBoundsException If the string would run outside bytes.
+	 */
+	public static boolean tryAsciiToLong(byte[] bytes, int offset, int length, LongParseResult result) {
+		int end = offset + length;
+		checkRange(offset, end, bytes.length);
+		checkResult(result);
+		try {
+			parse(bytes, offset, end, result);
+		} catch(ParseException e) {
+			throw new AssertionError(e);
+		}
+		return result.isSuccess();
+	}
+	
+	/**
+	 * Converts the remaining bytes of a buffer to a long value, like {@link #asciiToLong(ByteBuffer)}, but
+	 * records invalid input in a result rather than throwing. The buffer's position only moves if the string
+	 * was valid.
+	 * 
+	 * @param buffer A buffer holding the numeric string between its position and limit.
+	 * @param result Where to record the value, or the error. Can be reused.
+	 * @return Whether the string was valid.
+	 */
+	public static boolean tryAsciiToLong(ByteBuffer buffer, LongParseResult result) {
+		return tryAsciiToLong(buffer, buffer.limit(), result);
+	}
+	
+	/**
+	 * Converts an ASCII numeric string at a buffer's position, ending at a delimiter, to a long value, like
+	 * {@link #asciiToLong(ByteBuffer, byte)}, but records invalid input in a result rather than throwing. The
+	 * buffer's position only moves if the string was valid.
+	 * 
+	 * @param buffer A buffer holding the numeric string from its position.
+	 * @param delimiter The byte after the numeric string.
+	 * @param result Where to record the value, or the error. Can be reused.
+	 * @return Whether the string was valid.
+	 */
+	public static boolean tryAsciiToLong(ByteBuffer buffer, byte delimiter, LongParseResult result) {
+		return tryAsciiToLong(buffer, find(buffer, delimiter), result);
+	}
+	
+	private static boolean tryAsciiToLong(ByteBuffer buffer, int end, LongParseResult result) {
+		checkResult(result);
+		try {
+			parse(buffer, buffer.position(), end, result);
+		} catch(ParseException e) {
+			throw new AssertionError(e);
+		}
+		if(result.isSuccess()) {
+			buffer.position(end);
+		}
+		return result.isSuccess();
+	}
+	
+	/*
+	 * The parsers proper, one per kind of input. With a result, they record the outcome there and never throw;
+	 * without, they throw a ParseException on invalid input. Each hands input of more than nineteen digits on
+	 * to a checked parser for the same kind of input.
+	 */
+	
+	private static long parse(CharSequence s, int start, int end, LongParseResult parseResult) throws ParseException {
 		// Check first character for - sign; if so, treat it as negative when computing
-		boolean negative = false;
-		if(s.length() > 0 && s.charAt(0) == '-') {
-			negative = true;
-			s = s.substring(1);
+		boolean negative = start < end && s.charAt(start) == '-';
+		int first = negative ? start + 1 : start;
+		if(end - first > 19) {
+			return parseChecked(s, first, end, negative, parseResult);
 		}
-
+		
 		// Build up result one character at a time. Index is tracked for error reporting.
 		long result = 0;
-		int index = 0;
-		for(char c : s.toCharArray()) {
+		for(int index = first; index < end; index++) {
 			result *= 10;
-			int digit = charToDigit(c, index++);
+			int digit = charToDigit(s.charAt(index));
+			if(digit < 0) {
+				return illegalCharacter(s.charAt(index), index, parseResult);
+			}
 			if(negative) {
 				// A negative number can be thought of a base-10 number with a "negative digit" 
 				// in each position.
@@ -77,16 +327,274 @@ public class StringUtils {
 				result += digit;
 			}
 		}
-		return result;
+		return succeedIfInRange(result, negative, end, parseResult);
 	}
-
+	
+	private static long parse(char[] chars, int start, int end, LongParseResult parseResult) throws ParseException {
+		// Same as for a CharSequence, but with direct array access rather than a call per character.
+		boolean negative = start < end && chars[start] == '-';
+		int first = negative ? start + 1 : start;
+		if(end - first > 19) {
+			return parseChecked(chars, first, end, negative, parseResult);
+		}
+		long result = 0;
+		for(int index = first; index < end; index++) {
+			result *= 10;
+			int digit = charToDigit(chars[index]);
+			if(digit < 0) {
+				return illegalCharacter(chars[index], index, parseResult);
+			}
+			if(negative) {
+				result -= digit;
+			} else {
+				result += digit;
+			}
+		}
+		return succeedIfInRange(result, negative, end, parseResult);
+	}
+	
+	private static long parse(byte[] bytes, int start, int end, LongParseResult parseResult) throws ParseException {
+		// Same as for a CharSequence.
+		boolean negative = start < end && bytes[start] == '-';
+		int first = negative ? start + 1 : start;
+		if(end - first > 19) {
+			return parseChecked(bytes, first, end, negative, parseResult);
+		}
+		long result = 0;
+		for(int index = first; index < end; index++) {
+			result *= 10;
+			int digit = byteToDigit(bytes[index]);
+			if(digit < 0) {
+				return illegalCharacter(bytes[index], index, parseResult);
+			}
+			if(negative) {
+				result -= digit;
+			} else {
+				result += digit;
+			}
+		}
+		return succeedIfInRange(result, negative, end, parseResult);
+	}
+	
+	private static long parse(ByteBuffer buffer, int start, int end, LongParseResult parseResult) throws ParseException {
+		// Same as for a CharSequence, except for taking eight digits at a time while there are that many left,
+		// each eight in one read, swapped if need be so the first is in the lowest byte. Stop at the first eight
+		// that aren't all digits, and leave them to the loop below to find the bad one.
+		boolean negative = start < end && buffer.get(start) == '-';
+		int index = negative ? start + 1 : start;
+		if(end - index > 19) {
+			return parseChecked(buffer, index, end, negative, parseResult);
+		}
+		long result = 0;
+		boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+		for(; end - index >= 8; index += 8) {
+			long chunk = buffer.getLong(index);
+			if(bigEndian) {
+				chunk = Long.reverseBytes(chunk);
+			}
+			if(!isEightDigits(chunk)) {
+				break;
+			}
+			result = addEightDigits(result, chunk, negative);
+		}
+		for(; index < end; index++) {
+			result *= 10;
+			int digit = byteToDigit(buffer.get(index));
+			if(digit < 0) {
+				return illegalCharacter(buffer.get(index), index, parseResult);
+			}
+			if(negative) {
+				result -= digit;
+			} else {
+				result += digit;
+			}
+		}
+		return succeedIfInRange(result, negative, end, parseResult);
+	}
+	
+	/*
+	 * The same, for more than nineteen digits, checking before each digit that the result has room for it.
+	 */
+	
+	private static long parseChecked(CharSequence s, int start, int end, boolean negative, LongParseResult parseResult) throws ParseException {
+		long result = 0;
+		for(int index = start; index < end; index++) {
+			int digit = charToDigit(s.charAt(index));
+			if(digit < 0) {
+				return illegalCharacter(s.charAt(index), index, parseResult);
+			}
+			if(overflows(result, digit, negative)) {
+				return overflow(index, parseResult);
+			}
+			result = negative ? result * 10 - digit : result * 10 + digit;
+		}
+		return succeed(result, parseResult);
+	}
+	
+	private static long parseChecked(char[] chars, int start, int end, boolean negative, LongParseResult parseResult) throws ParseException {
+		long result = 0;
+		for(int index = start; index < end; index++) {
+			int digit = charToDigit(chars[index]);
+			if(digit < 0) {
+				return illegalCharacter(chars[index], index, parseResult);
+			}
+			if(overflows(result, digit, negative)) {
+				return overflow(index, parseResult);
+			}
+			result = negative ? result * 10 - digit : result * 10 + digit;
+		}
+		return succeed(result, parseResult);
+	}
+	
+	private static long parseChecked(byte[] bytes, int start, int end, boolean negative, LongParseResult parseResult) throws ParseException {
+		long result = 0;
+		for(int index = start; index < end; index++) {
+			int digit = byteToDigit(bytes[index]);
+			if(digit < 0) {
+				return illegalCharacter(bytes[index], index, parseResult);
+			}
+			if(overflows(result, digit, negative)) {
+				return overflow(index, parseResult);
+			}
+			result = negative ? result * 10 - digit : result * 10 + digit;
+		}
+		return succeed(result, parseResult);
+	}
+	
+	private static long parseChecked(ByteBuffer buffer, int start, int end, boolean negative, LongParseResult parseResult) throws ParseException {
+		long result = 0;
+		for(int index = start; index < end; index++) {
+			int digit = byteToDigit(buffer.get(index));
+			if(digit < 0) {
+				return illegalCharacter(buffer.get(index), index, parseResult);
+			}
+			if(overflows(result, digit, negative)) {
+				return overflow(index, parseResult);
+			}
+			result = negative ? result * 10 - digit : result * 10 + digit;
+		}
+		return succeed(result, parseResult);
+	}
+	
+	/**
+	 * @return Whether shifting a digit into a result would take it above Long.MAX_VALUE or, if negative, below
+	 * 	Long.MIN_VALUE.
+	 */
+	private static boolean overflows(long result, int digit, boolean negative) {
+		// Both sides divided by ten, so nothing overflows in the check itself. Division rounds towards zero,
+		// so down for the positive bound and up for the negative one, the way each comparison needs.
+		return negative ? result < (Long.MIN_VALUE + digit) / 10 : result > (Long.MAX_VALUE - digit) / 10;
+	}
+	
+	/**
+	 * @param chunk Eight ASCII characters, the first in the lowest byte.
+	 * @return Whether they're all digits.
+	 */
+	/* package-private */ static boolean isEightDigits(long chunk) {
+		// A digit is a byte with a high nibble of 3 that doesn't carry into the high nibble when 6 is added.
+		// A carry out of a lower byte can only reject a digit next to it, never accept anything else, and
+		// rejecting only sends the chunk down the slow path.
+		long highNibbles = chunk & 0xF0F0F0F0F0F0F0F0L;
+		long carried = ((chunk + 0x0606060606060606L) & 0xF0F0F0F0F0F0F0F0L) >>> 4;
+		return (highNibbles | carried) == 0x3333333333333333L;
+	}
+	
+	/**
+	 * Shifts eight digits into a result. Like adding them one at a time, this wraps around on overflow, so the
+	 * sign of the result still shows it.
+	 * 
+	 * @param chunk Eight ASCII digits, the first and most significant in the lowest byte.
+	 */
+	private static long addEightDigits(long result, long chunk, boolean negative) {
+		// Combine neighbouring digits into two-digit numbers in every other byte, then neighbouring pairs of
+		// those into four-digit numbers, then the two fours into eight digits, all with a few multiplies.
+		long value = chunk - 0x3030303030303030L;
+		value = value * 10 + (value >>> 8);
+		value = ((value & 0x000000FF000000FFL) * (100 + (1000000L << 32))
+				+ ((value >>> 16) & 0x000000FF000000FFL) * (1 + (10000L << 32))) >>> 32;
+		return negative ? result * 100000000 - value : result * 100000000 + value;
+	}
+	
+	private static void checkRange(int start, int end, int length) {
+		if(start < 0 || end < start || end > length) {
+			throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") out of bounds for length " + length);
+		}
+	}
+	
+	private static void checkResult(LongParseResult result) {
+		if(result == null) {
+			throw new IllegalArgumentException("No result to record the parse in.");
+		}
+	}
+	
+	/**
+	 * @return The index of the first occurrence of a byte from a buffer's position, or its limit if none.
+	 */
+	private static int find(ByteBuffer buffer, byte b) {
+		int index = buffer.position();
+		int limit = buffer.limit();
+		while(index < limit && buffer.get(index) != b) {
+			index++;
+		}
+		return index;
+	}
+	
+	private static long succeed(long value, LongParseResult parseResult) {
+		return parseResult == null ? value : parseResult.succeed(value);
+	}
+	
+	/**
+	 * Succeeds with a result of up to nineteen digits, unless it wrapped around to the wrong sign. Only the
+	 * nineteenth digit can take it out of range, so that's where the error is.
+	 * 
+	 * @param end The index after the last digit
+	 */
+	private static long succeedIfInRange(long result, boolean negative, int end, LongParseResult parseResult) throws ParseException {
+		if(negative ? result > 0 : result < 0) {
+			return overflow(end - 1, parseResult);
+		}
+		return succeed(result, parseResult);
+	}
+	
+	/**
+	 * Reports an illegal character: by throwing, or if there's a result to record it in, by recording it there.
+	 * 
+	 * @param c The character
+	 * @param index The position in the input where the character is found
+	 * @return 0, if it didn't throw.
+	 * @throws ParseException If there's no result to record it in
+	 */
+	private static long illegalCharacter(char c, int index, LongParseResult parseResult) throws ParseException {
+		if(parseResult == null) {
+			throw new ParseException("Illegal character '" + c + "'", index);
+		}
+		return parseResult.fail(LongParseResult.ErrorKind.ILLEGAL_CHARACTER, index);
+	}
+	
+	private static long illegalCharacter(byte b, int index, LongParseResult parseResult) throws ParseException {
+		// Reading the byte as Latin-1 puts something printable in the message for most bytes that aren't ASCII.
+		return illegalCharacter((char)(b & 0xFF), index, parseResult);
+	}
+	
+	/**
+	 * Reports a value out of range, the same way as {@link #illegalCharacter(char, int, LongParseResult)}.
+	 * 
+	 * @param index The position in the input of the digit that took the value out of range
+	 * @return 0, if it didn't throw.
+	 * @throws ParseException If there's no result to record it in
+	 */
+	private static long overflow(int index, LongParseResult parseResult) throws ParseException {
+		if(parseResult == null) {
+			throw new ParseException("Value out of range", index);
+		}
+		return parseResult.fail(LongParseResult.ErrorKind.OVERFLOW, index);
+	}
+	
 	/**
 	 * @param c The character to convert
-	 * @param index The position in the string where the character is found. Used for error reporting
-	 * @return The numeric value of the digit represented by c
-	 * @throws ParseException If c is not a digit between 0 and 9
+	 * @return The numeric value of the digit represented by c, or -1 if c is not a digit between 0 and 9
 	 */
-	private static int charToDigit(char c, int index) throws ParseException {
+	private static int charToDigit(char c) {
 		// Java uses UTF-16 internally to represent characters. This means that '0' through '9' are 
 		// sequentially ordered, allowing us to take this nice, readable, quick-executing shortcut.
 		// Seldom are the stars so beautifully and conveniently aligned. 
@@ -97,7 +605,19 @@ public class StringUtils {
 		if(c >= '0' && c <= '9') {
 			return (c - '0');
 		}
-		throw new ParseException("Illegal character '" + c + "'", index);
+		return -1;
+	}
+	
+	/**
+	 * @param b The byte to convert, an ASCII character
+	 * @return The numeric value of the digit represented by b, or -1 if b is not a digit between 0 and 9
+	 */
+	private static int byteToDigit(byte b) {
+		// ASCII digits have the same codes as in UTF-16.
+		if(b >= '0' && b <= '9') {
+			return (b - '0');
+		}
+		return -1;
 	}
 
 }
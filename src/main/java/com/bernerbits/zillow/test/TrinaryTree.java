@@ -1,19 +1,54 @@
 package com.bernerbits.zillow.test;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Trinary Tree, for question 2.
  * 
- * See {@link TrinaryTreeNodeHolder} and {@link TrinaryTreeNode} for how individual nodes
- * are structured. Each node is contained within a node holder, which is pre-initialized on 
- * the node itself. In this way, nodes can be moved around and deleted without maintaining 
- * back-references to parent nodes. Further, the node holder eliminates repetitive null checks
- * by consolidating them into a single location. 
+ * See {@link TrinaryTreeNode} for how individual nodes are structured. Nodes hold direct references to 
+ * their children and nothing else, so the tree does the work of walking them. Insert and delete walk 
+ * down from the root with loops rather than recursion, so a long center chain can't overflow the stack, 
+ * and remember the nodes they pass so those can be relinked and rebalanced on the way back up. Nodes in 
+ * a center chain are never remembered: nothing below the head of a center chain affects the height of 
+ * the tree, so that path stays as short as the tree is tall.
+ * 
+ * The tree is kept height-balanced (AVL) along its left and right children, so inserting already sorted
+ * values, like timestamps or sequence numbers, no longer degrades the tree into a linked list. Equal values
+ * still form a center chain below the first one inserted, and that chain moves as a unit when the tree is
+ * rotated, so equal values keep their insertion order.
+ * 
+ * Optionally, equal values can be collapsed into a single node instead (see {@link TrinaryTreeRunNode}), 
+ * which makes inserting and deleting a duplicate O(1) no matter how many there are. Iteration order and 
+ * delete behavior are the same either way.
+ * 
+ * Each node also counts the values below it, kept up to date along the same paths that insert and delete 
+ * already walk. That makes {@link #size()} O(1), and lets {@link #rank(Object)} and {@link #select(int)}, 
+ * e.g. for percentiles, find their way down the tree in O(log n).
+ * 
+ * Batches of values can be loaded into an empty tree ({@link #bulkLoad(Iterator)}), or inserted and deleted
+ * ({@link #insertAll(Collection)}, {@link #deleteAll(Collection)}), in a single pass over the tree rather 
+ * than one walk from the root per value. Those passes do recurse, but only along left and right children, 
+ * so never deeper than the tree is tall.
+ * 
+ * The tree can also be streamed, sequentially or in parallel, with a spliterator that splits along its 
+ * subtrees (see {@link TrinaryTreeSpliterator}).
+ * 
+ * Finally, a tree can be written out in a compact binary form and read back in exactly the same shape, in a
+ * single pass and without calling the comparator (see {@link TrinaryTreeSerializer}).
  * 
  * @see com.bernerbits.zillow.test.TrinaryTreeNode
- * @see com.bernerbits.zillow.test.TrinaryTreeNodeHolder
+ * @see com.bernerbits.zillow.test.TrinaryTreeRunNode
  * @see com.bernerbits.zillow.test.TrinaryTreeIterator
  * 
  * @author derekberner
@@ -22,9 +57,13 @@ import java.util.Iterator;
  */
 public class TrinaryTree<T> {
 	
-	private TrinaryTreeNodeHolder<T> root = new TrinaryTreeNodeHolder<T>();
+	private TrinaryTreeNode<T> root;
 	
 	private final Comparator<T> comparator;
+	private final boolean collapseDuplicates;
+	
+	// Counts changes to the tree, so iterators can tell whether it was changed behind their backs.
+	private int modCount;
 	
 	/**
 	 * Constructs a new TrinaryTree using a default comparator for Comparable class.
@@ -34,11 +73,20 @@ public class TrinaryTree<T> {
 	 * that, creating a new tree of any comparable type, which will be inferred at runtime.  
 	 */
 	public static <C extends Comparable<C>> TrinaryTree<C> create() {
+		return create(false);
+	}
+	
+	/**
+	 * Constructs a new TrinaryTree using a default comparator for Comparable class. See {@link #create()}.
+	 * 
+	 * @param collapseDuplicates Whether to keep equal values in a single node rather than a center chain.
+	 */
+	public static <C extends Comparable<C>> TrinaryTree<C> create(boolean collapseDuplicates) {
 		return new TrinaryTree<C>(new Comparator<C>() {
 			public int compare(C o1, C o2) {
 				return o1.compareTo(o2);
 			}
-		});
+		}, collapseDuplicates);
 	}
 
 	/**
@@ -47,7 +95,23 @@ public class TrinaryTree<T> {
 	 * @param comparator the Comparator to use.
 	 */
 	public TrinaryTree(Comparator<T> comparator) {
+		this(comparator, false);
+	}
+	
+	/**
+	 * Constructs a new TrinaryTree using a custom comparator. 
+	 *
+	 * @param comparator the Comparator to use.
+	 * @param collapseDuplicates Whether to keep equal values in a single node rather than a center chain.
+	 */
+	public TrinaryTree(Comparator<T> comparator, boolean collapseDuplicates) {
 		this.comparator = comparator;
+		this.collapseDuplicates = collapseDuplicates;
+	}
+	
+	/* package-private */ TrinaryTree(Comparator<T> comparator, boolean collapseDuplicates, TrinaryTreeNode<T> root) {
+		this(comparator, collapseDuplicates);
+		this.root = root;
 	}
 
 	public void insert(T value) {
@@ -55,18 +119,793 @@ public class TrinaryTree<T> {
 		if(value == null) {
 			throw new IllegalArgumentException("Attempted null insert detected.");
 		}
-		root.add(new TrinaryTreeNode<T>(value, comparator));
+		modCount++;
+		TrinaryTreeNode<T> newNode = newNode(value);
+		if(root == null) {
+			root = newNode;
+			return;
+		}
+		
+		List<TrinaryTreeNode<T>> path = new ArrayList<TrinaryTreeNode<T>>();
+		TrinaryTreeNode<T> node = root;
+		while(true) {
+			// The value always ends up somewhere below here.
+			node.setSize(node.getSize() + 1);
+			int comparison = comparator.compare(value, node.getValue());
+			if(comparison == 0) {
+				// Equal values go to the end of the run or center chain. The height doesn't change, so 
+				// there's nothing to rebalance.
+				node.setWeight(node.getWeight() + 1);
+				if(collapseDuplicates) {
+					((TrinaryTreeRunNode<T>)node).add(value);
+					return;
+				}
+				while(node.getCenter() != null) {
+					node = node.getCenter();
+				}
+				node.setCenter(newNode);
+				return;
+			}
+			
+			path.add(node);
+			TrinaryTreeNode<T> next = comparison < 0 ? node.getLeft() : node.getRight();
+			if(next == null) {
+				if(comparison < 0) {
+					node.setLeft(newNode);
+				} else {
+					node.setRight(newNode);
+				}
+				break;
+			}
+			node = next;
+		}
+		rebalance(path, 0);
+	}
+	
+	/**
+	 * Fills an empty tree with a collection of values. See {@link #bulkLoad(Iterator)}.
+	 */
+	public void bulkLoad(Collection<? extends T> values) {
+		bulkLoad(values.iterator());
+	}
+	
+	/**
+	 * Fills an empty tree with values, much faster than inserting them one at a time. 
+	 * 
+	 * The values are sorted (unless they already are, which takes a single pass to find out), equal values
+	 * are grouped into center chains or runs, and the tree is built directly in its final, perfectly balanced
+	 * shape, with no walking down from the root and no rotations. That's O(n log n) in general, and O(n) for
+	 * values that arrive sorted. The sort is stable, so equal values end up in the order given, exactly as if 
+	 * they'd been inserted in that order.
+	 * 
+	 * @throws IllegalStateException If the tree isn't empty.
+	 * @throws IllegalArgumentException If any value is null. The tree is left empty.
+	 */
+	public void bulkLoad(Iterator<? extends T> values) {
+		if(root != null) {
+			throw new IllegalStateException("Bulk load requires an empty tree.");
+		}
+		List<T> sorted = sort(values, "insert");
+		List<TrinaryTreeNode<T>> heads = group(sorted, 0, sorted.size());
+		root = build(heads, 0, heads.size());
+		modCount++;
+	}
+	
+	/**
+	 * Inserts a batch of values. The result is the same as inserting each value in turn, in the order given, 
+	 * but much less work for large batches.
+	 * 
+	 * The batch is sorted (stably, unless it already is), then merged into the tree in a single pass from the 
+	 * root down: at each node, the part of the batch less than the node goes left, the part greater goes 
+	 * right, and the part equal joins the node's center chain or run. Each node is visited and compared at 
+	 * most once however many values pass through it, and subtrees that get no values aren't visited at all.
+	 * A part of the batch that reaches an empty subtree is built into a balanced subtree directly, as in 
+	 * {@link #bulkLoad(Iterator)}. On the way back up, each node is rejoined with its two new subtrees, 
+	 * rotating where one has outgrown the other.
+	 * 
+	 * @throws IllegalArgumentException If any value is null, in which case nothing is inserted.
+	 */
+	public void insertAll(Collection<? extends T> values) {
+		List<T> sorted = sort(values.iterator(), "insert");
+		if(!sorted.isEmpty()) {
+			modCount++;
+			root = insertAll(root, sorted, 0, sorted.size());
+		}
+	}
+	
+	/**
+	 * Deletes a batch of values. The result is the same as calling {@link #delete(Object)} for each value in 
+	 * turn, but the batch is merged into the tree in a single pass, as in {@link #insertAll(Collection)}. 
+	 * 
+	 * @return The number of values deleted.
+	 * @throws IllegalArgumentException If any value is null, in which case nothing is deleted.
+	 */
+	public int deleteAll(Collection<? extends T> values) {
+		List<T> sorted = sort(values.iterator(), "delete");
+		int before = size();
+		root = deleteAll(root, sorted, 0, sorted.size());
+		int deleted = before - size();
+		if(deleted > 0) {
+			modCount++;
+		}
+		return deleted;
 	}
 	
 	public boolean delete(T value) {
-		return root.delete(value);
+		return delete(value, null);
 	}
 	
+	/**
+	 * @return A fail-fast iterator: it throws {@link java.util.ConcurrentModificationException} if the tree is 
+	 * 	changed other than through the iterator. See {@link TrinaryTreeIterator}.
+	 */
 	public Iterator<T> iterator() {
-		return new TrinaryTreeIterator<T>(root);
+		return new TrinaryTreeIterator<T>(this, false);
+	}
+	
+	/**
+	 * @return A weakly consistent iterator, which carries on from where it was if the tree is changed other 
+	 * 	than through the iterator, never throwing {@link java.util.ConcurrentModificationException} and never
+	 * 	returning a value twice. See {@link TrinaryTreeIterator} for exactly what it guarantees.
+	 */
+	public Iterator<T> weaklyConsistentIterator() {
+		return new TrinaryTreeIterator<T>(this, true);
+	}
+	
+	/**
+	 * @return A spliterator over the tree, in the same order as {@link #iterator()}, which splits along the 
+	 * 	tree's own subtrees. See {@link TrinaryTreeSpliterator}.
+	 */
+	public Spliterator<T> spliterator() {
+		return new TrinaryTreeSpliterator<T>(this);
+	}
+	
+	/**
+	 * @return A sequential stream of the tree's values, in comparator order.
+	 */
+	public Stream<T> stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+	
+	/**
+	 * @return A parallel stream of the tree's values. Order-sensitive operations, like collecting to a list, 
+	 * 	still see the values in comparator order.
+	 */
+	public Stream<T> parallelStream() {
+		return StreamSupport.stream(spliterator(), true);
+	}
+	
+	/**
+	 * @return Whether the tree holds a value equal to the given one, according to the comparator.
+	 */
+	public boolean contains(T value) {
+		return find(value) != null;
+	}
+	
+	/**
+	 * @return The number of values in the tree equal to the given one, according to the comparator.
+	 */
+	public int count(T value) {
+		TrinaryTreeNode<T> node = find(value);
+		return node == null ? 0 : node.getWeight();
+	}
+	
+	/**
+	 * @return The number of values in the tree.
+	 */
+	public int size() {
+		return TrinaryTreeNode.size(root);
+	}
+	
+	/**
+	 * @return The number of values in the tree strictly less than the given one, which is also the position
+	 * 	the first value equal to it has (or would have) in iteration order.
+	 */
+	public int rank(T value) {
+		int rank = 0;
+		TrinaryTreeNode<T> node = root;
+		while(node != null) {
+			int comparison = comparator.compare(value, node.getValue());
+			if(comparison > 0) {
+				rank += TrinaryTreeNode.size(node.getLeft()) + node.getWeight();
+				node = node.getRight();
+			} else {
+				if(comparison == 0) {
+					return rank + TrinaryTreeNode.size(node.getLeft());
+				}
+				node = node.getLeft();
+			}
+		}
+		return rank;
+	}
+	
+	/**
+	 * Finds a value by its position in iteration order. For example, the median is select(size() / 2).
+	 * 
+	 * Finding the right center chain takes O(log n). Finding the right value within it takes as long as 
+	 * the chain is, unless duplicates are collapsed.
+	 * 
+	 * @param index The position, counting from 0.
+	 * @return The value at that position.
+	 * @throws IndexOutOfBoundsException If the index is negative, or not less than the size of the tree.
+	 */
+	public T select(int index) {
+		if(index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("Index " + index + " out of bounds for tree of size " + size());
+		}
+		TrinaryTreeNode<T> node = root;
+		while(true) {
+			int leftSize = TrinaryTreeNode.size(node.getLeft());
+			if(index < leftSize) {
+				node = node.getLeft();
+			} else if(index < leftSize + node.getWeight()) {
+				index -= leftSize;
+				while(index >= node.getCount()) {
+					index -= node.getCount();
+					node = node.getCenter();
+				}
+				return node.getValue(index);
+			} else {
+				index -= leftSize + node.getWeight();
+				node = node.getRight();
+			}
+		}
+	}
+	
+	/**
+	 * @return The greatest value less than or equal to the given one, or null if there is none. Where several
+	 * 	values are equal, the earliest inserted is returned. The same goes for {@link #ceiling(Object)}, 
+	 * 	{@link #higher(Object)} and {@link #lower(Object)}.
+	 */
+	public T floor(T value) {
+		return nearest(value, true, true);
+	}
+	
+	/**
+	 * @return The least value greater than or equal to the given one, or null if there is none.
+	 */
+	public T ceiling(T value) {
+		return nearest(value, false, true);
+	}
+	
+	/**
+	 * @return The least value strictly greater than the given one, or null if there is none.
+	 */
+	public T higher(T value) {
+		return nearest(value, false, false);
+	}
+	
+	/**
+	 * @return The greatest value strictly less than the given one, or null if there is none.
+	 */
+	public T lower(T value) {
+		return nearest(value, true, false);
+	}
+	
+	/**
+	 * Iterates over the values from "from", inclusive, up to "to", exclusive. The iterator seeks directly to 
+	 * the first value in range and stops at the end of it, so iterating costs O(log n) plus the number of 
+	 * values returned.
+	 * 
+	 * @return A fail-fast iterator over the range, in the same order as {@link #iterator()}, which also 
+	 * 	supports remove.
+	 */
+	public Iterator<T> subTree(T from, T to) {
+		return subTree(from, true, to, false);
+	}
+	
+	/**
+	 * Iterates over the values between "from" and "to". See {@link #subTree(Object, Object)}.
+	 * 
+	 * @param from The low end of the range, or null for no lower bound.
+	 * @param fromInclusive Whether values equal to from are included.
+	 * @param to The high end of the range, or null for no upper bound.
+	 * @param toInclusive Whether values equal to to are included.
+	 */
+	public Iterator<T> subTree(T from, boolean fromInclusive, T to, boolean toInclusive) {
+		return new TrinaryTreeIterator<T>(this, false, from, fromInclusive, to, toInclusive);
+	}
+	
+	/**
+	 * Writes the tree out, shape and all, so {@link #readFrom(DataInput, Comparator, TrinaryTreeCodec)} can
+	 * rebuild it exactly. Pass a buffered stream; this writes a few bytes at a time.
+	 * 
+	 * @param out Where to write the tree.
+	 * @param codec How to write each value.
+	 */
+	public void writeTo(DataOutput out, TrinaryTreeCodec<? super T> codec) throws IOException {
+		TrinaryTreeSerializer.write(out, root, collapseDuplicates, codec);
+	}
+	
+	/**
+	 * Reads back a tree written by {@link #writeTo(DataOutput, TrinaryTreeCodec)}. This is a single linear 
+	 * pass that never calls the comparator, much faster than inserting the values again.
+	 * 
+	 * @param in Where to read the tree from. Only the tree is read, so more can follow it.
+	 * @param comparator The comparator the tree was written with. It isn't checked.
+	 * @param codec How to read each value, matching the codec the tree was written with.
+	 * @return The tree, which collapses duplicates if the written one did.
+	 * @throws IOException If the stream can't be read, or doesn't hold a tree.
+	 */
+	public static <T> TrinaryTree<T> readFrom(DataInput in, Comparator<T> comparator, TrinaryTreeCodec<T> codec) throws IOException {
+		return TrinaryTreeSerializer.read(in, comparator, codec);
+	}
+	
+	private TrinaryTreeNode<T> newNode(T value) {
+		return collapseDuplicates ? new TrinaryTreeRunNode<T>(value) : new TrinaryTreeNode<T>(value);
+	}
+	
+	/**
+	 * Copies values into a list in comparator order, checking first whether they already are, which takes a 
+	 * single pass. The sort is stable, so equal values stay in the order given.
+	 * 
+	 * @param operation What the values are for, to name in the exception if one is null.
+	 * @throws IllegalArgumentException If any value is null.
+	 */
+	private List<T> sort(Iterator<? extends T> values, String operation) {
+		List<T> sorted = new ArrayList<T>();
+		boolean inOrder = true;
+		while(values.hasNext()) {
+			T value = values.next();
+			if(value == null) {
+				throw new IllegalArgumentException("Attempted null " + operation + " detected.");
+			}
+			if(inOrder && !sorted.isEmpty() && comparator.compare(sorted.get(sorted.size() - 1), value) > 0) {
+				inOrder = false;
+			}
+			sorted.add(value);
+		}
+		if(!inOrder) {
+			Collections.sort(sorted, comparator);
+		}
+		return sorted;
+	}
+	
+	/**
+	 * Groups equal values into center chains or runs, with their weights set.
+	 * 
+	 * @param sorted Values in comparator order.
+	 * @param from The index of the first value to use.
+	 * @param to The index after the last value to use.
+	 * @return The heads of the chains, in order.
+	 */
+	private List<TrinaryTreeNode<T>> group(List<T> sorted, int from, int to) {
+		List<TrinaryTreeNode<T>> heads = new ArrayList<TrinaryTreeNode<T>>();
+		int start = from;
+		while(start < to) {
+			TrinaryTreeNode<T> head = newNode(sorted.get(start));
+			int end = start + 1;
+			while(end < to && comparator.compare(head.getValue(), sorted.get(end)) == 0) {
+				end++;
+			}
+			append(head, sorted, start + 1, end);
+			heads.add(head);
+			start = end;
+		}
+		return heads;
+	}
+	
+	/**
+	 * Adds values to the end of a center chain or run, and to its weight, but not to the size of its subtree.
+	 */
+	private void append(TrinaryTreeNode<T> head, List<T> values, int from, int to) {
+		head.setWeight(head.getWeight() + to - from);
+		if(collapseDuplicates) {
+			for(int i = from; i < to; i++) {
+				((TrinaryTreeRunNode<T>)head).add(values.get(i));
+			}
+			return;
+		}
+		TrinaryTreeNode<T> tail = head;
+		while(tail.getCenter() != null) {
+			tail = tail.getCenter();
+		}
+		for(int i = from; i < to; i++) {
+			TrinaryTreeNode<T> node = new TrinaryTreeNode<T>(values.get(i));
+			tail.setCenter(node);
+			tail = node;
+		}
+	}
+	
+	/**
+	 * Merges part of a sorted batch into a subtree. See {@link #insertAll(Collection)}.
+	 * 
+	 * @return The new root of the subtree.
+	 */
+	private TrinaryTreeNode<T> insertAll(TrinaryTreeNode<T> node, List<T> sorted, int from, int to) {
+		if(from == to) {
+			return node;
+		}
+		if(node == null) {
+			List<TrinaryTreeNode<T>> heads = group(sorted, from, to);
+			return build(heads, 0, heads.size());
+		}
+		int equalFrom = search(sorted, from, to, node.getValue(), false);
+		int equalTo = search(sorted, equalFrom, to, node.getValue(), true);
+		TrinaryTreeNode<T> left = insertAll(node.getLeft(), sorted, from, equalFrom);
+		TrinaryTreeNode<T> right = insertAll(node.getRight(), sorted, equalTo, to);
+		if(equalFrom < equalTo) {
+			append(node, sorted, equalFrom, equalTo);
+		}
+		return join(left, node, right);
+	}
+	
+	/**
+	 * Removes values equal to part of a sorted batch from a subtree. See {@link #deleteAll(Collection)}.
+	 * 
+	 * @return The new root of the subtree.
+	 */
+	private TrinaryTreeNode<T> deleteAll(TrinaryTreeNode<T> node, List<T> sorted, int from, int to) {
+		if(from == to || node == null) {
+			return node;
+		}
+		int equalFrom = search(sorted, from, to, node.getValue(), false);
+		int equalTo = search(sorted, equalFrom, to, node.getValue(), true);
+		TrinaryTreeNode<T> left = deleteAll(node.getLeft(), sorted, from, equalFrom);
+		TrinaryTreeNode<T> right = deleteAll(node.getRight(), sorted, equalTo, to);
+		
+		int removed = equalTo - equalFrom;
+		if(removed >= node.getWeight()) {
+			// The whole chain goes.
+			return merge(left, right);
+		}
+		if(removed > 0) {
+			// The earliest values go, as with delete.
+			int weight = node.getWeight() - removed;
+			if(collapseDuplicates) {
+				for(int i = 0; i < removed; i++) {
+					node.removeValue(0);
+				}
+			} else {
+				for(int i = 0; i < removed; i++) {
+					node = node.getCenter();
+				}
+			}
+			node.setWeight(weight);
+		}
+		return join(left, node, right);
+	}
+	
+	/**
+	 * Binary search within a sorted range for the first value either at least, or greater than, the given one.
+	 */
+	private int search(List<T> sorted, int from, int to, T value, boolean greater) {
+		while(from < to) {
+			int middle = (from + to) >>> 1;
+			int comparison = comparator.compare(sorted.get(middle), value);
+			if(comparison < 0 || (greater && comparison == 0)) {
+				from = middle + 1;
+			} else {
+				to = middle;
+			}
+		}
+		return from;
+	}
+	
+	/**
+	 * Joins two balanced subtrees and a node whose values are all between them into a single balanced subtree, 
+	 * however different the two subtrees' heights. Walks down the side of the taller subtree until it finds 
+	 * a subtree of about the same height as the shorter one, joins the node in there, and rebalances back up.
+	 * 
+	 * @return The root of the joined subtree.
+	 */
+	private static <T> TrinaryTreeNode<T> join(TrinaryTreeNode<T> left, TrinaryTreeNode<T> node, TrinaryTreeNode<T> right) {
+		int leftHeight = left == null ? 0 : left.getHeight();
+		int rightHeight = right == null ? 0 : right.getHeight();
+		if(leftHeight > rightHeight + 1) {
+			left.setRight(join(left.getRight(), node, right));
+			left.updateSize();
+			return left.rebalance();
+		} else if(rightHeight > leftHeight + 1) {
+			right.setLeft(join(left, node, right.getLeft()));
+			right.updateSize();
+			return right.rebalance();
+		}
+		node.setLeft(left);
+		node.setRight(right);
+		node.updateHeight();
+		node.updateSize();
+		return node;
 	}
 	
-	/* package-private */ TrinaryTreeNodeHolder<T> getRoot() {
+	/**
+	 * Joins two balanced subtrees, all of whose values are in order, into a single balanced subtree.
+	 */
+	private static <T> TrinaryTreeNode<T> merge(TrinaryTreeNode<T> left, TrinaryTreeNode<T> right) {
+		if(left == null) {
+			return right;
+		} else if(right == null) {
+			return left;
+		}
+		TrinaryTreeNode<T> first = right;
+		while(first.getLeft() != null) {
+			first = first.getLeft();
+		}
+		return join(left, first, removeFirst(right));
+	}
+	
+	/**
+	 * @return The subtree without its leftmost node (and that node's center chain), rebalanced.
+	 */
+	private static <T> TrinaryTreeNode<T> removeFirst(TrinaryTreeNode<T> node) {
+		if(node.getLeft() == null) {
+			return node.getRight();
+		}
+		node.setLeft(removeFirst(node.getLeft()));
+		node.updateSize();
+		return node.rebalance();
+	}
+	
+	/**
+	 * Builds a balanced subtree out of center chain heads, each already holding its chain and weight. Taking
+	 * the middle head as the root each time means the two sides never differ in height by more than one.
+	 * 
+	 * @param heads The heads, in order.
+	 * @param from The index of the first head to use.
+	 * @param to The index after the last head to use.
+	 * @return The root of the subtree, or null if the range is empty.
+	 */
+	private TrinaryTreeNode<T> build(List<TrinaryTreeNode<T>> heads, int from, int to) {
+		if(from == to) {
+			return null;
+		}
+		int middle = (from + to) >>> 1;
+		TrinaryTreeNode<T> node = heads.get(middle);
+		node.setLeft(build(heads, from, middle));
+		node.setRight(build(heads, middle + 1, to));
+		node.updateHeight();
+		node.updateSize();
+		return node;
+	}
+	
+	/**
+	 * @return The head of the center chain (or the run) equal to the given value, or null if there isn't one.
+	 */
+	private TrinaryTreeNode<T> find(T value) {
+		TrinaryTreeNode<T> node = root;
+		while(node != null) {
+			int comparison = comparator.compare(value, node.getValue());
+			if(comparison == 0) {
+				return node;
+			}
+			node = comparison < 0 ? node.getLeft() : node.getRight();
+		}
+		return null;
+	}
+	
+	/**
+	 * Finds the closest value on one side of the given value.
+	 * 
+	 * @param below Whether to look below the given value, rather than above it.
+	 * @param inclusive Whether a value equal to the given value counts.
+	 * @return The closest value, or null if there is none.
+	 */
+	private T nearest(T value, boolean below, boolean inclusive) {
+		TrinaryTreeNode<T> closest = null;
+		TrinaryTreeNode<T> node = root;
+		while(node != null) {
+			int comparison = comparator.compare(value, node.getValue());
+			if(comparison == 0 && inclusive) {
+				return node.getValue();
+			}
+			if(below ? comparison > 0 : comparison < 0) {
+				// This node is on the right side. Anything closer must be between it and the given value.
+				closest = node;
+				node = below ? node.getRight() : node.getLeft();
+			} else {
+				node = below ? node.getLeft() : node.getRight();
+			}
+		}
+		return closest == null ? null : closest.getValue();
+	}
+	
+	/**
+	 * Removes an exact node holding a single value, rather than the first value equal to its value.
+	 * 
+	 * @return Whether the node was found.
+	 */
+	/* package-private */ boolean remove(TrinaryTreeNode<T> target) {
+		return delete(target.getValue(), target);
+	}
+	
+	/**
+	 * Removes a node from the middle or end of a center chain, given the node above it. Nothing else in the
+	 * tree moves, so this only costs the walk down to update the counts.
+	 */
+	/* package-private */ void removeFromChain(TrinaryTreeNode<T> parent, TrinaryTreeNode<T> node) {
+		parent.setCenter(node.getCenter());
+		shrink(node.getValue());
+		modCount++;
+	}
+	
+	/**
+	 * Removes one of several values from a node that collapses duplicates. See {@link TrinaryTreeNode#removeValue(int)}.
+	 * 
+	 * @return false if that was the node's only value, in which case nothing was removed.
+	 */
+	/* package-private */ boolean removeFromRun(TrinaryTreeNode<T> node, int index) {
+		if(node.removeValue(index)) {
+			shrink(node.getValue());
+			modCount++;
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Updates the counts after a value has been taken out of a center chain or run without moving any nodes. 
+	 * 
+	 * @param value A value equal to the one removed.
+	 */
+	private void shrink(T value) {
+		TrinaryTreeNode<T> node = root;
+		while(true) {
+			node.setSize(node.getSize() - 1);
+			int comparison = comparator.compare(value, node.getValue());
+			if(comparison == 0) {
+				node.setWeight(node.getWeight() - 1);
+				return;
+			}
+			node = comparison < 0 ? node.getLeft() : node.getRight();
+		}
+	}
+	
+	/**
+	 * @param value The value to delete.
+	 * @param target The exact node to delete, or null to delete the first node equal to value.
+	 * @return Whether a node was deleted.
+	 */
+	private boolean delete(T value, TrinaryTreeNode<T> target) {
+		List<TrinaryTreeNode<T>> path = new ArrayList<TrinaryTreeNode<T>>();
+		TrinaryTreeNode<T> parent = null;
+		TrinaryTreeNode<T> node = root;
+		while(node != null) {
+			int comparison = comparator.compare(value, node.getValue());
+			if(comparison == 0) {
+				TrinaryTreeNode<T> head = node;
+				if(target != null) {
+					// Skip equal values until the exact node is found.
+					while(node != null && node != target) {
+						parent = node;
+						node = node.getCenter();
+					}
+					if(node == null) {
+						return false;
+					}
+				}
+				
+				// Found it, so there will be one value fewer everywhere above.
+				modCount++;
+				for(TrinaryTreeNode<T> ancestor : path) {
+					ancestor.setSize(ancestor.getSize() - 1);
+				}
+				if(node != head) {
+					// In the middle or at the end of a center chain. Close the chain up around it.
+					head.setWeight(head.getWeight() - 1);
+					head.setSize(head.getSize() - 1);
+					parent.setCenter(node.getCenter());
+				} else if(target == null && node.removeValue(0)) {
+					// The earliest of several collapsed duplicates. The node stays where it is.
+					node.setWeight(node.getWeight() - 1);
+					node.setSize(node.getSize() - 1);
+				} else {
+					unlink(path, parent, node);
+				}
+				return true;
+			}
+			path.add(node);
+			parent = node;
+			node = comparison < 0 ? node.getLeft() : node.getRight();
+		}
+		return false;
+	}
+	
+	/**
+	 * Removes the head of a center chain, or a node holding a single value, from the tree and rebalances.
+	 * 
+	 * No need to explicitly delete the node. Once nothing refers to it, the node will go out 
+	 * of scope and eventually be garbage-collected.
+	 * 
+	 * @param path The ancestors of the node, from the root down, whose sizes have already been updated.
+	 * @param parent The node directly above the node, or null for the root.
+	 * @param node The node to remove.
+	 */
+	private void unlink(List<TrinaryTreeNode<T>> path, TrinaryTreeNode<T> parent, TrinaryTreeNode<T> node) {
+		TrinaryTreeNode<T> leftNode = node.getLeft();
+		TrinaryTreeNode<T> centerNode = node.getCenter();
+		TrinaryTreeNode<T> rightNode = node.getRight();
+		
+		if(centerNode != null) {
+			// The next equal value takes our place, keeping insertion order and the shape of the tree.
+			// The height doesn't change, so there's nothing to rebalance.
+			centerNode.setLeft(leftNode);
+			centerNode.setRight(rightNode);
+			centerNode.setHeight(node.getHeight());
+			centerNode.setWeight(node.getWeight() - 1);
+			centerNode.setSize(node.getSize() - 1);
+			replaceChild(parent, node, centerNode);
+			return;
+		} 
+		
+		if(leftNode == null) {
+			replaceChild(parent, node, rightNode);
+		} else if(rightNode == null) {
+			replaceChild(parent, node, leftNode);
+		} else {
+			// Two children: the in-order successor (the smallest node on the right) takes our place.
+			// Detach it first, rebalancing the right subtree as we go, then splice it in.
+			int mark = path.size();
+			path.add(node);
+			TrinaryTreeNode<T> successorParent = node;
+			TrinaryTreeNode<T> successor = rightNode;
+			while(successor.getLeft() != null) {
+				path.add(successor);
+				successorParent = successor;
+				successor = successor.getLeft();
+			}
+			successorParent.replaceChild(successor, successor.getRight());
+			successor.setRight(null);
+			for(int i = mark + 1; i < path.size(); i++) {
+				path.get(i).setSize(path.get(i).getSize() - successor.getWeight());
+			}
+			rebalance(path, mark + 1);
+			while(path.size() > mark) {
+				path.remove(path.size() - 1);
+			}
+			
+			successor.setLeft(leftNode);
+			successor.setRight(node.getRight());
+			// Start from the old height so rebalancing can tell whether anything above us changed.
+			successor.setHeight(node.getHeight());
+			successor.setSize(node.getSize() - 1);
+			replaceChild(parent, node, successor);
+			path.add(successor);
+		}
+		rebalance(path, 0);
+	}
+	
+	/**
+	 * Rebalances the nodes on a path from the bottom up, stopping early once a subtree comes out 
+	 * the same height it went in, since nothing above it can have changed.
+	 * 
+	 * @param path Nodes from the root down, each one a left or right child of the one before.
+	 * @param from The index of the topmost node to rebalance.
+	 */
+	private void rebalance(List<TrinaryTreeNode<T>> path, int from) {
+		for(int i = path.size() - 1; i >= from; i--) {
+			TrinaryTreeNode<T> node = path.get(i);
+			int previousHeight = node.getHeight();
+			TrinaryTreeNode<T> balanced = node.rebalance();
+			if(balanced != node) {
+				replaceChild(i == 0 ? null : path.get(i - 1), node, balanced);
+			}
+			if(balanced.getHeight() == previousHeight) {
+				return;
+			}
+		}
+	}
+	
+	private void replaceChild(TrinaryTreeNode<T> parent, TrinaryTreeNode<T> child, TrinaryTreeNode<T> replacement) {
+		if(parent == null) {
+			root = replacement;
+		} else {
+			parent.replaceChild(child, replacement);
+		}
+	}
+	
+	/* package-private */ TrinaryTreeNode<T> getRoot() {
 		return root;
 	}
+	
+	/* package-private */ Comparator<T> getComparator() {
+		return comparator;
+	}
+	
+	/* package-private */ boolean isCollapseDuplicates() {
+		return collapseDuplicates;
+	}
+	
+	/* package-private */ int getModCount() {
+		return modCount;
+	}
 }
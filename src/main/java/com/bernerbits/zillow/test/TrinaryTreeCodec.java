@@ -0,0 +1,34 @@
+package com.bernerbits.zillow.test;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes and reads the values of a {@link TrinaryTree}, for {@link TrinaryTree#writeTo(DataOutput, TrinaryTreeCodec)}
+ * and {@link TrinaryTree#readFrom(DataInput, java.util.Comparator, TrinaryTreeCodec)}.
+ *
+ * Values are written in the tree's order, and each is handed the value written just before it, so a codec can
+ * write only what's changed since: the difference between two numbers, say, or the end of a string after the
+ * start it shares with the last one. See {@link TrinaryTreeCodecs} for codecs for common types.
+ *
+ * @author derekberner
+ *
+ * @param <T> The type of value.
+ */
+public interface TrinaryTreeCodec<T> {
+	
+	/**
+	 * @param out Where to write the value.
+	 * @param previous The value written before this one, or null if this is the first.
+	 * @param value The value to write.
+	 */
+	void write(DataOutput out, T previous, T value) throws IOException;
+	
+	/**
+	 * @param in Where to read the value from.
+	 * @param previous The value read before this one, or null if this is the first.
+	 * @return The value, which must not be null.
+	 */
+	T read(DataInput in, T previous) throws IOException;
+}
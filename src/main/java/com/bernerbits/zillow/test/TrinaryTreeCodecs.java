@@ -0,0 +1,139 @@
+package com.bernerbits.zillow.test;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Codecs for common value types, and the variable-length integers they're built from.
+ *
+ * Numbers are written as the difference from the previous value, zigzag encoded so that small negative
+ * differences are small too, then as a varint: seven bits per byte, low bits first, with the top bit set on
+ * every byte but the last. Values that arrive in ascending order and close together, like ids or
+ * timestamps, then take a byte or two each instead of eight.
+ *
+ * Strings are front coded: the number of characters shared with the start of the previous string, then the
+ * rest in UTF-8.
+ *
+ * @author derekberner
+ */
+public final class TrinaryTreeCodecs {
+	
+	public static final TrinaryTreeCodec<Long> LONG = new TrinaryTreeCodec<Long>() {
+		public void write(DataOutput out, Long previous, Long value) throws IOException {
+			// Wraps around for differences too big for a long, and wraps back when read.
+			writeVarLong(out, zigzag(previous == null ? value : value - previous));
+		}
+		public Long read(DataInput in, Long previous) throws IOException {
+			long delta = unzigzag(readVarLong(in));
+			return previous == null ? delta : previous + delta;
+		}
+	};
+	
+	public static final TrinaryTreeCodec<Integer> INTEGER = new TrinaryTreeCodec<Integer>() {
+		public void write(DataOutput out, Integer previous, Integer value) throws IOException {
+			writeVarLong(out, zigzag(previous == null ? (long)value : (long)value - previous));
+		}
+		public Integer read(DataInput in, Integer previous) throws IOException {
+			long delta = unzigzag(readVarLong(in));
+			long value = previous == null ? delta : previous + delta;
+			if(value != (int)value) {
+				throw new IOException("Integer out of range: " + value);
+			}
+			return (int)value;
+		}
+	};
+	
+	public static final TrinaryTreeCodec<String> STRING = new TrinaryTreeCodec<String>() {
+		public void write(DataOutput out, String previous, String value) throws IOException {
+			int shared = 0;
+			if(previous != null) {
+				int limit = Math.min(previous.length(), value.length());
+				while(shared < limit && previous.charAt(shared) == value.charAt(shared)) {
+					shared++;
+				}
+				// Don't split a surrogate pair, which UTF-8 can't encode half of.
+				if(shared > 0 && Character.isHighSurrogate(value.charAt(shared - 1))) {
+					shared--;
+				}
+			}
+			byte[] rest = value.substring(shared).getBytes(StandardCharsets.UTF_8);
+			writeVarInt(out, shared);
+			writeVarInt(out, rest.length);
+			out.write(rest);
+		}
+		public String read(DataInput in, String previous) throws IOException {
+			int shared = readVarInt(in);
+			if(shared > (previous == null ? 0 : previous.length())) {
+				throw new IOException("String shares more than the previous one has: " + shared);
+			}
+			byte[] rest = new byte[readVarInt(in)];
+			in.readFully(rest);
+			String suffix = new String(rest, StandardCharsets.UTF_8);
+			return shared == 0 ? suffix : previous.substring(0, shared).concat(suffix);
+		}
+	};
+	
+	private TrinaryTreeCodecs() {
+	}
+	
+	/**
+	 * Writes a long in one to ten bytes, fewer the smaller it is, treating it as unsigned.
+	 */
+	public static void writeVarLong(DataOutput out, long value) throws IOException {
+		while((value & ~0x7FL) != 0) {
+			out.writeByte((int)value & 0x7F | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int)value);
+	}
+	
+	/**
+	 * @throws IOException If there are more than ten bytes, or the stream ends first.
+	 */
+	public static long readVarLong(DataInput in) throws IOException {
+		long value = 0;
+		for(int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long)(b & 0x7F) << shift;
+			if((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+	
+	/**
+	 * Writes a non-negative int in one to five bytes.
+	 */
+	public static void writeVarInt(DataOutput out, int value) throws IOException {
+		if(value < 0) {
+			throw new IllegalArgumentException("Negative varint: " + value);
+		}
+		writeVarLong(out, value);
+	}
+	
+	/**
+	 * @throws IOException If the value isn't a non-negative int, or the stream ends first.
+	 */
+	public static int readVarInt(DataInput in) throws IOException {
+		long value = readVarLong(in);
+		if(value < 0 || value > Integer.MAX_VALUE) {
+			throw new IOException("Varint out of range: " + value);
+		}
+		return (int)value;
+	}
+	
+	/**
+	 * Maps signed to unsigned so that numbers near zero either way stay small: 0, -1, 1, -2, 2... become
+	 * 0, 1, 2, 3, 4...
+	 */
+	/* package-private */ static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+	
+	/* package-private */ static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
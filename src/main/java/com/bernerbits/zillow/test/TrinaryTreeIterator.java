@@ -1,6 +1,11 @@
 package com.bernerbits.zillow.test;
 
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * Iterator for trinary tree.
@@ -9,8 +14,38 @@ import java.util.Iterator;
  * iterator for a correctly designed trinary tree gives all the tree elements in comparator 
  * order, with "equal" elements (according to the comparator) appearing in insertion order.
  * 
- * Tracks iteration by creating sub-iterators on the current node's children,
- * and iterates on elements in "left child-current-center child-right child" order.
+ * Iterates on elements in "left child-current-center child-right child" order, finding each element only 
+ * when the one before it is handed out. The only state kept is a stack of the nodes we went left from, 
+ * whose values, center chains and right subtrees are still to come, so memory use is proportional to the 
+ * height of the tree. Center chains never branch, so walking one needs nothing more than a reference to 
+ * its head, to get back to the head's right subtree afterwards. A node holding several collapsed duplicates
+ * (see {@link TrinaryTreeRunNode}) hands them out one at a time before moving on.
+ * 
+ * Most removals leave the shape of the tree alone, and so leave that stack valid: removing one of several 
+ * collapsed duplicates, removing a node from the middle or end of a center chain (we know the node above it, 
+ * since we just handed that one out), or removing the head of a chain, which promotes the next node in the 
+ * chain into its place. Only removing a node without equals can rotate the tree. In that case, since we 
+ * always know the next node ahead of time, and rebalancing moves nodes rather than values, {@link #remove()} 
+ * simply rebuilds the stack by searching for the next node from the root.
+ * 
+ * An iterator can also be limited to a range of values. The lower bound is handled by only stacking the 
+ * nodes at or above it on the way down to the first value in range. The upper bound is checked each time 
+ * a new center chain begins, since everything in a chain is equal to its head.
+ * 
+ * Changing the tree other than through the iterator, by insert or delete say, would leave the stack (and 
+ * the next node) out of date, so the tree counts its modifications and the iterator compares that count 
+ * with the one it expects. By default iterators are fail-fast: the first call to next() or remove() after 
+ * an outside change throws {@link ConcurrentModificationException}, which is what you want while debugging.
+ * 
+ * Weakly consistent iterators find their place again instead, by searching from the root for the node they 
+ * were about to hand out, or failing that the node they handed out last, or failing that the first value 
+ * greater than the last one handed out. They never throw ConcurrentModificationException and never hand out 
+ * the same value twice. Every value that was in the tree the whole time is handed out, unless a value equal 
+ * to it (according to the comparator) was inserted or deleted from outside, in which case it may be skipped. 
+ * Values inserted or deleted during iteration may or may not be seen. Finding their place again costs 
+ * O(log n), and only after an outside change, so they cost nothing extra on the fast path.
+ * 
+ * Neither kind makes the tree safe to change from several threads at once. See {@link ConcurrentTrinaryTree}.
  * 
  * @author derekberner
  *
@@ -18,78 +53,294 @@ import java.util.Iterator;
  */
 /* package-private */ class TrinaryTreeIterator<T> implements Iterator<T> {
 
-	private final TrinaryTreeNodeHolder<T> root;
+	private final TrinaryTree<T> tree;
+	private final boolean weaklyConsistent;
+	private int expectedModCount;
 	
-	private final TrinaryTreeIterator<T> left;
-	private final TrinaryTreeIterator<T> center;
-	private final TrinaryTreeIterator<T> right;
+	private final T lowerBound;
+	private final boolean lowerInclusive;
+	private final T upperBound;
+	private final boolean upperInclusive;
 	
-	private final boolean empty;
+	private final Deque<TrinaryTreeNode<T>> pending = new ArrayDeque<TrinaryTreeNode<T>>();
+	private TrinaryTreeNode<T> head;
 	
-	public TrinaryTreeIterator(TrinaryTreeNodeHolder<T> root) {
-		this.root = root;
-		if(root.get() == null) {
-			empty = true;
-			left = null;
-			center = null;
-			right = null;
-		} else {
-			empty = false;
-			left = new TrinaryTreeIterator<T>(root.get().getLeft());
-			center = new TrinaryTreeIterator<T>(root.get().getCenter());
-			right = new TrinaryTreeIterator<T>(root.get().getRight());
-		}
+	private TrinaryTreeNode<T> current;
+	private int currentIndex;
+	// The node above current in its center chain, or null if current is the head.
+	private TrinaryTreeNode<T> currentParent;
+	// The last node handed out from the chain being walked, if it's still in the tree.
+	private TrinaryTreeNode<T> previous;
+	private TrinaryTreeNode<T> next;
+	private int nextIndex;
+	// The last value handed out, even if it has since been removed.
+	private T last;
+	// Whether the tree has been searched again since current was handed out, so currentParent is out of date.
+	private boolean lost;
+	
+	public TrinaryTreeIterator(TrinaryTree<T> tree, boolean weaklyConsistent) {
+		this(tree, weaklyConsistent, null, false, null, false);
+	}
+	
+	/**
+	 * @param weaklyConsistent Whether to carry on after the tree is changed from outside, rather than fail.
+	 * @param lowerBound The lowest value to return, or null to start from the beginning.
+	 * @param lowerInclusive Whether values equal to the lower bound are returned.
+	 * @param upperBound The highest value to return, or null to continue to the end.
+	 * @param upperInclusive Whether values equal to the upper bound are returned.
+	 */
+	public TrinaryTreeIterator(TrinaryTree<T> tree, boolean weaklyConsistent, T lowerBound, boolean lowerInclusive, T upperBound, boolean upperInclusive) {
+		this.tree = tree;
+		this.weaklyConsistent = weaklyConsistent;
+		this.expectedModCount = tree.getModCount();
+		this.lowerBound = lowerBound;
+		this.lowerInclusive = lowerInclusive;
+		this.upperBound = upperBound;
+		this.upperInclusive = upperInclusive;
+		start();
 	}
 	
 	public boolean hasNext() {
-		if(next == null) {
-			next = nextNode();
+		if(weaklyConsistent) {
+			checkForModification();
 		}
 		return next != null;
 	}
 	
-	private TrinaryTreeNode<T> current;
-	private TrinaryTreeNode<T> next;
-	private boolean localChecked = false;
-	
+	/**
+	 * @throws NoSuchElementException If there are no more values.
+	 * @throws ConcurrentModificationException If the iterator is fail-fast and the tree has been changed 
+	 * 	other than through it.
+	 */
 	public T next() {
-		if(hasNext()) {
-			current = next;
-			next = null;
-			return current.getValue();
+		checkForModification();
+		if(next == null) {
+			throw new NoSuchElementException();
+		}
+		current = next;
+		currentIndex = nextIndex;
+		currentParent = current == head ? null : previous;
+		lost = false;
+		previous = current;
+		if(nextIndex + 1 < next.getCount()) {
+			nextIndex++;
+		} else {
+			next = advance(next);
+			nextIndex = 0;
 		}
-		return null;
+		last = current.getValue(currentIndex);
+		return last;
 	}
 	
-	private TrinaryTreeNode<T> nextNode() {
-		if(empty) {
-			return null;
+	/**
+	 * @throws IllegalStateException If next() hasn't been called since the last call to remove().
+	 * @throws ConcurrentModificationException If the iterator is fail-fast and the tree has been changed 
+	 * 	other than through it.
+	 */
+	public void remove() {
+		if(current == null) {
+			throw new IllegalStateException("next() has not been called since the last remove()");
 		}
-		
-		TrinaryTreeNode<T> next = left.nextNode();
-		if(next != null) {
-			return next;
+		checkForModification();
+		if(lost) {
+			removeLost();
+		} else {
+			removeCurrent();
 		}
-		
-		if(!localChecked) {
-			localChecked = true;
-			return root.get();
+		current = null;
+		expectedModCount = tree.getModCount();
+	}
+	
+	private void removeCurrent() {
+		if(tree.removeFromRun(current, currentIndex)) {
+			// Everything after the removed value in the same node moves up one.
+			if(next == current) {
+				nextIndex--;
+			}
+			return;
 		}
 		
-		next = center.nextNode();
-		if(next != null) {
-			return next;
+		if(currentParent != null) {
+			tree.removeFromChain(currentParent, current);
+			previous = currentParent;
+		} else if(current.getCenter() != null) {
+			// The next equal value is promoted into the head's place, and becomes the head.
+			tree.remove(current);
+			head = next;
+			previous = null;
+		} else {
+			// Removal has to start from the top of the tree so every ancestor gets rebalanced.
+			tree.remove(current);
+			if(next != null) {
+				seek(next);
+			}
+		}
+	}
+	
+	/**
+	 * Removes the current value after the tree was changed from outside and searched again. The current node 
+	 * may have moved, lost values, or gone altogether, so it has to be found from the root, and removed the 
+	 * slow way.
+	 */
+	private void removeLost() {
+		if(seek(current)) {
+			int index = Math.min(currentIndex, current.getCount() - 1);
+			if(tree.removeFromRun(current, index)) {
+				if(next == current && nextIndex > index) {
+					nextIndex--;
+				}
+			} else {
+				tree.remove(current);
+			}
+		}
+		resync();
+	}
+	
+	/**
+	 * Checks whether the tree has been changed other than through this iterator. If so, fail-fast iterators 
+	 * give up, and weakly consistent ones find their place again.
+	 */
+	private void checkForModification() {
+		if(expectedModCount == tree.getModCount()) {
+			return;
+		}
+		if(!weaklyConsistent) {
+			throw new ConcurrentModificationException();
+		}
+		expectedModCount = tree.getModCount();
+		resync();
+		lost = true;
+	}
+	
+	/**
+	 * Rebuilds the stack after the tree has changed, as described for weakly consistent iterators above.
+	 */
+	private void resync() {
+		if(next != null && seek(next)) {
+			if(nextIndex >= next.getCount()) {
+				// Values were removed from the run we were part way through, and we've already had the rest.
+				previous = next;
+				next = advance(next);
+				nextIndex = 0;
+			}
+			return;
 		}
-		next = right.nextNode();
-		if(next != null) {
-			return next;
+		if(current != null && seek(current)) {
+			previous = current;
+			if(currentIndex + 1 < current.getCount()) {
+				next = current;
+				nextIndex = currentIndex + 1;
+			} else {
+				next = advance(current);
+				nextIndex = 0;
+			}
+			return;
 		}
 		
-		return null;
+		pending.clear();
+		previous = null;
+		nextIndex = 0;
+		if(last == null) {
+			start();
+		} else {
+			pushFrom(last, false);
+			next = popHead();
+		}
 	}
-
-	public void remove() {
-		current.remove();
+	
+	private void start() {
+		if(lowerBound == null) {
+			pushLeft(tree.getRoot());
+		} else {
+			pushFrom(lowerBound, lowerInclusive);
+		}
+		next = popHead();
+	}
+	
+	/**
+	 * @param node The node just handed out.
+	 * @return The node to hand out after it, or null if there are none left.
+	 */
+	private TrinaryTreeNode<T> advance(TrinaryTreeNode<T> node) {
+		TrinaryTreeNode<T> equal = node.getCenter();
+		if(equal != null) {
+			return equal;
+		}
+		// End of the center chain; everything right of its head comes next.
+		pushLeft(head.getRight());
+		return popHead();
+	}
+	
+	private void pushLeft(TrinaryTreeNode<T> node) {
+		while(node != null) {
+			pending.push(node);
+			node = node.getLeft();
+		}
+	}
+	
+	/**
+	 * Like {@link #pushLeft(TrinaryTreeNode)} from the root, but skipping over everything below the lower bound.
+	 */
+	private void pushFrom(T lowerBound, boolean lowerInclusive) {
+		Comparator<T> comparator = tree.getComparator();
+		TrinaryTreeNode<T> node = tree.getRoot();
+		while(node != null) {
+			int comparison = comparator.compare(lowerBound, node.getValue());
+			if(comparison < 0 || (comparison == 0 && lowerInclusive)) {
+				pending.push(node);
+				node = node.getLeft();
+			} else {
+				node = node.getRight();
+			}
+		}
+	}
+	
+	private TrinaryTreeNode<T> popHead() {
+		head = pending.poll();
+		if(head != null && upperBound != null) {
+			int comparison = tree.getComparator().compare(head.getValue(), upperBound);
+			if(comparison > 0 || (comparison == 0 && !upperInclusive)) {
+				// Past the end of the range.
+				pending.clear();
+				head = null;
+			}
+		}
+		return head;
+	}
+	
+	/**
+	 * Rebuilds the stack so that the given node is the next one handed out, if it's still in the tree.
+	 * 
+	 * @return Whether the node was found. If not, the stack is left in no particular state.
+	 */
+	private boolean seek(TrinaryTreeNode<T> target) {
+		pending.clear();
+		Comparator<T> comparator = tree.getComparator();
+		TrinaryTreeNode<T> node = tree.getRoot();
+		while(node != null) {
+			int comparison = comparator.compare(target.getValue(), node.getValue());
+			if(comparison < 0) {
+				pending.push(node);
+				node = node.getLeft();
+			} else if(comparison > 0) {
+				node = node.getRight();
+			} else {
+				break;
+			}
+		}
+		if(node == null) {
+			return false;
+		}
+		head = node;
+		previous = null;
+		while(node != target) {
+			if(node.getCenter() == null) {
+				return false;
+			}
+			previous = node;
+			node = node.getCenter();
+		}
+		return true;
 	}
 	
 }
@@ -1,16 +1,22 @@
 package com.bernerbits.zillow.test;
 
-import java.util.Comparator;
-
 /**
  * Trinary tree node.
  * 
- * Contains the node value, a reference to the tree's comparator, references to child node holders (see 
- * {@link TrinaryTreeNodeHolder}) left, center, and right, and also its own holder. In this way, nodes 
- * can be manipulated without storing back-references to parent nodes, and also repetitive null-checks
- * can be consolidated into the holders themselves, greatly simplifying insert and delete operations.
+ * Contains the node value, direct references to the left, center, and right children, and the height of 
+ * the node's left/right spine for rebalancing. Center chains never have left or right children of their 
+ * own, so they don't contribute to the height. 
+ * 
+ * The node at the head of a center chain also counts the values in the chain (its weight) and in its whole 
+ * subtree (its size), which lets the tree report its size and find values by rank. Nodes further down the 
+ * chain don't keep these up to date; their counts only become meaningful if they are promoted to the head.
  * 
- * @see com.bernerbits.zillow.test.TrinaryTreeNodeHolder
+ * Nodes are kept as small as possible, since there is one per element: there are no back-references to 
+ * parents, and the comparator is held once by the tree. Operations that need either are driven from 
+ * {@link TrinaryTree}, which remembers the path it took down the tree. All a node knows how to do is 
+ * rebalance the subtree below it, handing back whichever node ends up at the top.
+ * 
+ * @see com.bernerbits.zillow.test.TrinaryTree
  * 
  * @author derekberner
  *
@@ -19,84 +25,175 @@ import java.util.Comparator;
 /* package-private */ class TrinaryTreeNode<T> {
 
 	private final T value;
-	private final Comparator<T> comparator;
 	
-	private TrinaryTreeNodeHolder<T> owner;
+	private TrinaryTreeNode<T> left;
+	private TrinaryTreeNode<T> center;
+	private TrinaryTreeNode<T> right;
 	
-	private TrinaryTreeNodeHolder<T> left = new TrinaryTreeNodeHolder<T>();
-	private TrinaryTreeNodeHolder<T> center = new TrinaryTreeNodeHolder<T>();
-	private TrinaryTreeNodeHolder<T> right = new TrinaryTreeNodeHolder<T>();
+	private int height = 1;
+	private int weight = 1;
+	private int size = 1;
 	
-	/* package-private */ TrinaryTreeNode(T value, Comparator<T> comparator) {
+	/* package-private */ TrinaryTreeNode(T value) {
 		this.value = value;
-		this.comparator = comparator;
 	}
 	
-	/* package-private */ void setOwner(TrinaryTreeNodeHolder<T> owner) {
-		this.owner = owner;
+	/* package-private */ T getValue() {
+		return value;
 	}
 	
-	/* package-private */ void add(TrinaryTreeNode<T> newValue) {
-		int comparison = comparator.compare(newValue.getValue(), this.value);
-		if(comparison < 0) {
-			left.add(newValue);
-		} else if(comparison > 0) {
-			right.add(newValue);
-		} else {
-			center.add(newValue);
-		}
+	/**
+	 * @param index The position of a value within this node, counting from 0.
+	 * @return The value at that position. Plain nodes only ever hold one value, but see {@link TrinaryTreeRunNode}.
+	 */
+	/* package-private */ T getValue(int index) {
+		return value;
 	}
 	
-	/* package-private */ boolean delete(T value) {
-		int comparison = comparator.compare(value, this.value);
-		
-		// First try pushing the delete as far down the tree as we can go.
-		if(comparison < 0) {
-			return left.delete(value);
-		} else if(comparison > 0) {
-			return right.delete(value);
-		} 
-		
-		// If here, then the value matches, so remove this node.
-		remove();
-		return true;
+	/**
+	 * @return The number of values held by this node, not counting its center chain.
+	 */
+	/* package-private */ int getCount() {
+		return 1;
 	}
 	
-	/* package-private */ T getValue() {
-		return value;
+	/**
+	 * Removes one value from this node, if it has others to spare.
+	 * 
+	 * @param index The position of the value to remove.
+	 * @return false if that was the node's only value, in which case the node itself must be removed from the tree.
+	 */
+	/* package-private */ boolean removeValue(int index) {
+		return false;
 	}
-
-	/* package-private */ void remove() {
-		// Delete this node by nulling out our holder's reference.
-		// No need to explicitly delete this node. By clearing out the holder, we ensure that this node
-		// will go out of scope and eventually be garbage-collected.
-		TrinaryTreeNodeHolder<T> previousOwner = owner;
-		previousOwner.clear();
-		
-		// Now we must rebalance the remaining nodes by calling add on the holder.
-		TrinaryTreeNode<T> leftNode = left.get();
-		TrinaryTreeNode<T> centerNode = center.get();
-		TrinaryTreeNode<T> rightNode = right.get();
-		
-		if(centerNode != null) {
-			previousOwner.add(centerNode);
-		}
-		if(leftNode != null) {
-			previousOwner.add(leftNode);
+	
+	/* package-private */ int getHeight() {
+		return height;
+	}
+	
+	/* package-private */ void setHeight(int height) {
+		this.height = height;
+	}
+	
+	/* package-private */ int getBalance() {
+		return height(left) - height(right);
+	}
+	
+	/* package-private */ void updateHeight() {
+		height = 1 + Math.max(height(left), height(right));
+	}
+	
+	private static int height(TrinaryTreeNode<?> node) {
+		return node == null ? 0 : node.height;
+	}
+	
+	/**
+	 * @return The number of values in this node and its center chain.
+	 */
+	/* package-private */ int getWeight() {
+		return weight;
+	}
+	
+	/* package-private */ void setWeight(int weight) {
+		this.weight = weight;
+	}
+	
+	/**
+	 * @return The number of values in this node's subtree, including its center chain.
+	 */
+	/* package-private */ int getSize() {
+		return size;
+	}
+	
+	/* package-private */ void setSize(int size) {
+		this.size = size;
+	}
+	
+	/* package-private */ void updateSize() {
+		size = weight + size(left) + size(right);
+	}
+	
+	/* package-private */ static int size(TrinaryTreeNode<?> node) {
+		return node == null ? 0 : node.size;
+	}
+	
+	/**
+	 * Points whichever of our child references currently refers to child at replacement instead.
+	 */
+	/* package-private */ void replaceChild(TrinaryTreeNode<T> child, TrinaryTreeNode<T> replacement) {
+		if(left == child) {
+			left = replacement;
+		} else if(right == child) {
+			right = replacement;
+		} else {
+			center = replacement;
 		}
-		if(rightNode != null) {
-			previousOwner.add(rightNode);
+	}
+	
+	/**
+	 * Restores the AVL invariant for this subtree, assuming both child subtrees already satisfy it and 
+	 * their heights differ by at most two.
+	 * 
+	 * @return The node now at the top of this subtree, which the parent must point to.
+	 */
+	/* package-private */ TrinaryTreeNode<T> rebalance() {
+		updateHeight();
+		int balance = getBalance();
+		if(balance > 1) {
+			// Left-heavy. A right-leaning left child must be straightened out first (the "left-right" case).
+			if(left.getBalance() < 0) {
+				left = left.rotateLeft();
+			}
+			return rotateRight();
+		} else if(balance < -1) {
+			// Mirror image of the above.
+			if(right.getBalance() > 0) {
+				right = right.rotateRight();
+			}
+			return rotateLeft();
 		}
+		return this;
+	}
+	
+	private TrinaryTreeNode<T> rotateLeft() {
+		TrinaryTreeNode<T> pivot = right;
+		right = pivot.left;
+		pivot.left = this;
+		updateHeight();
+		updateSize();
+		pivot.updateHeight();
+		pivot.updateSize();
+		return pivot;
+	}
+	
+	private TrinaryTreeNode<T> rotateRight() {
+		TrinaryTreeNode<T> pivot = left;
+		left = pivot.right;
+		pivot.right = this;
+		updateHeight();
+		updateSize();
+		pivot.updateHeight();
+		pivot.updateSize();
+		return pivot;
 	}
 		
-	/* package-private */ TrinaryTreeNodeHolder<T> getLeft() {
+	/* package-private */ TrinaryTreeNode<T> getLeft() {
 		return left;
 	}
-	/* package-private */ TrinaryTreeNodeHolder<T> getCenter() {
+	/* package-private */ void setLeft(TrinaryTreeNode<T> left) {
+		this.left = left;
+	}
+	/* package-private */ TrinaryTreeNode<T> getCenter() {
 		return center;
 	}
-	/* package-private */ TrinaryTreeNodeHolder<T> getRight() {
+	/* package-private */ void setCenter(TrinaryTreeNode<T> center) {
+		this.center = center;
+	}
+	/* package-private */ TrinaryTreeNode<T> getRight() {
 		return right;
 	}
+	/* package-private */ void setRight(TrinaryTreeNode<T> right) {
+		this.right = right;
+	}
 	
 }
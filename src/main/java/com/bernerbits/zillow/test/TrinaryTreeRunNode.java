@@ -0,0 +1,105 @@
+package com.bernerbits.zillow.test;
+
+/**
+ * Trinary tree node for trees that collapse duplicates.
+ * 
+ * Instead of a center chain, every value equal to the first (according to the comparator) is kept in this 
+ * one node, in insertion order. Adding a duplicate and removing the earliest one are both O(1), and a run 
+ * of a hundred thousand duplicates costs one node rather than a hundred thousand.
+ * 
+ * As long as every duplicate is also equals() to the first value, the run is just a count, and iteration 
+ * hands back the first value in place of each duplicate. The first duplicate that isn't equals() turns 
+ * the run into an array of values, which is used as a queue: removing from the front just moves the 
+ * offset along, and space at the front is reclaimed when the array fills up, as long as that frees at
+ * least half of it; otherwise the array doubles. Either way, adds stay O(1) amortized.
+ * 
+ * @author derekberner
+ *
+ * @param <T> Type parameter of the enclosing tree.
+ */
+/* package-private */ class TrinaryTreeRunNode<T> extends TrinaryTreeNode<T> {
+
+	private int count = 1;
+	
+	private Object[] values;
+	private int offset;
+	
+	/* package-private */ TrinaryTreeRunNode(T value) {
+		super(value);
+	}
+	
+	@Override
+	/* package-private */ T getValue() {
+		return getValue(0);
+	}
+	
+	@Override
+	@SuppressWarnings("unchecked")
+	/* package-private */ T getValue(int index) {
+		if(values == null) {
+			return super.getValue();
+		}
+		return (T)values[offset + index];
+	}
+	
+	@Override
+	/* package-private */ int getCount() {
+		return count;
+	}
+	
+	/**
+	 * @return Whether the run is just a count of copies of the first value.
+	 */
+	/* package-private */ boolean isUniform() {
+		return values == null;
+	}
+	
+	/**
+	 * Adds a value to the end of the run.
+	 */
+	/* package-private */ void add(T value) {
+		if(values == null) {
+			if(value.equals(super.getValue())) {
+				count++;
+				return;
+			}
+			// The first distinct duplicate. From here on, every value has to be kept.
+			values = new Object[Math.max(8, count * 2)];
+			for(int i = 0; i < count; i++) {
+				values[i] = super.getValue();
+			}
+		} else if(offset + count == values.length) {
+			// Compacting in place only pays for itself when it frees at least half the array. Otherwise a
+			// queue that stays about as long as the array would compact on nearly every add.
+			if(offset >= values.length / 2) {
+				System.arraycopy(values, offset, values, 0, count);
+				for(int i = count; i < offset + count; i++) {
+					values[i] = null;
+				}
+			} else {
+				Object[] grown = new Object[values.length * 2];
+				System.arraycopy(values, offset, grown, 0, count);
+				values = grown;
+			}
+			offset = 0;
+		}
+		values[offset + count++] = value;
+	}
+	
+	@Override
+	/* package-private */ boolean removeValue(int index) {
+		if(count == 1) {
+			return false;
+		}
+		count--;
+		if(values != null) {
+			if(index == 0) {
+				values[offset++] = null;
+			} else {
+				System.arraycopy(values, offset + index + 1, values, offset + index, count - index);
+				values[offset + count] = null;
+			}
+		}
+		return true;
+	}
+}
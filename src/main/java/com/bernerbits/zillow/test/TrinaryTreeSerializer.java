@@ -0,0 +1,181 @@
+package com.bernerbits.zillow.test;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Comparator;
+
+/**
+ * Binary format for a {@link TrinaryTree}, which keeps its exact shape so it can be read back without
+ * comparing or rebalancing anything.
+ *
+ * The stream starts with a header: a magic number, whether the tree collapses duplicates, and its size as a
+ * varint (see {@link TrinaryTreeCodecs}). Then, unless the tree is empty, comes the root node, where each node
+ * is:
+ *
+ * <pre>
+ *   flags     byte: 1 if it has a left subtree, 2 if it has a right subtree, 4 if it's a run of one value
+ *   weight    varint: values in the node and its center chain (or run)
+ *   left      the left subtree, if any
+ *   values    the node's values, then its center chain's, or just one for a run of one value
+ *   right     the right subtree, if any
+ * </pre>
+ *
+ * Flags come before a node's subtrees, as in a pre-order walk, so the reader knows what to expect, but values
+ * come in order. That means a codec sees values in ascending order and can write each one as what changed
+ * since the last one.
+ *
+ * Reading makes a single pass over the stream, building each node as its values arrive, with heights and sizes
+ * worked out from its children on the way back up. Recursion only follows left and right, so it's never
+ * deeper than the tree is tall; the reader refuses anything deeper than an AVL tree can be, or that isn't
+ * balanced, or whose counts don't add up, rather than build a broken tree.
+ *
+ * @author derekberner
+ */
+/* package-private */ final class TrinaryTreeSerializer {
+	
+	private static final int MAGIC = 0x54525431;
+	
+	private static final int LEFT = 1;
+	private static final int RIGHT = 2;
+	private static final int UNIFORM = 4;
+	
+	// An AVL tree of 2^31 nodes is less than 48 levels tall.
+	private static final int MAX_HEIGHT = 48;
+	
+	private TrinaryTreeSerializer() {
+	}
+	
+	/* package-private */ static <T> void write(DataOutput out, TrinaryTreeNode<T> root, boolean collapseDuplicates, TrinaryTreeCodec<? super T> codec) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeBoolean(collapseDuplicates);
+		TrinaryTreeCodecs.writeVarInt(out, TrinaryTreeNode.size(root));
+		if(root != null) {
+			new Writer<T>(out, codec).write(root);
+		}
+	}
+	
+	/* package-private */ static <T> TrinaryTree<T> read(DataInput in, Comparator<T> comparator, TrinaryTreeCodec<T> codec) throws IOException {
+		if(in.readInt() != MAGIC) {
+			throw new IOException("Not a trinary tree");
+		}
+		boolean collapseDuplicates = in.readBoolean();
+		int size = TrinaryTreeCodecs.readVarInt(in);
+		TrinaryTreeNode<T> root = null;
+		if(size > 0) {
+			root = new Reader<T>(in, codec, collapseDuplicates).read(1);
+			if(root.getSize() != size) {
+				throw new IOException("Corrupt trinary tree: size is " + root.getSize() + ", expected " + size);
+			}
+		}
+		return new TrinaryTree<T>(comparator, collapseDuplicates, root);
+	}
+	
+	private static final class Writer<T> {
+		
+		private final DataOutput out;
+		private final TrinaryTreeCodec<? super T> codec;
+		private T previous;
+		
+		private Writer(DataOutput out, TrinaryTreeCodec<? super T> codec) {
+			this.out = out;
+			this.codec = codec;
+		}
+		
+		private void write(TrinaryTreeNode<T> node) throws IOException {
+			boolean uniform = node instanceof TrinaryTreeRunNode && ((TrinaryTreeRunNode<T>)node).isUniform();
+			out.writeByte((node.getLeft() != null ? LEFT : 0) | (node.getRight() != null ? RIGHT : 0) | (uniform ? UNIFORM : 0));
+			TrinaryTreeCodecs.writeVarInt(out, node.getWeight());
+			if(node.getLeft() != null) {
+				write(node.getLeft());
+			}
+			if(uniform) {
+				write(node.getValue());
+			} else {
+				for(TrinaryTreeNode<T> equal = node; equal != null; equal = equal.getCenter()) {
+					for(int i = 0; i < equal.getCount(); i++) {
+						write(equal.getValue(i));
+					}
+				}
+			}
+			if(node.getRight() != null) {
+				write(node.getRight());
+			}
+		}
+		
+		private void write(T value) throws IOException {
+			codec.write(out, previous, value);
+			previous = value;
+		}
+	}
+	
+	private static final class Reader<T> {
+		
+		private final DataInput in;
+		private final TrinaryTreeCodec<T> codec;
+		private final boolean collapseDuplicates;
+		private T previous;
+		
+		private Reader(DataInput in, TrinaryTreeCodec<T> codec, boolean collapseDuplicates) {
+			this.in = in;
+			this.codec = codec;
+			this.collapseDuplicates = collapseDuplicates;
+		}
+		
+		/**
+		 * @param depth How far down the tree the node is, counting the root as 1.
+		 */
+		private TrinaryTreeNode<T> read(int depth) throws IOException {
+			if(depth > MAX_HEIGHT) {
+				throw new IOException("Corrupt trinary tree: too deep");
+			}
+			int flags = in.readUnsignedByte();
+			if((flags & ~(LEFT | RIGHT | UNIFORM)) != 0 || ((flags & UNIFORM) != 0 && !collapseDuplicates)) {
+				throw new IOException("Corrupt trinary tree: bad flags " + flags);
+			}
+			int weight = TrinaryTreeCodecs.readVarInt(in);
+			if(weight == 0) {
+				throw new IOException("Corrupt trinary tree: empty node");
+			}
+			TrinaryTreeNode<T> left = (flags & LEFT) != 0 ? read(depth + 1) : null;
+			
+			TrinaryTreeNode<T> node;
+			if(collapseDuplicates) {
+				T first = read();
+				TrinaryTreeRunNode<T> run = new TrinaryTreeRunNode<T>(first);
+				for(int i = 1; i < weight; i++) {
+					run.add((flags & UNIFORM) != 0 ? first : read());
+				}
+				node = run;
+			} else {
+				node = new TrinaryTreeNode<T>(read());
+				TrinaryTreeNode<T> last = node;
+				for(int i = 1; i < weight; i++) {
+					TrinaryTreeNode<T> equal = new TrinaryTreeNode<T>(read());
+					last.setCenter(equal);
+					last = equal;
+				}
+			}
+			node.setWeight(weight);
+			
+			TrinaryTreeNode<T> right = (flags & RIGHT) != 0 ? read(depth + 1) : null;
+			node.setLeft(left);
+			node.setRight(right);
+			node.updateHeight();
+			node.updateSize();
+			if(Math.abs(node.getBalance()) > 1 || node.getSize() < weight) {
+				throw new IOException("Corrupt trinary tree: unbalanced or too large");
+			}
+			return node;
+		}
+		
+		private T read() throws IOException {
+			T value = codec.read(in, previous);
+			if(value == null) {
+				throw new IOException("Codec read a null value");
+			}
+			previous = value;
+			return value;
+		}
+	}
+}
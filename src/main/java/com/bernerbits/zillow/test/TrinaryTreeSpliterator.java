@@ -0,0 +1,199 @@
+package com.bernerbits.zillow.test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator for trinary tree, so the tree can be streamed, in parallel if need be.
+ *
+ * Covers a run of consecutive pieces of the tree, in order, each either a whole subtree (left, center chain
+ * and right) or a single center chain. A new spliterator covers the whole tree as one piece. To split, any 
+ * subtree holding more than half the values is first opened up into its left subtree, its center chain and 
+ * its right subtree; then the pieces are divided into two runs of about the same number of values, using the 
+ * sizes the nodes already keep. The first run is handed off and this spliterator keeps the rest, so each half 
+ * stays in comparator order. Every split halves the work at the cost of looking at a few nodes, so a tree 
+ * splits for as many threads as needed in O(log n) steps.
+ *
+ * Traversal works like {@link TrinaryTreeIterator}, with a stack of the nodes we went left from. Once it
+ * has started, the spliterator no longer splits. Like the fail-fast iterator, it throws
+ * {@link ConcurrentModificationException} if the tree is changed while it's in use.
+ *
+ * @author derekberner
+ *
+ * @param <T> Type parameter of the source tree.
+ */
+/* package-private */ class TrinaryTreeSpliterator<T> implements Spliterator<T> {
+	
+	private final TrinaryTree<T> tree;
+	private final int expectedModCount;
+	
+	// Pieces not yet started, in order: subtree roots, or chain heads where the matching flag is set.
+	private final List<TrinaryTreeNode<T>> pieces;
+	private final List<Boolean> chainOnly;
+	private long remaining;
+	
+	// Traversal state.
+	private final Deque<TrinaryTreeNode<T>> pending = new ArrayDeque<TrinaryTreeNode<T>>();
+	private TrinaryTreeNode<T> head;
+	private boolean headChainOnly;
+	private TrinaryTreeNode<T> next;
+	private int nextIndex;
+	
+	/* package-private */ TrinaryTreeSpliterator(TrinaryTree<T> tree) {
+		this(tree, tree.getModCount(), new ArrayList<TrinaryTreeNode<T>>(), new ArrayList<Boolean>());
+		if(tree.getRoot() != null) {
+			pieces.add(tree.getRoot());
+			chainOnly.add(false);
+			remaining = tree.getRoot().getSize();
+		}
+	}
+	
+	private TrinaryTreeSpliterator(TrinaryTree<T> tree, int expectedModCount, List<TrinaryTreeNode<T>> pieces, List<Boolean> chainOnly) {
+		this.tree = tree;
+		this.expectedModCount = expectedModCount;
+		this.pieces = pieces;
+		this.chainOnly = chainOnly;
+	}
+	
+	public boolean tryAdvance(Consumer<? super T> action) {
+		if(tree.getModCount() != expectedModCount) {
+			throw new ConcurrentModificationException();
+		}
+		if(next == null && !nextPiece()) {
+			return false;
+		}
+		T value = next.getValue(nextIndex);
+		if(++nextIndex == next.getCount()) {
+			next = advance(next);
+			nextIndex = 0;
+		}
+		remaining--;
+		action.accept(value);
+		return true;
+	}
+	
+	public Spliterator<T> trySplit() {
+		if(next != null) {
+			// Part way through a piece.
+			return null;
+		}
+		// Open up any subtree holding more than half the values, so there's somewhere near the middle to split.
+		for(int i = 0; i < pieces.size(); i++) {
+			TrinaryTreeNode<T> node = pieces.get(i);
+			if(!chainOnly.get(i) && 2 * node.getSize() > remaining) {
+				open(i);
+				// Look at whatever is in its place now.
+				i--;
+			}
+		}
+		if(pieces.size() < 2) {
+			return null;
+		}
+		
+		// Hand off pieces from the front while they hold no more than half the values, but at least one, and 
+		// keep at least one.
+		int count = 0;
+		long prefixSize = 0;
+		do {
+			prefixSize += size(count++);
+		} while(count < pieces.size() - 1 && 2 * prefixSize + size(count) <= remaining);
+		
+		List<TrinaryTreeNode<T>> prefix = new ArrayList<TrinaryTreeNode<T>>(pieces.subList(0, count));
+		List<Boolean> prefixChainOnly = new ArrayList<Boolean>(chainOnly.subList(0, count));
+		pieces.subList(0, count).clear();
+		chainOnly.subList(0, count).clear();
+		TrinaryTreeSpliterator<T> split = new TrinaryTreeSpliterator<T>(tree, expectedModCount, prefix, prefixChainOnly);
+		split.remaining = prefixSize;
+		remaining -= prefixSize;
+		return split;
+	}
+	
+	public long estimateSize() {
+		return remaining;
+	}
+	
+	public int characteristics() {
+		return ORDERED | SORTED | SIZED | SUBSIZED | NONNULL;
+	}
+	
+	public Comparator<? super T> getComparator() {
+		return tree.getComparator();
+	}
+	
+	/**
+	 * Replaces a subtree piece with its left subtree, center chain and right subtree.
+	 */
+	private void open(int index) {
+		TrinaryTreeNode<T> node = pieces.remove(index);
+		chainOnly.remove(index);
+		if(node.getRight() != null) {
+			pieces.add(index, node.getRight());
+			chainOnly.add(index, false);
+		}
+		pieces.add(index, node);
+		chainOnly.add(index, true);
+		if(node.getLeft() != null) {
+			pieces.add(index, node.getLeft());
+			chainOnly.add(index, false);
+		}
+	}
+	
+	private long size(int index) {
+		TrinaryTreeNode<T> node = pieces.get(index);
+		return chainOnly.get(index) ? node.getWeight() : node.getSize();
+	}
+	
+	/**
+	 * Starts traversing the next piece.
+	 *
+	 * @return false if there are none left.
+	 */
+	private boolean nextPiece() {
+		if(pieces.isEmpty()) {
+			return false;
+		}
+		TrinaryTreeNode<T> node = pieces.remove(0);
+		if(chainOnly.remove(0)) {
+			head = node;
+			headChainOnly = true;
+			next = node;
+		} else {
+			pushLeft(node);
+			next = popHead();
+		}
+		return true;
+	}
+	
+	/**
+	 * @param node The node just finished with.
+	 * @return The node to hand out values from next, or null if this piece is finished.
+	 */
+	private TrinaryTreeNode<T> advance(TrinaryTreeNode<T> node) {
+		if(node.getCenter() != null) {
+			return node.getCenter();
+		}
+		if(!headChainOnly) {
+			pushLeft(head.getRight());
+		}
+		return popHead();
+	}
+	
+	private void pushLeft(TrinaryTreeNode<T> node) {
+		while(node != null) {
+			pending.push(node);
+			node = node.getLeft();
+		}
+	}
+	
+	private TrinaryTreeNode<T> popHead() {
+		head = pending.poll();
+		headChainOnly = false;
+		return head;
+	}
+}
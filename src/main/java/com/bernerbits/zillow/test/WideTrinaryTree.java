@@ -0,0 +1,292 @@
+package com.bernerbits.zillow.test;
+
+import java.util.Comparator;
+import java.util.Iterator;
+
+/**
+ * Trinary tree with wide nodes, for large trees where cache misses dominate.
+ *
+ * Holds the same values in the same order as a {@link TrinaryTree}: sorted by the comparator, with equal
+ * values in the order they were inserted, and delete removing the earliest. But instead of one node per
+ * value, it's a B+ tree (see {@link WideTrinaryTreeNode}): each leaf packs dozens of values into one sorted
+ * array, and each internal node dozens of children. A lookup in a tree of a million values then visits three
+ * or four nodes instead of twenty or so, each a binary search over an array that sits in a handful of cache
+ * lines, rather than a pointer to chase per level. Iterating is a walk along the linked leaves. The values
+ * themselves are still objects of their own, so comparing against them costs what it always did; this only
+ * cuts out the misses on the nodes in between.
+ *
+ * Duplicates simply sit next to each other in the leaves, spilling into the next leaf if there are more of
+ * them than fit, so there's no separate center chain. Inserts go after the last equal value, and deletes
+ * take the first, found with a binary search for one or the other end of the run.
+ *
+ * The node capacity trades update cost against depth: inserting into or deleting from a node moves up to
+ * that many references along. Leaves and internal nodes are never less than half full, except the root.
+ *
+ * Not thread-safe.
+ *
+ * @see com.bernerbits.zillow.test.WideTrinaryTreeNode
+ * @see com.bernerbits.zillow.test.WideTrinaryTreeIterator
+ *
+ * @author derekberner
+ *
+ * @param <T> The type parameter
+ */
+public class WideTrinaryTree<T> {
+	
+	/* package-private */ static final int DEFAULT_CAPACITY = 64;
+	
+	private static final int FOUND = 0;
+	private static final int NOT_FOUND = 1;
+	// Not found yet, but the run of equal values may carry on into the next node.
+	private static final int FURTHER = 2;
+	
+	private final Comparator<T> comparator;
+	private final int capacity;
+	
+	private WideTrinaryTreeNode<T> root;
+	private int size;
+	private int modCount;
+	
+	// Passed back up by insert when it splits a node.
+	private Object promoted;
+	
+	// How many equal values delete still has to pass over before the one to remove.
+	private int skip;
+	
+	/**
+	 * Constructs a new, empty WideTrinaryTree using a default comparator for Comparable class. See
+	 * {@link TrinaryTree#create()}.
+	 */
+	public static <C extends Comparable<C>> WideTrinaryTree<C> create() {
+		return new WideTrinaryTree<C>(new Comparator<C>() {
+			public int compare(C o1, C o2) {
+				return o1.compareTo(o2);
+			}
+		});
+	}
+	
+	/**
+	 * Constructs a new, empty WideTrinaryTree using a custom comparator.
+	 *
+	 * @param comparator the Comparator to use.
+	 */
+	public WideTrinaryTree(Comparator<T> comparator) {
+		this(comparator, DEFAULT_CAPACITY);
+	}
+	
+	/**
+	 * Constructs a new, empty WideTrinaryTree using a custom comparator.
+	 *
+	 * @param comparator the Comparator to use.
+	 * @param capacity The most values a leaf, or children an internal node, can hold. At least 4.
+	 */
+	public WideTrinaryTree(Comparator<T> comparator, int capacity) {
+		if(capacity < 4) {
+			throw new IllegalArgumentException("Node capacity must be at least 4: " + capacity);
+		}
+		this.comparator = comparator;
+		this.capacity = capacity;
+		this.root = new WideTrinaryTreeNode<T>(capacity, true);
+	}
+	
+	public void insert(T value) {
+		if(value == null) {
+			throw new IllegalArgumentException("Attempted null insert detected.");
+		}
+		modCount++;
+		size++;
+		WideTrinaryTreeNode<T> right = insert(root, value);
+		if(right != null) {
+			WideTrinaryTreeNode<T> grown = new WideTrinaryTreeNode<T>(capacity, false);
+			grown.setChildren(root, promoted, right);
+			root = grown;
+		}
+		promoted = null;
+	}
+	
+	/**
+	 * Deletes the earliest value equal to the given one.
+	 *
+	 * @return Whether a value was found.
+	 */
+	public boolean delete(T value) {
+		return delete(value, 0);
+	}
+	
+	/**
+	 * @return Whether the tree holds a value equal to the given one, according to the comparator.
+	 */
+	public boolean contains(T value) {
+		return count(value, 1) > 0;
+	}
+	
+	/**
+	 * @return The number of values in the tree equal to the given one, according to the comparator.
+	 */
+	public int count(T value) {
+		return count(value, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * @return The number of values in the tree.
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @return A fail-fast iterator over the tree, in order.
+	 */
+	public Iterator<T> iterator() {
+		return new WideTrinaryTreeIterator<T>(this);
+	}
+	
+	/**
+	 * Deletes one of the values equal to the given one.
+	 *
+	 * @param ordinal How many of the equal values come before the one to delete.
+	 * @return Whether there was such a value.
+	 */
+	/* package-private */ boolean delete(T value, int ordinal) {
+		skip = ordinal;
+		if(delete(root, value) != FOUND) {
+			return false;
+		}
+		modCount++;
+		size--;
+		if(!root.isLeaf() && root.getCount() == 1) {
+			root = root.getChild(0);
+		}
+		return true;
+	}
+	
+	/**
+	 * Finds the leaf holding the first value equal to or greater than the given one.
+	 *
+	 * @return The leaf, with the value's index in it stored in position[0]; or null, if every value is less.
+	 */
+	/* package-private */ WideTrinaryTreeNode<T> find(T value, int[] position) {
+		WideTrinaryTreeNode<T> node = root;
+		while(!node.isLeaf()) {
+			node = node.getChild(node.search(value, comparator, false));
+		}
+		int index = node.search(value, comparator, false);
+		if(index == node.getCount()) {
+			// The first equal value, if any, starts the next leaf.
+			node = node.getNext();
+			index = 0;
+		}
+		position[0] = index;
+		return node;
+	}
+	
+	/* package-private */ WideTrinaryTreeNode<T> getRoot() {
+		return root;
+	}
+	
+	/* package-private */ Comparator<T> getComparator() {
+		return comparator;
+	}
+	
+	/* package-private */ int getModCount() {
+		return modCount;
+	}
+	
+	/**
+	 * Counts values equal to the given one, stopping once there are enough.
+	 */
+	private int count(T value, int limit) {
+		int[] position = new int[1];
+		WideTrinaryTreeNode<T> leaf = find(value, position);
+		int count = 0;
+		for(int index = position[0]; leaf != null && count < limit; index = 0, leaf = leaf.getNext()) {
+			for(; index < leaf.getCount(); index++) {
+				if(comparator.compare(leaf.getValue(index), value) != 0) {
+					return count;
+				}
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Inserts a value after any equal ones in a subtree, splitting nodes that overflow on the way back up.
+	 *
+	 * @return A new sibling holding the upper half of the node, if it had to be split, with the separator
+	 * 	between them in {@link #promoted}; otherwise null.
+	 */
+	private WideTrinaryTreeNode<T> insert(WideTrinaryTreeNode<T> node, T value) {
+		if(node.isLeaf()) {
+			node.insertValue(node.search(value, comparator, true), value);
+		} else {
+			int index = node.search(value, comparator, true);
+			WideTrinaryTreeNode<T> right = insert(node.getChild(index), value);
+			if(right == null) {
+				return null;
+			}
+			node.insertChild(index + 1, promoted, right);
+		}
+		if(node.getCount() <= capacity) {
+			return null;
+		}
+		WideTrinaryTreeNode<T> right = new WideTrinaryTreeNode<T>(capacity, node.isLeaf());
+		promoted = node.split(right);
+		return right;
+	}
+	
+	/**
+	 * Deletes a value equal to the given one from a subtree, after passing over {@link #skip} others, and
+	 * refills or merges any node left less than half full on the way back up.
+	 *
+	 * @return FOUND, NOT_FOUND, or FURTHER if the next subtree along may hold it.
+	 */
+	private int delete(WideTrinaryTreeNode<T> node, T value) {
+		if(node.isLeaf()) {
+			int index = node.search(value, comparator, false);
+			for(; index < node.getCount() && comparator.compare(node.getValue(index), value) == 0; index++) {
+				if(skip == 0) {
+					node.removeValue(index);
+					return FOUND;
+				}
+				skip--;
+			}
+			return index == node.getCount() ? FURTHER : NOT_FOUND;
+		}
+		for(int index = node.search(value, comparator, false); index < node.getCount(); index++) {
+			int result = delete(node.getChild(index), value);
+			if(result == FOUND) {
+				refill(node, index);
+				return FOUND;
+			} else if(result == NOT_FOUND) {
+				return NOT_FOUND;
+			}
+		}
+		return FURTHER;
+	}
+	
+	/**
+	 * Tops up a child left less than half full, from a sibling that can spare something, or else merges it
+	 * with a sibling.
+	 */
+	private void refill(WideTrinaryTreeNode<T> parent, int index) {
+		WideTrinaryTreeNode<T> child = parent.getChild(index);
+		int minimum = capacity / 2;
+		if(child.getCount() >= minimum) {
+			return;
+		}
+		WideTrinaryTreeNode<T> left = index > 0 ? parent.getChild(index - 1) : null;
+		WideTrinaryTreeNode<T> right = index + 1 < parent.getCount() ? parent.getChild(index + 1) : null;
+		if(left != null && left.getCount() > minimum) {
+			parent.setSeparator(index - 1, child.takeLast(left, parent.getValue(index - 1)));
+		} else if(right != null && right.getCount() > minimum) {
+			parent.setSeparator(index, child.takeFirst(right, parent.getValue(index)));
+		} else if(left != null) {
+			left.merge(child, parent.getValue(index - 1));
+			parent.removeChild(index);
+		} else if(right != null) {
+			child.merge(right, parent.getValue(index));
+			parent.removeChild(index + 1);
+		}
+	}
+}
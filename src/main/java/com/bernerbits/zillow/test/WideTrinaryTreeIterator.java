@@ -0,0 +1,111 @@
+package com.bernerbits.zillow.test;
+
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator for {@link WideTrinaryTree}.
+ *
+ * Walks the linked leaves from the first, an array at a time. Fail-fast, like the default
+ * {@link TrinaryTreeIterator}: changing the tree other than through this iterator makes it throw
+ * {@link ConcurrentModificationException}.
+ *
+ * Removing a value can merge or refill leaves, so afterwards the iterator finds its place again from the root.
+ * Equal values can't be told apart by the comparator, so it keeps track of how many equal values come before
+ * the next one, and uses that both to remove exactly the value it handed out and to find its place again.
+ *
+ * @author derekberner
+ *
+ * @param <T> Type parameter of the source tree.
+ */
+/* package-private */ class WideTrinaryTreeIterator<T> implements Iterator<T> {
+	
+	private final WideTrinaryTree<T> tree;
+	private final Comparator<T> comparator;
+	private int expectedModCount;
+	
+	// The next value to hand out, and how many values equal to it come before it.
+	private WideTrinaryTreeNode<T> leaf;
+	private int index;
+	private int ordinal;
+	
+	private T last;
+	private int lastOrdinal;
+	private boolean removable;
+	
+	/* package-private */ WideTrinaryTreeIterator(WideTrinaryTree<T> tree) {
+		this.tree = tree;
+		this.comparator = tree.getComparator();
+		this.expectedModCount = tree.getModCount();
+		WideTrinaryTreeNode<T> node = tree.getRoot();
+		while(!node.isLeaf()) {
+			node = node.getChild(0);
+		}
+		leaf = node.getCount() == 0 ? null : node;
+	}
+	
+	public boolean hasNext() {
+		return leaf != null;
+	}
+	
+	/**
+	 * @throws NoSuchElementException If there are no more values.
+	 * @throws ConcurrentModificationException If the tree was changed other than through this iterator.
+	 */
+	public T next() {
+		if(tree.getModCount() != expectedModCount) {
+			throw new ConcurrentModificationException();
+		}
+		if(leaf == null) {
+			throw new NoSuchElementException();
+		}
+		last = leaf.getValue(index);
+		lastOrdinal = ordinal;
+		removable = true;
+		if(++index == leaf.getCount()) {
+			leaf = leaf.getNext();
+			index = 0;
+		}
+		ordinal = leaf != null && comparator.compare(leaf.getValue(index), last) == 0 ? lastOrdinal + 1 : 0;
+		return last;
+	}
+	
+	public void remove() {
+		if(!removable) {
+			throw new IllegalStateException("next() has not been called since the last remove()");
+		}
+		if(tree.getModCount() != expectedModCount) {
+			throw new ConcurrentModificationException();
+		}
+		removable = false;
+		
+		T next = leaf == null ? null : leaf.getValue(index);
+		tree.delete(last, lastOrdinal);
+		expectedModCount = tree.getModCount();
+		if(next == null) {
+			return;
+		}
+		if(ordinal > 0) {
+			// The value removed was one of the equal values before the next one.
+			ordinal--;
+		}
+		seek(next, ordinal);
+	}
+	
+	/**
+	 * Finds the place of a value in the tree again.
+	 *
+	 * @param ordinal How many values equal to it come before it.
+	 */
+	private void seek(T value, int ordinal) {
+		int[] position = new int[1];
+		leaf = tree.find(value, position);
+		index = position[0] + ordinal;
+		while(index >= leaf.getCount()) {
+			index -= leaf.getCount();
+			leaf = leaf.getNext();
+		}
+	}
+}
@@ -0,0 +1,236 @@
+package com.bernerbits.zillow.test;
+
+import java.util.Comparator;
+
+/**
+ * Node of a {@link WideTrinaryTree}.
+ *
+ * A leaf holds up to the tree's node capacity of values in a sorted array, with equal values next to each
+ * other in insertion order, and a link to the next leaf. An internal node holds up to that many children,
+ * and one separator fewer: every value below child i is less than or equal to separator i, and every value
+ * below child i + 1 is greater than or equal to it. Equal values can straddle a separator, which is how a
+ * run of duplicates longer than a leaf is kept.
+ *
+ * Arrays are allocated one larger than the capacity, so a node can overflow by one before the tree splits it.
+ *
+ * @author derekberner
+ *
+ * @param <T> Type parameter of the enclosing tree.
+ */
+/* package-private */ class WideTrinaryTreeNode<T> {
+	
+	// Values in a leaf, separators in an internal node.
+	private final Object[] values;
+	
+	// Null in a leaf.
+	private final WideTrinaryTreeNode<T>[] children;
+	
+	// Values in a leaf, children in an internal node.
+	private int count;
+	
+	private WideTrinaryTreeNode<T> next;
+	
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	/* package-private */ WideTrinaryTreeNode(int capacity, boolean leaf) {
+		values = new Object[capacity + 1];
+		children = leaf ? null : new WideTrinaryTreeNode[capacity + 1];
+	}
+	
+	/* package-private */ boolean isLeaf() {
+		return children == null;
+	}
+	
+	/* package-private */ int getCount() {
+		return count;
+	}
+	
+	/**
+	 * @return The value at an index in a leaf, or the separator after a child in an internal node.
+	 */
+	@SuppressWarnings("unchecked")
+	/* package-private */ T getValue(int index) {
+		return (T)values[index];
+	}
+	
+	/* package-private */ WideTrinaryTreeNode<T> getChild(int index) {
+		return children[index];
+	}
+	
+	/* package-private */ WideTrinaryTreeNode<T> getNext() {
+		return next;
+	}
+	
+	/**
+	 * Binary search of a leaf's values or an internal node's separators.
+	 *
+	 * @param upper Whether to count values equal to the given one as well.
+	 * @return The number of values (or separators) less than, or if upper, less than or equal to, the given one.
+	 * 	In an internal node, that's the index of the child to go to.
+	 */
+	@SuppressWarnings("unchecked")
+	/* package-private */ int search(T value, Comparator<? super T> comparator, boolean upper) {
+		int low = 0;
+		int high = isLeaf() ? count : count - 1;
+		while(low < high) {
+			int middle = (low + high) >>> 1;
+			int comparison = comparator.compare((T)values[middle], value);
+			if(comparison < 0 || (upper && comparison == 0)) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+	
+	/* package-private */ void insertValue(int index, T value) {
+		System.arraycopy(values, index, values, index + 1, count - index);
+		values[index] = value;
+		count++;
+	}
+	
+	/* package-private */ void removeValue(int index) {
+		count--;
+		System.arraycopy(values, index + 1, values, index, count - index);
+		values[count] = null;
+	}
+	
+	/**
+	 * Makes an empty internal node the parent of two nodes, as a new root.
+	 */
+	/* package-private */ void setChildren(WideTrinaryTreeNode<T> left, Object separator, WideTrinaryTreeNode<T> right) {
+		children[0] = left;
+		children[1] = right;
+		values[0] = separator;
+		count = 2;
+	}
+	
+	/* package-private */ void setSeparator(int index, Object separator) {
+		values[index] = separator;
+	}
+	
+	/**
+	 * Adds a child to an internal node, along with the separator between it and the child before.
+	 */
+	/* package-private */ void insertChild(int index, Object separator, WideTrinaryTreeNode<T> child) {
+		System.arraycopy(children, index, children, index + 1, count - index);
+		System.arraycopy(values, index - 1, values, index, count - index);
+		children[index] = child;
+		values[index - 1] = separator;
+		count++;
+	}
+	
+	/**
+	 * Removes a child from an internal node, along with the separator between it and the child before.
+	 */
+	/* package-private */ void removeChild(int index) {
+		count--;
+		System.arraycopy(children, index + 1, children, index, count - index);
+		System.arraycopy(values, index, values, index - 1, count - index);
+		children[count] = null;
+		values[count - 1] = null;
+	}
+	
+	/**
+	 * Moves the upper half of this node into an empty sibling.
+	 *
+	 * @return The separator to put between the two in the parent.
+	 */
+	/* package-private */ Object split(WideTrinaryTreeNode<T> right) {
+		int keep = (count + 1) >>> 1;
+		int moved = count - keep;
+		Object separator;
+		if(isLeaf()) {
+			System.arraycopy(values, keep, right.values, 0, moved);
+			separator = values[keep];
+			right.next = next;
+			next = right;
+		} else {
+			// The separator between the halves moves up rather than across.
+			System.arraycopy(children, keep, right.children, 0, moved);
+			System.arraycopy(values, keep, right.values, 0, moved - 1);
+			separator = values[keep - 1];
+		}
+		clear(keep);
+		right.count = moved;
+		return separator;
+	}
+	
+	/**
+	 * Moves everything from the next sibling into this node.
+	 *
+	 * @param separator The separator between the two in the parent.
+	 */
+	/* package-private */ void merge(WideTrinaryTreeNode<T> right, Object separator) {
+		if(isLeaf()) {
+			System.arraycopy(right.values, 0, values, count, right.count);
+			next = right.next;
+		} else {
+			values[count - 1] = separator;
+			System.arraycopy(right.values, 0, values, count, right.count - 1);
+			System.arraycopy(right.children, 0, children, count, right.count);
+		}
+		count += right.count;
+	}
+	
+	/**
+	 * Moves the last value or child of the previous sibling to the front of this node.
+	 *
+	 * @param separator The separator between the two in the parent.
+	 * @return The separator to put between them now.
+	 */
+	/* package-private */ Object takeLast(WideTrinaryTreeNode<T> left, Object separator) {
+		if(isLeaf()) {
+			insertValue(0, left.getValue(left.count - 1));
+			left.removeValue(left.count - 1);
+			return values[0];
+		}
+		System.arraycopy(children, 0, children, 1, count);
+		System.arraycopy(values, 0, values, 1, count - 1);
+		children[0] = left.children[left.count - 1];
+		values[0] = separator;
+		count++;
+		Object moved = left.values[left.count - 2];
+		left.clear(left.count - 1);
+		return moved;
+	}
+	
+	/**
+	 * Moves the first value or child of the next sibling to the end of this node.
+	 *
+	 * @param separator The separator between the two in the parent.
+	 * @return The separator to put between them now.
+	 */
+	/* package-private */ Object takeFirst(WideTrinaryTreeNode<T> right, Object separator) {
+		if(isLeaf()) {
+			values[count++] = right.values[0];
+			right.removeValue(0);
+			return right.values[0];
+		}
+		children[count] = right.children[0];
+		values[count - 1] = separator;
+		count++;
+		Object moved = right.values[0];
+		right.count--;
+		System.arraycopy(right.children, 1, right.children, 0, right.count);
+		System.arraycopy(right.values, 1, right.values, 0, right.count - 1);
+		right.children[right.count] = null;
+		right.values[right.count - 1] = null;
+		return moved;
+	}
+	
+	/**
+	 * Cuts the node down to its first few values or children, clearing the rest so they can be collected.
+	 */
+	private void clear(int keep) {
+		for(int i = isLeaf() ? keep : keep - 1; i < values.length; i++) {
+			values[i] = null;
+		}
+		if(children != null) {
+			for(int i = keep; i < children.length; i++) {
+				children[i] = null;
+			}
+		}
+		count = keep;
+	}
+}
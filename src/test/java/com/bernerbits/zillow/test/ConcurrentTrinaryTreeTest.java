@@ -0,0 +1,244 @@
+package com.bernerbits.zillow.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConcurrentTrinaryTreeTest {
+	
+	/**
+	 * Random inserts and deletes on one thread, checked against a TrinaryTree that collapses duplicates.
+	 */
+	@Test public void matchesTrinaryTree() {
+		ConcurrentTrinaryTree<Integer> tree = ConcurrentTrinaryTree.create();
+		TrinaryTree<Integer> expected = TrinaryTree.create(true);
+		
+		Random random = new Random(11);
+		for(int i = 0; i < 20000; i++) {
+			int value = random.nextInt(400);
+			if(random.nextInt(3) == 0) {
+				Assert.assertEquals(expected.delete(value), tree.delete(value));
+			} else {
+				expected.insert(value);
+				tree.insert(value);
+			}
+		}
+		Assert.assertEquals(toList(expected.iterator()), toList(tree.iterator()));
+		Assert.assertEquals(expected.size(), tree.size());
+		Assert.assertEquals(expected.count(17), tree.count(17));
+		Assert.assertEquals(expected.contains(399), tree.contains(399));
+		assertBalanced(tree.getRoot());
+	}
+	
+	/**
+	 * Equal values keep insertion order, and iterators remove the exact value they handed out.
+	 */
+	@Test public void duplicatesAndIteratorRemove() {
+		ConcurrentTrinaryTree<String> tree = new ConcurrentTrinaryTree<String>(String.CASE_INSENSITIVE_ORDER);
+		for(String value : new String[]{"b", "a", "B", "c", "b", "A"}) {
+			tree.insert(value);
+		}
+		Assert.assertEquals(Arrays.asList("a", "A", "b", "B", "b", "c"), toList(tree.iterator()));
+		Assert.assertEquals(3, tree.count("b"));
+		
+		for(Iterator<String> iter = tree.iterator(); iter.hasNext();) {
+			if(iter.next().equals("B")) {
+				iter.remove();
+			}
+		}
+		Assert.assertEquals(Arrays.asList("a", "A", "b", "b", "c"), toList(tree.iterator()));
+		
+		Assert.assertTrue(tree.delete("A"));
+		Assert.assertEquals(Arrays.asList("A", "b", "b", "c"), toList(tree.iterator()));
+		Assert.assertFalse(tree.delete("d"));
+	}
+	
+	/**
+	 * Iterators see the tree as it was when they were created, whatever happens to it afterwards.
+	 */
+	@Test public void iteratorsSeeOneVersion() {
+		ConcurrentTrinaryTree<Integer> tree = ConcurrentTrinaryTree.create();
+		for(int value = 0; value < 100; value++) {
+			tree.insert(value);
+		}
+		Iterator<Integer> iter = tree.iterator();
+		for(int value = 0; value < 100; value += 2) {
+			tree.delete(value);
+			tree.insert(value + 1000);
+		}
+		List<Integer> seen = toList(iter);
+		Assert.assertEquals(100, seen.size());
+		for(int value = 0; value < 100; value++) {
+			Assert.assertEquals(value, (int)seen.get(value));
+		}
+		Assert.assertEquals(100, tree.size());
+	}
+	
+	/**
+	 * Several writers at once lose nothing, while readers always see a complete, ordered tree.
+	 */
+	@Test public void concurrentWritersAndReaders() throws Exception {
+		final ConcurrentTrinaryTree<Integer> tree = ConcurrentTrinaryTree.create();
+		final int writers = 4;
+		final int perWriter = 5000;
+		final AtomicBoolean done = new AtomicBoolean();
+		ExecutorService executor = Executors.newFixedThreadPool(writers + 2);
+		try {
+			List<Future<?>> writes = new ArrayList<Future<?>>();
+			for(int w = 0; w < writers; w++) {
+				final int writer = w;
+				writes.add(executor.submit(new Callable<Void>() {
+					public Void call() {
+						// Each writer inserts its own values, and a shared one, then deletes half of its own.
+						for(int i = 0; i < perWriter; i++) {
+							tree.insert(i * writers + writer);
+							tree.insert(-1);
+						}
+						for(int i = 0; i < perWriter; i += 2) {
+							Assert.assertTrue(tree.delete(i * writers + writer));
+						}
+						return null;
+					}
+				}));
+			}
+			List<Future<?>> reads = new ArrayList<Future<?>>();
+			for(int r = 0; r < 2; r++) {
+				reads.add(executor.submit(new Callable<Void>() {
+					public Void call() {
+						while(!done.get()) {
+							List<Integer> values = toList(tree.iterator());
+							for(int i = 1; i < values.size(); i++) {
+								Assert.assertTrue(values.get(i - 1) <= values.get(i));
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			for(Future<?> write : writes) {
+				write.get();
+			}
+			done.set(true);
+			for(Future<?> read : reads) {
+				read.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		
+		Assert.assertEquals(writers * perWriter + writers * perWriter / 2, tree.size());
+		Assert.assertEquals(writers * perWriter, tree.count(-1));
+		for(int i = 0; i < perWriter * writers; i++) {
+			Assert.assertEquals(i / writers % 2 == 1, tree.contains(i));
+		}
+		assertBalanced(tree.getRoot());
+	}
+	
+	/**
+	 * A snapshot taken while a writer inserts values all over the tree, one at a time, holds exactly the values
+	 * inserted before some instant, however many stripes they're spread over.
+	 */
+	@Test public void snapshotsAreAtomic() throws Exception {
+		final ConcurrentTrinaryTree<Integer> tree = ConcurrentTrinaryTree.create();
+		final List<Integer> order = new ArrayList<Integer>();
+		for(int value = 0; value < 50000; value++) {
+			order.add(value);
+		}
+		Collections.shuffle(order, new Random(13));
+		int[] position = new int[order.size()];
+		for(int i = 0; i < order.size(); i++) {
+			position[order.get(i)] = i;
+		}
+		
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<?> write = executor.submit(new Callable<Void>() {
+				public Void call() {
+					for(Integer value : order) {
+						tree.insert(value);
+					}
+					return null;
+				}
+			});
+			int snapshots = 0;
+			while(!write.isDone() || snapshots == 0) {
+				PersistentTrinaryTree<Integer> snapshot = tree.snapshot();
+				int size = snapshot.size();
+				int last = -1;
+				for(Iterator<Integer> iter = snapshot.iterator(); iter.hasNext();) {
+					last = Math.max(last, position[iter.next()]);
+				}
+				Assert.assertEquals(size - 1, last);
+				assertBalanced(snapshot.getRoot());
+				snapshots++;
+			}
+			write.get();
+		} finally {
+			executor.shutdownNow();
+		}
+		Assert.assertEquals(order.size(), tree.size());
+	}
+	
+	/**
+	 * A run of equal values too big for any one stripe stays whole, and in order, however the tree is split.
+	 */
+	@Test public void runBiggerThanAStripe() {
+		ConcurrentTrinaryTree<String> tree = new ConcurrentTrinaryTree<String>(String.CASE_INSENSITIVE_ORDER);
+		TrinaryTree<String> expected = new TrinaryTree<String>(String.CASE_INSENSITIVE_ORDER, true);
+		Random random = new Random(17);
+		for(int i = 0; i < 20000; i++) {
+			String value = random.nextInt(4) == 0 ? Integer.toString(random.nextInt(1000)) : (random.nextBoolean() ? "run" : "RUN");
+			tree.insert(value);
+			expected.insert(value);
+		}
+		Assert.assertEquals(expected.count("run"), tree.count("Run"));
+		Assert.assertEquals(toList(expected.iterator()), toList(tree.iterator()));
+		for(int i = 0; i < 1000; i++) {
+			Assert.assertEquals(expected.delete("run"), tree.delete("run"));
+		}
+		Assert.assertEquals(toList(expected.iterator()), toList(tree.iterator()));
+		Assert.assertEquals(expected.size(), tree.size());
+		assertBalanced(tree.getRoot());
+	}
+	
+	@Test(expected=IllegalArgumentException.class) public void insertNullException() {
+		ConcurrentTrinaryTree<Integer> tree = ConcurrentTrinaryTree.create();
+		tree.insert(null);
+	}
+	
+	private static <T> List<T> toList(Iterator<T> iter) {
+		List<T> result = new ArrayList<T>();
+		while(iter.hasNext()) {
+			result.add(iter.next());
+		}
+		return result;
+	}
+	
+	/**
+	 * Checks the AVL invariant, and the cached heights and sizes, throughout a subtree.
+	 *
+	 * @return The height of the subtree.
+	 */
+	private static <T> int assertBalanced(PersistentTrinaryTreeNode<T> node) {
+		if(node == null) {
+			return 0;
+		}
+		int leftHeight = assertBalanced(node.getLeft());
+		int rightHeight = assertBalanced(node.getRight());
+		Assert.assertTrue(Math.abs(leftHeight - rightHeight) <= 1);
+		Assert.assertEquals(1 + Math.max(leftHeight, rightHeight), node.getHeight());
+		Assert.assertEquals(node.getCount() + PersistentTrinaryTreeNode.size(node.getLeft()) + PersistentTrinaryTreeNode.size(node.getRight()), PersistentTrinaryTreeNode.size(node));
+		return node.getHeight();
+	}
+}
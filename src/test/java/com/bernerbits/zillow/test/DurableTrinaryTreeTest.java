@@ -0,0 +1,321 @@
+package com.bernerbits.zillow.test;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DurableTrinaryTreeTest {
+	
+	private Path directory;
+	
+	@Before public void createDirectory() throws IOException {
+		directory = Files.createTempDirectory("trinary");
+	}
+	
+	@After public void deleteDirectory() throws IOException {
+		try(DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			for(Path file : files) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(directory);
+	}
+	
+	/**
+	 * Changes survive closing and reopening, and also the tree being abandoned without a close, as in a crash.
+	 */
+	@Test public void recovers() throws IOException {
+		TrinaryTree<Integer> expected = TrinaryTree.create();
+		Random random = new Random(29);
+		
+		DurableTrinaryTree<Integer> tree = open(DurableTrinaryTree.FsyncPolicy.NEVER, 0);
+		apply(tree, expected, random, 2000);
+		tree.close();
+		
+		tree = open(DurableTrinaryTree.FsyncPolicy.ALWAYS, 0);
+		assertSame(expected, tree);
+		apply(tree, expected, random, 2000);
+		// No close.
+		
+		tree = open(DurableTrinaryTree.FsyncPolicy.ALWAYS, 0);
+		assertSame(expected, tree);
+		tree.close();
+	}
+	
+	/**
+	 * Checkpoints keep the log short, and recovery starts from the latest one.
+	 */
+	@Test public void checkpoints() throws IOException {
+		TrinaryTree<Integer> expected = TrinaryTree.create();
+		Random random = new Random(31);
+		
+		DurableTrinaryTree<Integer> tree = open(DurableTrinaryTree.FsyncPolicy.NEVER, 500);
+		apply(tree, expected, random, 5000);
+		Assert.assertEquals(1, logs().size());
+		Assert.assertTrue(Files.size(logs().get(0)) < 500 * 16);
+		
+		tree = open(DurableTrinaryTree.FsyncPolicy.NEVER, 500);
+		assertSame(expected, tree);
+		tree.checkpoint();
+		Assert.assertEquals(0, Files.size(logs().get(0)));
+		tree.insert(-1);
+		expected.insert(-1);
+		tree.close();
+		
+		tree = open(DurableTrinaryTree.FsyncPolicy.NEVER, 500);
+		assertSame(expected, tree);
+		tree.close();
+		Assert.assertEquals(1, logs().size());
+	}
+	
+	/**
+	 * A crash while a checkpoint is being written, before it's renamed into place, loses nothing: recovery
+	 * replays both the log the old checkpoint is missing and the one started for the changes since.
+	 */
+	@Test public void interruptedCheckpoint() throws IOException {
+		TrinaryTree<Integer> expected = TrinaryTree.create();
+		Random random = new Random(37);
+		
+		DurableTrinaryTree<Integer> tree = open(DurableTrinaryTree.FsyncPolicy.NEVER, 0);
+		apply(tree, expected, random, 1000);
+		tree.checkpoint();
+		apply(tree, expected, random, 1000);
+		tree.close();
+		Path checkpoint = directory.resolve("checkpoint");
+		byte[] checkpointBytes = Files.readAllBytes(checkpoint);
+		Path log = logs().get(0);
+		byte[] logBytes = Files.readAllBytes(log);
+		
+		tree = open(DurableTrinaryTree.FsyncPolicy.NEVER, 0);
+		tree.checkpoint();
+		apply(tree, expected, random, 1000);
+		tree.close();
+		
+		// Put the old checkpoint and its log back, as if the crash came before the rename.
+		Files.write(checkpoint, checkpointBytes);
+		Files.write(log, logBytes);
+		Assert.assertEquals(2, logs().size());
+		tree = open(DurableTrinaryTree.FsyncPolicy.NEVER, 0);
+		assertSame(expected, tree);
+		tree.checkpoint();
+		tree.close();
+		Assert.assertEquals(1, logs().size());
+	}
+	
+	/**
+	 * Changes and reads carry on while a checkpoint is being written, and survive it.
+	 */
+	@Test(timeout=30000) public void checkpointDoesNotBlock() throws Exception {
+		final CountDownLatch checkpointing = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		TrinaryTreeCodec<Integer> codec = new TrinaryTreeCodec<Integer>() {
+			public void write(DataOutput out, Integer previous, Integer value) throws IOException {
+				// Log records are written on their own, checkpoints with the value before.
+				if(previous != null && checkpointing.getCount() > 0) {
+					checkpointing.countDown();
+					try {
+						release.await();
+					} catch(InterruptedException e) {
+						throw new InterruptedIOException();
+					}
+				}
+				TrinaryTreeCodecs.INTEGER.write(out, previous, value);
+			}
+			public Integer read(DataInput in, Integer previous) throws IOException {
+				return TrinaryTreeCodecs.INTEGER.read(in, previous);
+			}
+		};
+		final DurableTrinaryTree<Integer> tree = DurableTrinaryTree.open(directory, Comparator.<Integer>naturalOrder(), false, codec, DurableTrinaryTree.FsyncPolicy.ALWAYS, 0);
+		for(int value = 0; value < 100; value++) {
+			tree.insert(value);
+		}
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<?> checkpoint = executor.submit(new Callable<Void>() {
+				public Void call() throws IOException {
+					tree.checkpoint();
+					return null;
+				}
+			});
+			checkpointing.await();
+			tree.insert(100);
+			Assert.assertTrue(tree.delete(0));
+			Assert.assertEquals(100, tree.size());
+			Assert.assertTrue(tree.contains(100));
+			release.countDown();
+			checkpoint.get();
+		} finally {
+			executor.shutdownNow();
+		}
+		// No close.
+		
+		DurableTrinaryTree<Integer> reopened = open(DurableTrinaryTree.FsyncPolicy.ALWAYS, 0);
+		Assert.assertEquals(100, reopened.size());
+		Assert.assertTrue(reopened.contains(100));
+		Assert.assertFalse(reopened.contains(0));
+		reopened.close();
+	}
+	
+	/**
+	 * Equal values that aren't equals() to each other keep their order through checkpoints and recovery, and
+	 * iterators see the tree as it was when they were created.
+	 */
+	@Test public void distinctDuplicates() throws IOException {
+		Comparator<String> comparator = String.CASE_INSENSITIVE_ORDER;
+		DurableTrinaryTree<String> tree = DurableTrinaryTree.open(directory, comparator, true, TrinaryTreeCodecs.STRING, DurableTrinaryTree.FsyncPolicy.NEVER, 0);
+		for(String value : new String[]{"abc", "ZYX", "ABC", "abcd", "Abc", "zyx", "zyx"}) {
+			tree.insert(value);
+		}
+		Iterator<String> before = tree.iterator();
+		tree.checkpoint();
+		Assert.assertTrue(tree.delete("abc"));
+		tree.insert("aBc");
+		
+		List<String> values = new ArrayList<String>();
+		while(before.hasNext()) {
+			values.add(before.next());
+		}
+		Assert.assertEquals(Arrays.asList("abc", "ABC", "Abc", "abcd", "ZYX", "zyx", "zyx"), values);
+		// No close.
+		
+		tree = DurableTrinaryTree.open(directory, comparator, true, TrinaryTreeCodecs.STRING, DurableTrinaryTree.FsyncPolicy.NEVER, 0);
+		values.clear();
+		for(Iterator<String> iter = tree.iterator(); iter.hasNext();) {
+			values.add(iter.next());
+		}
+		Assert.assertEquals(Arrays.asList("ABC", "Abc", "aBc", "abcd", "ZYX", "zyx", "zyx"), values);
+		Assert.assertEquals(3, tree.count("ABC"));
+		tree.close();
+	}
+	
+	/**
+	 * A record torn by a crash part way through writing it is dropped, along with anything after it.
+	 */
+	@Test public void tornTail() throws IOException {
+		DurableTrinaryTree<Integer> tree = open(DurableTrinaryTree.FsyncPolicy.ALWAYS, 0);
+		for(int value = 0; value < 100; value++) {
+			tree.insert(value);
+		}
+		tree.close();
+		
+		Path log = logs().get(0);
+		long length = Files.size(log);
+		try(FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+			channel.truncate(length - 3);
+		}
+		
+		tree = open(DurableTrinaryTree.FsyncPolicy.ALWAYS, 0);
+		Assert.assertEquals(99, tree.size());
+		Assert.assertFalse(tree.contains(99));
+		tree.insert(1000);
+		tree.close();
+		
+		tree = open(DurableTrinaryTree.FsyncPolicy.ALWAYS, 0);
+		Assert.assertEquals(100, tree.size());
+		Assert.assertTrue(tree.contains(1000));
+		tree.close();
+	}
+	
+	/**
+	 * Concurrent writers lose nothing.
+	 */
+	@Test public void concurrentWriters() throws Exception {
+		final DurableTrinaryTree<Integer> tree = open(DurableTrinaryTree.FsyncPolicy.ALWAYS, 0);
+		final int writers = 4;
+		final int perWriter = 300;
+		ExecutorService executor = Executors.newFixedThreadPool(writers);
+		try {
+			List<Future<?>> writes = new ArrayList<Future<?>>();
+			for(int w = 0; w < writers; w++) {
+				final int writer = w;
+				writes.add(executor.submit(new Callable<Void>() {
+					public Void call() throws IOException {
+						for(int i = 0; i < perWriter; i++) {
+							tree.insert(i * writers + writer);
+						}
+						return null;
+					}
+				}));
+			}
+			for(Future<?> write : writes) {
+				write.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		// No close.
+		
+		DurableTrinaryTree<Integer> reopened = open(DurableTrinaryTree.FsyncPolicy.ALWAYS, 0);
+		Assert.assertEquals(writers * perWriter, reopened.size());
+		for(int value = 0; value < writers * perWriter; value++) {
+			Assert.assertTrue(reopened.contains(value));
+		}
+		reopened.close();
+	}
+	
+	@Test(expected=IllegalStateException.class) public void closedTree() throws IOException {
+		DurableTrinaryTree<Integer> tree = open(DurableTrinaryTree.FsyncPolicy.ALWAYS, 0);
+		tree.close();
+		tree.insert(1);
+	}
+	
+	private DurableTrinaryTree<Integer> open(DurableTrinaryTree.FsyncPolicy policy, long checkpointInterval) throws IOException {
+		return DurableTrinaryTree.open(directory, Comparator.<Integer>naturalOrder(), false, TrinaryTreeCodecs.INTEGER, policy, checkpointInterval);
+	}
+	
+	private List<Path> logs() throws IOException {
+		List<Path> logs = new ArrayList<Path>();
+		try(DirectoryStream<Path> files = Files.newDirectoryStream(directory, "log-*")) {
+			for(Path file : files) {
+				logs.add(file);
+			}
+		}
+		return logs;
+	}
+	
+	private static void apply(DurableTrinaryTree<Integer> tree, TrinaryTree<Integer> expected, Random random, int operations) throws IOException {
+		for(int i = 0; i < operations; i++) {
+			int value = random.nextInt(500);
+			if(random.nextInt(3) == 0) {
+				Assert.assertEquals(expected.delete(value), tree.delete(value));
+			} else {
+				expected.insert(value);
+				tree.insert(value);
+			}
+		}
+	}
+	
+	private static void assertSame(TrinaryTree<Integer> expected, DurableTrinaryTree<Integer> tree) {
+		List<Integer> values = new ArrayList<Integer>();
+		for(Iterator<Integer> iter = tree.iterator(); iter.hasNext();) {
+			values.add(iter.next());
+		}
+		List<Integer> expectedValues = new ArrayList<Integer>();
+		for(Iterator<Integer> iter = expected.iterator(); iter.hasNext();) {
+			expectedValues.add(iter.next());
+		}
+		Assert.assertEquals(expectedValues, values);
+	}
+}
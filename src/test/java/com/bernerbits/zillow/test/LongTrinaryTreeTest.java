@@ -0,0 +1,208 @@
+package com.bernerbits.zillow.test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LongTrinaryTreeTest {
+	
+	/**
+	 * Test that insertion and iteration work, with the same values as the TrinaryTree insert test.
+	 */
+	@Test public void insert() {
+		LongTrinaryTree tree = new LongTrinaryTree();
+		for(long value : new long[]{9, 1, 9, 2, 5, 6, 9, 8, 2, 7, 0, 4, 7, 0, 7, 6, 4, 8, 0, 9, 8}) {
+			tree.insert(value);
+		}
+		
+		Assert.assertArrayEquals(new long[]{0, 0, 0, 1, 2, 2, 4, 4, 5, 6, 6, 7, 7, 7, 8, 8, 8, 9, 9, 9, 9}, toArray(tree));
+		Assert.assertEquals(21, tree.size());
+		Assert.assertEquals(4, tree.count(9));
+		Assert.assertTrue(tree.contains(5));
+		Assert.assertFalse(tree.contains(3));
+	}
+	
+	/**
+	 * Negative values, the extremes of the long range, and sorted input, which should stay balanced.
+	 */
+	@Test public void extremesAndSortedInput() {
+		LongTrinaryTree tree = new LongTrinaryTree(1);
+		tree.insert(Long.MAX_VALUE);
+		tree.insert(Long.MIN_VALUE);
+		for(long value = -2000; value < 2000; value++) {
+			tree.insert(value);
+		}
+		Assert.assertTrue(assertBalanced(tree, tree.getRoot()) <= 18);
+		
+		long[] values = toArray(tree);
+		Assert.assertEquals(4002, values.length);
+		Assert.assertEquals(Long.MIN_VALUE, values[0]);
+		Assert.assertEquals(-2000, values[1]);
+		Assert.assertEquals(1999, values[4000]);
+		Assert.assertEquals(Long.MAX_VALUE, values[4001]);
+	}
+	
+	/**
+	 * Random inserts, deletes and iterator removals, checked against a TrinaryTree of Longs.
+	 */
+	@Test public void matchesTrinaryTree() {
+		LongTrinaryTree tree = new LongTrinaryTree(4);
+		TrinaryTree<Long> expected = TrinaryTree.create();
+		
+		Random random = new Random(7);
+		for(int i = 0; i < 20000; i++) {
+			long value = random.nextInt(500) - 250;
+			if(random.nextInt(3) == 0) {
+				Assert.assertEquals(expected.delete(value), tree.delete(value));
+			} else {
+				expected.insert(value);
+				tree.insert(value);
+			}
+		}
+		assertSame(expected, tree);
+		
+		// Iterator removal, sometimes of the last copy of a value, sometimes of one of several.
+		Iterator<Long> expectedIter = expected.iterator();
+		for(LongTrinaryTreeIterator iter = tree.iterator(); iter.hasNext();) {
+			long value = iter.nextLong();
+			Assert.assertEquals(expectedIter.next().longValue(), value);
+			if(random.nextBoolean()) {
+				iter.remove();
+				expectedIter.remove();
+			}
+		}
+		Assert.assertFalse(expectedIter.hasNext());
+		assertSame(expected, tree);
+		
+		// Slots freed above are reused.
+		for(int i = 0; i < 1000; i++) {
+			expected.insert((long)i);
+			tree.insert(i);
+		}
+		assertSame(expected, tree);
+	}
+	
+	/**
+	 * Deleting everything through the iterator leaves an empty tree.
+	 */
+	@Test public void iteratorRemoveEverything() {
+		LongTrinaryTree tree = new LongTrinaryTree();
+		for(long value = 0; value < 1000; value++) {
+			tree.insert(value);
+			tree.insert(value % 7);
+		}
+		int visited = 0;
+		for(LongTrinaryTreeIterator iter = tree.iterator(); iter.hasNext();) {
+			iter.nextLong();
+			iter.remove();
+			visited++;
+		}
+		Assert.assertEquals(2000, visited);
+		Assert.assertEquals(0, tree.size());
+		Assert.assertEquals(LongTrinaryTree.NIL, tree.getRoot());
+	}
+	
+	/**
+	 * An insert that can't make room for a new slot, like an off-heap tree failing to map a segment, has to
+	 * leave the tree as it was.
+	 */
+	@Test public void failedInsert() {
+		final int[] limit = {0};
+		LongTrinaryTree tree = new LongTrinaryTree(1) {
+			@Override
+			/* package-private */ void ensureCapacity(int slots) {
+				if(slots > limit[0]) {
+					throw new UncheckedIOException(new IOException("No space left on device"));
+				}
+				super.ensureCapacity(slots);
+			}
+		};
+		
+		try {
+			tree.insert(5);
+			Assert.fail();
+		} catch(UncheckedIOException e) {
+		}
+		Assert.assertEquals(0, tree.size());
+		Assert.assertFalse(tree.contains(5));
+		Assert.assertFalse(tree.iterator().hasNext());
+		
+		limit[0] = 3;
+		for(long value : new long[]{5, 1, 9, 5}) {
+			tree.insert(value);
+		}
+		try {
+			tree.insert(7);
+			Assert.fail();
+		} catch(UncheckedIOException e) {
+		}
+		Assert.assertEquals(4, tree.size());
+		Assert.assertFalse(tree.contains(7));
+		Assert.assertArrayEquals(new long[]{1, 5, 5, 9}, toArray(tree));
+		
+		// Duplicates don't need a slot, and deletes free them up for reuse.
+		tree.insert(9);
+		Assert.assertTrue(tree.delete(1));
+		tree.insert(7);
+		Assert.assertEquals(5, tree.size());
+		Assert.assertArrayEquals(new long[]{5, 5, 7, 9, 9}, toArray(tree));
+	}
+	
+	/**
+	 * Test iteration and deletion on an empty tree.
+	 */
+	@Test(expected=NoSuchElementException.class) public void emptyTree() {
+		LongTrinaryTree tree = new LongTrinaryTree();
+		Assert.assertFalse(tree.delete(1));
+		LongTrinaryTreeIterator iter = tree.iterator();
+		Assert.assertFalse(iter.hasNext());
+		iter.nextLong();
+	}
+	
+	private static void assertSame(TrinaryTree<Long> expected, LongTrinaryTree tree) {
+		List<Long> values = new ArrayList<Long>();
+		for(LongTrinaryTreeIterator iter = tree.iterator(); iter.hasNext();) {
+			values.add(iter.next());
+		}
+		List<Long> expectedValues = new ArrayList<Long>();
+		for(Iterator<Long> iter = expected.iterator(); iter.hasNext();) {
+			expectedValues.add(iter.next());
+		}
+		Assert.assertEquals(expectedValues, values);
+		Assert.assertEquals(expected.size(), tree.size());
+		assertBalanced(tree, tree.getRoot());
+	}
+	
+	private static long[] toArray(LongTrinaryTree tree) {
+		long[] values = new long[tree.size()];
+		int index = 0;
+		for(LongTrinaryTreeIterator iter = tree.iterator(); iter.hasNext();) {
+			values[index++] = iter.nextLong();
+		}
+		return values;
+	}
+	
+	/**
+	 * Checks the AVL invariant and the cached heights throughout a subtree.
+	 *
+	 * @return The height of the subtree.
+	 */
+	private static int assertBalanced(LongTrinaryTree tree, int node) {
+		if(node == LongTrinaryTree.NIL) {
+			return 0;
+		}
+		int leftHeight = assertBalanced(tree, tree.getLeft(node));
+		int rightHeight = assertBalanced(tree, tree.getRight(node));
+		Assert.assertTrue(Math.abs(leftHeight - rightHeight) <= 1);
+		Assert.assertEquals(1 + Math.max(leftHeight, rightHeight), tree.getHeight(node));
+		Assert.assertTrue(tree.getCount(node) > 0);
+		return tree.getHeight(node);
+	}
+}
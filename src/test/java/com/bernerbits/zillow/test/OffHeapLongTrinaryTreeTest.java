@@ -0,0 +1,111 @@
+package com.bernerbits.zillow.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OffHeapLongTrinaryTreeTest {
+	
+	/**
+	 * Random inserts and deletes over more than one segment, checked against a LongTrinaryTree.
+	 */
+	@Test public void matchesLongTrinaryTree() {
+		OffHeapLongTrinaryTree tree = new OffHeapLongTrinaryTree();
+		LongTrinaryTree expected = new LongTrinaryTree();
+		fill(tree, expected, new Random(3), 200000);
+		Assert.assertTrue(tree.used > OffHeapLongTrinaryTree.SEGMENT_SLOTS);
+		assertSame(expected, tree);
+	}
+	
+	/**
+	 * A tree in a file can be closed, reopened as it was, changed, and reopened again.
+	 */
+	@Test public void reopen() throws IOException {
+		Path file = tempFile();
+		LongTrinaryTree expected = new LongTrinaryTree();
+		Random random = new Random(9);
+		
+		OffHeapLongTrinaryTree tree = OffHeapLongTrinaryTree.open(file);
+		try {
+			Assert.assertEquals(0, tree.size());
+			fill(tree, expected, random, 100000);
+		} finally {
+			tree.close();
+		}
+		
+		tree = OffHeapLongTrinaryTree.open(file);
+		try {
+			assertSame(expected, tree);
+			fill(tree, expected, random, 50000);
+			tree.flush();
+		} finally {
+			tree.close();
+		}
+		
+		tree = OffHeapLongTrinaryTree.open(file);
+		try {
+			assertSame(expected, tree);
+		} finally {
+			tree.close();
+		}
+		Assert.assertEquals(0, Files.size(file) % (OffHeapLongTrinaryTree.SEGMENT_SLOTS * OffHeapLongTrinaryTree.RECORD_BYTES));
+	}
+	
+	@Test(expected=IOException.class) public void notATreeFile() throws IOException {
+		Path file = tempFile();
+		Files.write(file, new byte[OffHeapLongTrinaryTree.SEGMENT_SLOTS * OffHeapLongTrinaryTree.RECORD_BYTES]);
+		OffHeapLongTrinaryTree.open(file);
+	}
+	
+	@Test(expected=IllegalStateException.class) public void closedTree() throws IOException {
+		OffHeapLongTrinaryTree tree = new OffHeapLongTrinaryTree();
+		tree.insert(1);
+		tree.close();
+		tree.close();
+		tree.flush();
+	}
+	
+	private static Path tempFile() throws IOException {
+		File file = File.createTempFile("trinary", ".tree");
+		file.deleteOnExit();
+		return file.toPath();
+	}
+	
+	private static void fill(AbstractLongTrinaryTree tree, LongTrinaryTree expected, Random random, int operations) {
+		for(int i = 0; i < operations; i++) {
+			long value = random.nextInt(150000) * 31L - 1000000;
+			if(random.nextInt(4) == 0) {
+				Assert.assertEquals(expected.delete(value), tree.delete(value));
+			} else {
+				expected.insert(value);
+				tree.insert(value);
+			}
+		}
+	}
+	
+	private static void assertSame(LongTrinaryTree expected, OffHeapLongTrinaryTree tree) {
+		Assert.assertEquals(expected.size(), tree.size());
+		LongTrinaryTreeIterator expectedIter = expected.iterator();
+		for(LongTrinaryTreeIterator iter = tree.iterator(); iter.hasNext();) {
+			Assert.assertEquals(expectedIter.nextLong(), iter.nextLong());
+		}
+		Assert.assertFalse(expectedIter.hasNext());
+		assertBalanced(tree, tree.getRoot());
+	}
+	
+	private static int assertBalanced(OffHeapLongTrinaryTree tree, int node) {
+		if(node == AbstractLongTrinaryTree.NIL) {
+			return 0;
+		}
+		int leftHeight = assertBalanced(tree, tree.getLeft(node));
+		int rightHeight = assertBalanced(tree, tree.getRight(node));
+		Assert.assertTrue(Math.abs(leftHeight - rightHeight) <= 1);
+		Assert.assertEquals(1 + Math.max(leftHeight, rightHeight), tree.getHeight(node));
+		return tree.getHeight(node);
+	}
+}
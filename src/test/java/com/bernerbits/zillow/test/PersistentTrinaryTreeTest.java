@@ -0,0 +1,157 @@
+package com.bernerbits.zillow.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PersistentTrinaryTreeTest {
+	
+	/**
+	 * Every version keeps its own values, however many versions come after it.
+	 */
+	@Test public void versionsAreIndependent() {
+		PersistentTrinaryTree<Integer> empty = PersistentTrinaryTree.create();
+		List<PersistentTrinaryTree<Integer>> versions = new ArrayList<PersistentTrinaryTree<Integer>>();
+		List<List<Integer>> expected = new ArrayList<List<Integer>>();
+		TrinaryTree<Integer> model = TrinaryTree.create(true);
+		
+		PersistentTrinaryTree<Integer> tree = empty;
+		Random random = new Random(5);
+		for(int i = 0; i < 2000; i++) {
+			int value = random.nextInt(100);
+			if(random.nextInt(3) == 0) {
+				PersistentTrinaryTree<Integer> deleted = tree.delete(value);
+				Assert.assertEquals(model.delete(value), deleted != tree);
+				tree = deleted;
+			} else {
+				model.insert(value);
+				tree = tree.insert(value);
+			}
+			if(i % 100 == 0) {
+				versions.add(tree);
+				expected.add(toList(model.iterator()));
+			}
+		}
+		for(int i = 0; i < versions.size(); i++) {
+			Assert.assertEquals(expected.get(i), toList(versions.get(i).iterator()));
+			Assert.assertEquals(expected.get(i).size(), versions.get(i).size());
+		}
+		Assert.assertEquals(0, empty.size());
+		Assert.assertFalse(empty.iterator().hasNext());
+	}
+	
+	/**
+	 * A new version copies only the path to the change, and shares everything else.
+	 */
+	@Test public void unchangedNodesAreShared() {
+		PersistentTrinaryTree<Integer> tree = PersistentTrinaryTree.create();
+		for(int value = 0; value < 1023; value++) {
+			tree = tree.insert(value);
+		}
+		PersistentTrinaryTree<Integer> inserted = tree.insert(2000);
+		Assert.assertNotSame(tree.getRoot(), inserted.getRoot());
+		Assert.assertSame(tree.getRoot().getLeft(), inserted.getRoot().getLeft());
+		Assert.assertEquals(1023, tree.size());
+		Assert.assertEquals(1024, inserted.size());
+		
+		Assert.assertSame(tree, tree.delete(5000));
+		PersistentTrinaryTree<Integer> deleted = tree.delete(0);
+		Assert.assertSame(tree.getRoot().getRight(), deleted.getRoot().getRight());
+		Assert.assertTrue(tree.contains(0));
+		Assert.assertFalse(deleted.contains(0));
+	}
+	
+	/**
+	 * Snapshots of a concurrent tree stay put while the tree changes, and equal values keep insertion order.
+	 */
+	@Test public void snapshots() {
+		ConcurrentTrinaryTree<String> tree = new ConcurrentTrinaryTree<String>(String.CASE_INSENSITIVE_ORDER);
+		for(String value : new String[]{"b", "a", "B", "c"}) {
+			tree.insert(value);
+		}
+		PersistentTrinaryTree<String> snapshot = tree.snapshot();
+		tree.delete("b");
+		tree.insert("A");
+		tree.insert("d");
+		
+		Assert.assertEquals(Arrays.asList("a", "b", "B", "c"), toList(snapshot.iterator()));
+		Assert.assertEquals(2, snapshot.count("b"));
+		Assert.assertFalse(snapshot.contains("d"));
+		Assert.assertEquals(Arrays.asList("a", "A", "B", "c", "d"), toList(tree.iterator()));
+		Assert.assertEquals(Arrays.asList("a", "A", "B", "c", "d"), toList(tree.snapshot().iterator()));
+		
+		// Changing the snapshot doesn't change the tree either.
+		Assert.assertEquals(6, snapshot.insert("e").insert("f").size());
+		Assert.assertEquals(4, snapshot.size());
+		Assert.assertEquals(5, tree.size());
+	}
+	
+	/**
+	 * Splitting a tree at any value, and joining the pieces back together, keeps every value in order and the
+	 * trees balanced, whatever their sizes.
+	 */
+	@Test public void splitAndJoin() {
+		Random random = new Random(19);
+		for(int size : new int[]{0, 1, 2, 5, 100, 1000, 5000}) {
+			PersistentTrinaryTree<Integer> tree = PersistentTrinaryTree.create();
+			for(int i = 0; i < size; i++) {
+				tree = tree.insert(random.nextInt(size / 2 + 1));
+			}
+			List<Integer> values = toList(tree.iterator());
+			for(int bound = -1; bound <= size / 2 + 1; bound += Math.max(1, size / 20)) {
+				PersistentTrinaryTreeNode<Integer> below = PersistentTrinaryTreeNode.lessThan(tree.getRoot(), bound, Comparator.<Integer>naturalOrder());
+				PersistentTrinaryTreeNode<Integer> above = PersistentTrinaryTreeNode.atLeast(tree.getRoot(), bound, Comparator.<Integer>naturalOrder());
+				assertBalanced(below);
+				assertBalanced(above);
+				int split = 0;
+				while(split < values.size() && values.get(split) < bound) {
+					split++;
+				}
+				Assert.assertEquals(values.subList(0, split), toList(new PersistentTrinaryTreeIterator<Integer>(null, below)));
+				Assert.assertEquals(values.subList(split, values.size()), toList(new PersistentTrinaryTreeIterator<Integer>(null, above)));
+				
+				PersistentTrinaryTreeNode<Integer> joined = PersistentTrinaryTreeNode.join(below, above);
+				assertBalanced(joined);
+				Assert.assertEquals(values, toList(new PersistentTrinaryTreeIterator<Integer>(null, joined)));
+			}
+		}
+	}
+	
+	@Test(expected=UnsupportedOperationException.class) public void iteratorRemoveUnsupported() {
+		PersistentTrinaryTree<Integer> tree = PersistentTrinaryTree.<Integer>create().insert(1);
+		Iterator<Integer> iter = tree.iterator();
+		iter.next();
+		iter.remove();
+	}
+	
+	private static <T> List<T> toList(Iterator<T> iter) {
+		List<T> result = new ArrayList<T>();
+		while(iter.hasNext()) {
+			result.add(iter.next());
+		}
+		return result;
+	}
+	
+	/**
+	 * Checks the AVL invariant, and the cached heights and sizes, throughout a subtree.
+	 *
+	 * @return The height of the subtree.
+	 */
+	private static <T> int assertBalanced(PersistentTrinaryTreeNode<T> node) {
+		if(node == null) {
+			return 0;
+		}
+		int leftHeight = assertBalanced(node.getLeft());
+		int rightHeight = assertBalanced(node.getRight());
+		Assert.assertTrue(Math.abs(leftHeight - rightHeight) <= 1);
+		Assert.assertEquals(1 + Math.max(leftHeight, rightHeight), node.getHeight());
+		Assert.assertEquals(node.getCount() + PersistentTrinaryTreeNode.size(node.getLeft()) + PersistentTrinaryTreeNode.size(node.getRight()), PersistentTrinaryTreeNode.size(node));
+		return node.getHeight();
+	}
+}
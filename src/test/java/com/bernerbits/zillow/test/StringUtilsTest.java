@@ -1,6 +1,11 @@
 package com.bernerbits.zillow.test;
 
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
+import java.util.Random;
 
 import junit.framework.Assert;
 
@@ -137,30 +142,44 @@ public class StringUtilsTest {
 	 * Positive overflow test.
 	 * 
 	 * This is an exceptional case without an intuitive mode of degradation (like the empty negative string above). 
-	 * In a real-world application, the degradation mode (e.g. allow the value to overflow, as done here, or 
-	 * check for overflow and throw an exception) should be explicitly chosen and made clear in code documentation.
-	 *
-	 * @throws ParseException never, if the test passes.
+	 * Wrapping around would quietly turn an ID too long for a long into the wrong one, so it's rejected, with
+	 * the offset of the digit that went out of range.
 	 */
-	@Test public void positiveOverflow() throws ParseException {
-		long overflowValue = StringUtils.stringToLong("9223372036854775808"); // MAX_VALUE + 1
-		Assert.assertEquals(Long.MIN_VALUE, overflowValue);
-		Assert.assertTrue(overflowValue < 0);
+	@Test public void positiveOverflow() {
+		assertErrorOffset(18, "9223372036854775808"); // MAX_VALUE + 1
 	}
 	
 	/**
 	 * Negative overflow test.
 	 * 
 	 * This is an exceptional case without an intuitive mode of degradation (like the empty negative string above). 
-	 * In a real-world application, the degradation mode (e.g. allow the value to overflow, as done here, or 
-	 * check for overflow and throw an exception) should be explicitly chosen and made clear in code documentation.
+	 * Wrapping around would quietly turn an ID too long for a long into the wrong one, so it's rejected, with
+	 * the offset of the digit that went out of range.
+	 */
+	@Test public void negativeOverflow() {
+		assertErrorOffset(19, "-9223372036854775809"); // MIN_VALUE - 1
+	}
+	
+	/**
+	 * Overflow is found as soon as the value goes out of range, whatever comes after, and leading zeroes don't
+	 * count towards it.
 	 * 
 	 * @throws ParseException never, if the test passes.
 	 */
-	@Test public void negativeOverflow() throws ParseException {
-		long overflowValue = StringUtils.stringToLong("-9223372036854775809"); // MIN_VALUE - 1
-		Assert.assertEquals(Long.MAX_VALUE, overflowValue);
-		Assert.assertTrue(overflowValue > 0);
+	@Test public void overflowBoundaries() throws ParseException {
+		assertErrorOffset(19, "12345678901234567890"); // A 20-digit ID
+		assertErrorOffset(19, "-99999999999999999999");
+		assertErrorOffset(19, "92233720368547758070000x"); // Out of range before the bad character
+		assertErrorOffset(17, "92233720368547758x0000");
+		Assert.assertEquals(Long.MAX_VALUE, StringUtils.stringToLong("0000000" + Long.MAX_VALUE));
+		Assert.assertEquals(Long.MIN_VALUE, StringUtils.stringToLong("-0000000" + Long.toString(Long.MIN_VALUE).substring(1)));
+		Assert.assertEquals(1, StringUtils.stringToLong("0000000000000000000000001"));
+		
+		LongParseResult result = new LongParseResult();
+		Assert.assertFalse(StringUtils.tryAsciiToLong(ByteBuffer.wrap(ascii("18446744073709551615")), result));
+		Assert.assertEquals(LongParseResult.ErrorKind.OVERFLOW, result.getError());
+		Assert.assertEquals(19, result.getErrorIndex());
+		Assert.assertEquals(0, result.getValue());
 	}
 	
 	/**
@@ -243,4 +262,329 @@ public class StringUtilsTest {
 	@Test(expected=ParseException.class) public void testNoDecimals() throws ParseException {
 		StringUtils.stringToLong("1000.00");
 	}
+	
+	/**
+	 * Slices of a longer CharSequence parse in place.
+	 * 
+	 * @throws ParseException never, if the test passes.
+	 */
+	@Test public void charSequenceRange() throws ParseException {
+		StringBuilder line = new StringBuilder("id=1234,delta=-56,empty=,");
+		Assert.assertEquals(1234, StringUtils.stringToLong(line, 3, 7));
+		Assert.assertEquals(-56, StringUtils.stringToLong(line, 14, 17));
+		Assert.assertEquals(0, StringUtils.stringToLong(line, 24, 24));
+		Assert.assertEquals(Long.MIN_VALUE, StringUtils.stringToLong("x" + Long.MIN_VALUE + "x", 1, 21));
+	}
+	
+	/**
+	 * Slices of a char array parse in place.
+	 * 
+	 * @throws ParseException never, if the test passes.
+	 */
+	@Test public void charArrayRange() throws ParseException {
+		char[] chars = "12|-0034|9223372036854775807".toCharArray();
+		Assert.assertEquals(12, StringUtils.stringToLong(chars, 0, 2));
+		Assert.assertEquals(-34, StringUtils.stringToLong(chars, 3, 5));
+		Assert.assertEquals(Long.MAX_VALUE, StringUtils.stringToLong(chars, 9, 19));
+		Assert.assertEquals(0, StringUtils.stringToLong(chars, 2, 0));
+	}
+	
+	/**
+	 * The error offset is the index of the bad character in whatever was passed in, including any minus sign.
+	 */
+	@Test public void errorOffset() {
+		assertErrorOffset(2, "12a4");
+		assertErrorOffset(3, "-12a4");
+		assertErrorOffset(1, "--1");
+		try {
+			StringUtils.stringToLong("id=12a4", 3, 7);
+			Assert.fail();
+		} catch(ParseException e) {
+			Assert.assertEquals(5, e.getErrorOffset());
+		}
+		try {
+			StringUtils.stringToLong("id=-12a4".toCharArray(), 3, 5);
+			Assert.fail();
+		} catch(ParseException e) {
+			Assert.assertEquals(6, e.getErrorOffset());
+		}
+	}
+	
+	/**
+	 * Invalid data test: A range outside the input.
+	 * 
+	 * @throws ParseException never, if the test passes.
+	 */
+	@Test public void rangeOutOfBounds() throws ParseException {
+		assertOutOfBounds("123", -1, 2);
+		assertOutOfBounds("123", 2, 1);
+		assertOutOfBounds("123", 0, 4);
+		try {
+			StringUtils.stringToLong("123".toCharArray(), 1, 3);
+			Assert.fail();
+		} catch(IndexOutOfBoundsException e) {
+			// Expected.
+		}
+		try {
+			StringUtils.stringToLong("123".toCharArray(), 1, Integer.MAX_VALUE);
+			Assert.fail();
+		} catch(IndexOutOfBoundsException e) {
+			// Expected.
+		}
+	}
+	
+	/**
+	 * ASCII bytes parse straight out of an array.
+	 * 
+	 * @throws ParseException never, if the test passes.
+	 */
+	@Test public void asciiByteArray() throws ParseException {
+		byte[] bytes = ascii("12|-0034|" + Long.MIN_VALUE);
+		Assert.assertEquals(12, StringUtils.asciiToLong(bytes, 0, 2));
+		Assert.assertEquals(-34, StringUtils.asciiToLong(bytes, 3, 5));
+		Assert.assertEquals(Long.MIN_VALUE, StringUtils.asciiToLong(bytes, 9, 20));
+		Assert.assertEquals(0, StringUtils.asciiToLong(bytes, 2, 0));
+		try {
+			StringUtils.asciiToLong(bytes, 0, 3);
+			Assert.fail();
+		} catch(ParseException e) {
+			Assert.assertEquals(2, e.getErrorOffset());
+		}
+		try {
+			StringUtils.asciiToLong(new byte[]{'1', (byte)0xB2}, 0, 2);
+			Assert.fail();
+		} catch(ParseException e) {
+			// A superscript two in Latin-1 is not a digit.
+			Assert.assertEquals(1, e.getErrorOffset());
+		}
+	}
+	
+	/**
+	 * Heap, sliced heap, read-only and direct buffers all parse the same, with error offsets as indexes
+	 * into the buffer itself.
+	 * 
+	 * @throws ParseException never, if the test passes.
+	 */
+	@Test public void asciiByteBuffers() throws ParseException {
+		byte[] bytes = ascii("xx-9223372036854775808,42,,-,7a");
+		ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+		direct.put(bytes).flip();
+		// Cut the "xx" off the front, so heap buffers have an array offset.
+		for(ByteBuffer buffer : new ByteBuffer[]{sliceFrom(ByteBuffer.wrap(bytes), 2), sliceFrom(direct, 2),
+				sliceFrom(ByteBuffer.wrap(bytes), 2).asReadOnlyBuffer()}) {
+			Assert.assertEquals(Long.MIN_VALUE, StringUtils.asciiToLong(buffer, (byte)','));
+			Assert.assertEquals(20, buffer.position());
+			buffer.get();
+			Assert.assertEquals(42, StringUtils.asciiToLong(buffer, (byte)','));
+			buffer.get();
+			Assert.assertEquals(0, StringUtils.asciiToLong(buffer, (byte)','));
+			Assert.assertEquals(24, buffer.position());
+			buffer.get();
+			Assert.assertEquals(0, StringUtils.asciiToLong(buffer, (byte)','));
+			buffer.get();
+			try {
+				StringUtils.asciiToLong(buffer, (byte)',');
+				Assert.fail();
+			} catch(ParseException e) {
+				Assert.assertEquals(28, e.getErrorOffset());
+				Assert.assertEquals(27, buffer.position());
+			}
+			buffer.limit(28);
+			Assert.assertEquals(7, StringUtils.asciiToLong(buffer));
+			Assert.assertEquals(28, buffer.position());
+		}
+	}
+	
+	/**
+	 * The try methods report bad input in the result instead of throwing, and the same result can be used
+	 * again and again.
+	 */
+	@Test public void tryWithoutExceptions() {
+		LongParseResult result = new LongParseResult();
+		Assert.assertTrue(result.isSuccess());
+		
+		Assert.assertFalse(StringUtils.tryStringToLong("12-3", result));
+		Assert.assertFalse(result.isSuccess());
+		Assert.assertEquals(LongParseResult.ErrorKind.ILLEGAL_CHARACTER, result.getError());
+		Assert.assertEquals(2, result.getErrorIndex());
+		Assert.assertEquals(0, result.getValue());
+		
+		Assert.assertTrue(StringUtils.tryStringToLong("-5678", result));
+		Assert.assertTrue(result.isSuccess());
+		Assert.assertNull(result.getError());
+		Assert.assertEquals(-1, result.getErrorIndex());
+		Assert.assertEquals(-5678, result.getValue());
+		
+		Assert.assertTrue(StringUtils.tryStringToLong(new StringBuilder("id=42;"), 3, 5, result));
+		Assert.assertEquals(42, result.getValue());
+		Assert.assertFalse(StringUtils.tryStringToLong("id=4x;".toCharArray(), 3, 2, result));
+		Assert.assertEquals(4, result.getErrorIndex());
+		Assert.assertTrue(StringUtils.tryAsciiToLong(ascii("id=7;"), 3, 1, result));
+		Assert.assertEquals(7, result.getValue());
+	}
+	
+	/**
+	 * A buffer's position only moves when the try methods succeed.
+	 */
+	@Test public void tryAsciiByteBuffer() {
+		LongParseResult result = new LongParseResult();
+		ByteBuffer buffer = ByteBuffer.wrap(ascii("12,3x,45"));
+		Assert.assertTrue(StringUtils.tryAsciiToLong(buffer, (byte)',', result));
+		Assert.assertEquals(12, result.getValue());
+		Assert.assertEquals(2, buffer.position());
+		buffer.get();
+		Assert.assertFalse(StringUtils.tryAsciiToLong(buffer, (byte)',', result));
+		Assert.assertEquals(4, result.getErrorIndex());
+		Assert.assertEquals(3, buffer.position());
+		buffer.position(6);
+		Assert.assertTrue(StringUtils.tryAsciiToLong(buffer, result));
+		Assert.assertEquals(45, result.getValue());
+		Assert.assertEquals(8, buffer.position());
+	}
+	
+	@Test(expected=IllegalArgumentException.class) public void tryWithoutResult() {
+		StringUtils.tryStringToLong("1", null);
+	}
+	
+	/**
+	 * The eight-digit check accepts exactly the ASCII digits, in every position.
+	 */
+	@Test public void eightDigitCheck() {
+		long zeroes = 0x3030303030303030L;
+		for(int position = 0; position < 8; position++) {
+			for(int b = 0; b < 256; b++) {
+				long chunk = zeroes & ~(0xFFL << (position * 8)) | ((long)b << (position * 8));
+				Assert.assertEquals(b >= '0' && b <= '9', StringUtils.isEightDigits(chunk));
+			}
+		}
+	}
+	
+	/**
+	 * Random inputs of every length give the same values and error offsets from every entry point, whether
+	 * they go eight digits at a time or one, including when they're out of range.
+	 */
+	@Test public void matchesReference() {
+		Random random = new Random(43);
+		String alphabet = "0123456789-a\u0131\u0130 ";
+		for(int i = 0; i < 20000; i++) {
+			StringBuilder s = new StringBuilder();
+			if(random.nextInt(3) == 0) {
+				s.append('-');
+			}
+			int length = random.nextInt(24);
+			int zeroes = random.nextInt(4) == 0 ? random.nextInt(length + 1) : 0;
+			for(int j = 0; j < length; j++) {
+				s.append(j < zeroes ? '0' : (char)('0' + random.nextInt(10)));
+			}
+			if(length > 0 && random.nextInt(4) == 0) {
+				s.setCharAt(s.length() - 1 - random.nextInt(length), alphabet.charAt(10 + random.nextInt(alphabet.length() - 10)));
+			}
+			assertMatchesReference(s.toString());
+		}
+		for(String s : new String[]{"9223372036854775807", "9223372036854775808", "-9223372036854775808",
+				"-9223372036854775809", "0009223372036854775807", "-0009223372036854775809"}) {
+			assertMatchesReference(s);
+		}
+	}
+	
+	private static void assertMatchesReference(String s) {
+		// One digit at a time, with BigInteger to find the first digit that takes the value out of range.
+		boolean negative = s.startsWith("-");
+		int bad = -1;
+		boolean overflow = false;
+		BigInteger value = BigInteger.ZERO;
+		for(int i = negative ? 1 : 0; i < s.length() && bad < 0; i++) {
+			if(s.charAt(i) < '0' || s.charAt(i) > '9') {
+				bad = i;
+			} else {
+				BigInteger digit = BigInteger.valueOf(s.charAt(i) - '0');
+				value = negative ? value.multiply(BigInteger.TEN).subtract(digit) : value.multiply(BigInteger.TEN).add(digit);
+				if(value.bitLength() > 63) {
+					bad = i;
+					overflow = true;
+				}
+			}
+		}
+		long expected = bad >= 0 ? 0 : value.longValue();
+		
+		StringBuilder builder = new StringBuilder("x").append(s).append('x');
+		char[] chars = builder.toString().toCharArray();
+		byte[] bytes = builder.toString().getBytes(StandardCharsets.ISO_8859_1);
+		ByteBuffer bigEndian = ByteBuffer.allocateDirect(bytes.length);
+		bigEndian.put(bytes);
+		ByteBuffer littleEndian = ByteBuffer.allocateDirect(bytes.length).order(ByteOrder.LITTLE_ENDIAN);
+		littleEndian.put(bytes);
+		boolean latin1 = s.equals(new String(bytes, 1, s.length(), StandardCharsets.ISO_8859_1));
+		for(int entry = 0; entry < 6; entry++) {
+			if(entry >= 3 && !latin1) {
+				// The bytes aren't the same string.
+				break;
+			}
+			try {
+				long actual;
+				switch(entry) {
+				case 0: actual = StringUtils.stringToLong(s); break;
+				case 1: actual = StringUtils.stringToLong(builder, 1, s.length() + 1); break;
+				case 2: actual = StringUtils.stringToLong(chars, 1, s.length()); break;
+				case 3: actual = StringUtils.asciiToLong(bytes, 1, s.length()); break;
+				case 4: bigEndian.limit(s.length() + 1).position(1); actual = StringUtils.asciiToLong(bigEndian); break;
+				default: littleEndian.limit(s.length() + 1).position(1); actual = StringUtils.asciiToLong(littleEndian); break;
+				}
+				Assert.assertTrue(s + " via " + entry, bad < 0);
+				Assert.assertEquals(s + " via " + entry, expected, actual);
+			} catch(ParseException e) {
+				Assert.assertEquals(s + " via " + entry, entry == 0 ? bad : bad + 1, e.getErrorOffset());
+			}
+		}
+		
+		// The same again without exceptions, reusing one result.
+		LongParseResult result = new LongParseResult();
+		for(int entry = 0; entry < 6; entry++) {
+			if(entry >= 3 && !latin1) {
+				break;
+			}
+			boolean success;
+			switch(entry) {
+			case 0: success = StringUtils.tryStringToLong(s, result); break;
+			case 1: success = StringUtils.tryStringToLong(builder, 1, s.length() + 1, result); break;
+			case 2: success = StringUtils.tryStringToLong(chars, 1, s.length(), result); break;
+			case 3: success = StringUtils.tryAsciiToLong(bytes, 1, s.length(), result); break;
+			case 4: bigEndian.limit(s.length() + 1).position(1); success = StringUtils.tryAsciiToLong(bigEndian, result); break;
+			default: littleEndian.limit(s.length() + 1).position(1); success = StringUtils.tryAsciiToLong(littleEndian, result); break;
+			}
+			Assert.assertEquals(s + " via try " + entry, bad < 0, success);
+			Assert.assertEquals(s + " via try " + entry, success, result.isSuccess());
+			Assert.assertEquals(s + " via try " + entry, expected, result.getValue());
+			Assert.assertEquals(s + " via try " + entry, bad < 0 ? -1 : entry == 0 ? bad : bad + 1, result.getErrorIndex());
+			Assert.assertEquals(s + " via try " + entry, bad < 0 ? null : overflow ? LongParseResult.ErrorKind.OVERFLOW
+					: LongParseResult.ErrorKind.ILLEGAL_CHARACTER, result.getError());
+		}
+	}
+	
+	private static void assertErrorOffset(int expected, String s) {
+		try {
+			StringUtils.stringToLong(s);
+			Assert.fail();
+		} catch(ParseException e) {
+			Assert.assertEquals(expected, e.getErrorOffset());
+		}
+	}
+	
+	private static ByteBuffer sliceFrom(ByteBuffer buffer, int position) {
+		buffer.position(position);
+		return buffer.slice();
+	}
+	
+	private static byte[] ascii(String s) {
+		return s.getBytes(StandardCharsets.US_ASCII);
+	}
+	
+	private static void assertOutOfBounds(CharSequence s, int start, int end) throws ParseException {
+		try {
+			StringUtils.stringToLong(s, start, end);
+			Assert.fail();
+		} catch(IndexOutOfBoundsException e) {
+			// Expected.
+		}
+	}
 }
@@ -1,10 +1,30 @@
 package com.bernerbits.zillow.test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
 
 import org.junit.Assert;
 import org.junit.Test;
+import org.openjdk.jol.info.GraphLayout;
 
 public class TrinaryTreeTest {
 	
@@ -38,30 +58,30 @@ public class TrinaryTreeTest {
 		}
 		
 		// Assert that the members are in the right place.
-		Assert.assertEquals(5, (int)tree.getRoot().get().getValue());
-		Assert.assertEquals(4, (int)tree.getRoot().get().getLeft().get().getValue());
-		Assert.assertEquals(2, (int)tree.getRoot().get().getLeft().get().getLeft().get().getValue());
-		Assert.assertEquals(2, (int)tree.getRoot().get().getLeft().get().getLeft().get().getCenter().get().getValue());
-		Assert.assertEquals(5, (int)tree.getRoot().get().getCenter().get().getValue());
-		Assert.assertEquals(9, (int)tree.getRoot().get().getRight().get().getValue());
-		Assert.assertEquals(7, (int)tree.getRoot().get().getRight().get().getLeft().get().getValue());
+		Assert.assertEquals(5, (int)tree.getRoot().getValue());
+		Assert.assertEquals(4, (int)tree.getRoot().getLeft().getValue());
+		Assert.assertEquals(2, (int)tree.getRoot().getLeft().getLeft().getValue());
+		Assert.assertEquals(2, (int)tree.getRoot().getLeft().getLeft().getCenter().getValue());
+		Assert.assertEquals(5, (int)tree.getRoot().getCenter().getValue());
+		Assert.assertEquals(9, (int)tree.getRoot().getRight().getValue());
+		Assert.assertEquals(7, (int)tree.getRoot().getRight().getLeft().getValue());
 
 		// Then assert that everything else is null.
-		Assert.assertNull(tree.getRoot().get().getLeft().get().getCenter().get());
-		Assert.assertNull(tree.getRoot().get().getLeft().get().getRight().get());
-		Assert.assertNull(tree.getRoot().get().getLeft().get().getLeft().get().getRight().get());
-		Assert.assertNull(tree.getRoot().get().getLeft().get().getLeft().get().getLeft().get());
-		Assert.assertNull(tree.getRoot().get().getLeft().get().getLeft().get().getCenter().get().getLeft().get());
-		Assert.assertNull(tree.getRoot().get().getLeft().get().getLeft().get().getCenter().get().getCenter().get());
-		Assert.assertNull(tree.getRoot().get().getLeft().get().getLeft().get().getCenter().get().getRight().get());
-		Assert.assertNull(tree.getRoot().get().getCenter().get().getLeft().get());
-		Assert.assertNull(tree.getRoot().get().getCenter().get().getCenter().get());
-		Assert.assertNull(tree.getRoot().get().getCenter().get().getRight().get());
-		Assert.assertNull(tree.getRoot().get().getRight().get().getCenter().get());
-		Assert.assertNull(tree.getRoot().get().getRight().get().getRight().get());
-		Assert.assertNull(tree.getRoot().get().getRight().get().getLeft().get().getLeft().get());
-		Assert.assertNull(tree.getRoot().get().getRight().get().getLeft().get().getCenter().get());
-		Assert.assertNull(tree.getRoot().get().getRight().get().getLeft().get().getRight().get());
+		Assert.assertNull(tree.getRoot().getLeft().getCenter());
+		Assert.assertNull(tree.getRoot().getLeft().getRight());
+		Assert.assertNull(tree.getRoot().getLeft().getLeft().getRight());
+		Assert.assertNull(tree.getRoot().getLeft().getLeft().getLeft());
+		Assert.assertNull(tree.getRoot().getLeft().getLeft().getCenter().getLeft());
+		Assert.assertNull(tree.getRoot().getLeft().getLeft().getCenter().getCenter());
+		Assert.assertNull(tree.getRoot().getLeft().getLeft().getCenter().getRight());
+		Assert.assertNull(tree.getRoot().getCenter().getLeft());
+		Assert.assertNull(tree.getRoot().getCenter().getCenter());
+		Assert.assertNull(tree.getRoot().getCenter().getRight());
+		Assert.assertNull(tree.getRoot().getRight().getCenter());
+		Assert.assertNull(tree.getRoot().getRight().getRight());
+		Assert.assertNull(tree.getRoot().getRight().getLeft().getLeft());
+		Assert.assertNull(tree.getRoot().getRight().getLeft().getCenter());
+		Assert.assertNull(tree.getRoot().getRight().getLeft().getRight());
 	}
 
 	/**
@@ -169,11 +189,11 @@ public class TrinaryTreeTest {
 	/**
 	 * Test iteration on empty tree.
 	 */
-	@Test public void emptyTree() {
+	@Test(expected=NoSuchElementException.class) public void emptyTree() {
 		TrinaryTree<String> tree = TrinaryTree.create();
 		Iterator<String> iter = tree.iterator();
 		Assert.assertFalse(iter.hasNext());
-		Assert.assertTrue(iter.next() == null);
+		iter.next();
 	}
 	
 	/**
@@ -218,4 +238,928 @@ public class TrinaryTreeTest {
 		}		
 		Assert.assertArrayEquals(result, new int[]{0, 0, 0, 1, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 5, 5, 5, 6, 7, 8, 9});
 	}
+
+	/**
+	 * Sorted input used to degrade the tree into a linked list. It should now stay balanced, in both directions.
+	 */
+	@Test public void sortedInsertStaysBalanced() {
+		TrinaryTree<Integer> ascending = TrinaryTree.create();
+		TrinaryTree<Integer> descending = TrinaryTree.create();
+		for(int value = 0; value < 4096; value++) {
+			ascending.insert(value);
+			descending.insert(4095 - value);
+		}
+		
+		// A perfectly balanced tree of 4096 values has height 13; AVL guarantees no worse than ~1.44 times that.
+		Assert.assertTrue(assertBalanced(ascending.getRoot()) <= 18);
+		Assert.assertTrue(assertBalanced(descending.getRoot()) <= 18);
+		
+		int expected = 0;
+		for(Iterator<Integer> iter = ascending.iterator(); iter.hasNext();) {
+			Assert.assertEquals(expected++, (int)iter.next());
+		}
+		Assert.assertEquals(4096, expected);
+	}
+	
+	/**
+	 * Random inserts and deletes, checked against a stably sorted list. Values are compared by their tens digit
+	 * only, so there are plenty of "equal" values whose insertion order has to survive rebalancing.
+	 */
+	@Test public void randomOperationsStayBalanced() {
+		randomOperations(false);
+	}
+	
+	/**
+	 * Same as above, with duplicates collapsed into a single node.
+	 */
+	@Test public void randomOperationsCollapsed() {
+		randomOperations(true);
+	}
+	
+	private void randomOperations(boolean collapseDuplicates) {
+		Comparator<Integer> byTens = new Comparator<Integer>() {
+			public int compare(Integer o1, Integer o2) {
+				return (o1 / 10) - (o2 / 10);
+			}
+		};
+		TrinaryTree<Integer> tree = new TrinaryTree<Integer>(byTens, collapseDuplicates);
+		List<Integer> expected = new ArrayList<Integer>();
+		
+		Random random = new Random(42);
+		for(int i = 0; i < 5000; i++) {
+			Integer value = random.nextInt(1000);
+			if(random.nextInt(3) == 0) {
+				// Deleting removes the earliest-inserted equal value.
+				boolean found = false;
+				for(Iterator<Integer> iter = expected.iterator(); iter.hasNext();) {
+					if(byTens.compare(iter.next(), value) == 0) {
+						iter.remove();
+						found = true;
+						break;
+					}
+				}
+				Assert.assertEquals(found, tree.delete(value));
+			} else {
+				// Inserting adds after the last equal value.
+				expected.add(value);
+				tree.insert(value);
+			}
+		}
+		Collections.sort(expected, byTens);
+		
+		assertBalanced(tree.getRoot());
+		Assert.assertEquals(expected, toList(tree));
+		assertRanks(tree, expected);
+		
+		// Iterator removal has to rebalance too.
+		for(Iterator<Integer> iter = tree.iterator(); iter.hasNext();) {
+			if(iter.next() % 3 == 0) {
+				iter.remove();
+			}
+		}
+		for(Iterator<Integer> iter = expected.iterator(); iter.hasNext();) {
+			if(iter.next() % 3 == 0) {
+				iter.remove();
+			}
+		}
+		assertBalanced(tree.getRoot());
+		Assert.assertEquals(expected, toList(tree));
+		assertRanks(tree, expected);
+	}
+	
+	/**
+	 * Checks size, rank and select against a sorted list of the tree's values.
+	 */
+	private static void assertRanks(TrinaryTree<Integer> tree, List<Integer> expected) {
+		Assert.assertEquals(expected.size(), tree.size());
+		for(int index = 0; index < expected.size(); index++) {
+			Assert.assertEquals(expected.get(index), tree.select(index));
+		}
+		for(int value = -10; value < 1010; value += 5) {
+			int rank = 0;
+			while(rank < expected.size() && expected.get(rank) / 10 < value / 10) {
+				rank++;
+			}
+			Assert.assertEquals(rank, tree.rank(value));
+		}
+	}
+	
+	/**
+	 * A long center chain used to cost one stack frame per duplicate on every operation, and would overflow 
+	 * the stack well before reaching this many duplicates.
+	 */
+	@Test public void deepCenterChain() {
+		TrinaryTree<Integer> tree = new TrinaryTree<Integer>(new Comparator<Integer>() {
+			public int compare(Integer o1, Integer o2) {
+				return 0;
+			}
+		});
+		for(int value = 0; value < 20000; value++) {
+			tree.insert(value);
+		}
+		
+		// Everything is "equal", so deletes come off the front of the chain.
+		Assert.assertTrue(tree.delete(12345));
+		Assert.assertTrue(tree.delete(12345));
+		for(Iterator<Integer> iter = tree.iterator(); iter.hasNext();) {
+			if(iter.next() % 2 == 1) {
+				iter.remove();
+			}
+		}
+		
+		int expected = 2;
+		for(Iterator<Integer> iter = tree.iterator(); iter.hasNext();) {
+			Assert.assertEquals(expected, (int)iter.next());
+			expected += 2;
+		}
+		Assert.assertEquals(20000, expected);
+	}
+	
+	/**
+	 * Removing an element that has equals through the iterator shouldn't reshape the tree: the next equal
+	 * value takes its place, or the chain simply closes up around it.
+	 */
+	@Test public void iteratorRemoveKeepsShape() {
+		TrinaryTree<Integer> tree = TrinaryTree.create();
+		for(int value : new int[]{5,4,9,5,7,2,2,2,5}) {
+			tree.insert(value);
+		}
+		TrinaryTreeNode<Integer> secondTwo = tree.getRoot().getLeft().getLeft().getCenter();
+		TrinaryTreeNode<Integer> secondFive = tree.getRoot().getCenter();
+		
+		// Remove the first 2 (a chain head), the third 2 (the end of its chain) and the second 5 (the middle of its chain).
+		int index = 0;
+		for(Iterator<Integer> iter = tree.iterator(); iter.hasNext(); index++) {
+			iter.next();
+			if(index == 0 || index == 2 || index == 5) {
+				iter.remove();
+			}
+		}
+		Assert.assertEquals(Arrays.asList(2, 4, 5, 5, 7, 9), toList(tree));
+		
+		Assert.assertSame(secondTwo, tree.getRoot().getLeft().getLeft());
+		Assert.assertNull(secondTwo.getCenter());
+		Assert.assertNotSame(secondFive, tree.getRoot().getCenter());
+		Assert.assertEquals(5, (int)tree.getRoot().getCenter().getValue());
+		Assert.assertNull(tree.getRoot().getCenter().getCenter());
+		Assert.assertEquals(9, (int)tree.getRoot().getRight().getValue());
+		Assert.assertEquals(7, (int)tree.getRoot().getRight().getLeft().getValue());
+	}
+	
+	/**
+	 * Removing through the iterator rotates the tree underneath it. Every element should still be visited 
+	 * exactly once, whether the removed element is a leaf, a chain head or has two children.
+	 */
+	@Test public void iteratorRemoveEverything() {
+		TrinaryTree<Integer> tree = TrinaryTree.create();
+		for(int value = 0; value < 1000; value++) {
+			tree.insert(value);
+			tree.insert(value % 7);
+		}
+		
+		int visited = 0;
+		int previous = Integer.MIN_VALUE;
+		for(Iterator<Integer> iter = tree.iterator(); iter.hasNext();) {
+			int value = iter.next();
+			Assert.assertTrue(value >= previous);
+			previous = value;
+			visited++;
+			iter.remove();
+			assertBalanced(tree.getRoot());
+		}
+		Assert.assertEquals(2000, visited);
+		Assert.assertNull(tree.getRoot());
+	}
+	
+	/**
+	 * The tree is usually the largest structure on the heap, so each element should cost exactly one node on
+	 * top of the value itself. The byte count depends on the JVM, but the object count doesn't.
+	 */
+	@Test public void footprint() {
+		TrinaryTree<Integer> tree = TrinaryTree.create();
+		Integer[] values = new Integer[1000];
+		for(int i = 0; i < values.length; i++) {
+			values[i] = i % 100;
+			tree.insert(values[i]);
+		}
+		
+		GraphLayout layout = GraphLayout.parseInstance(tree).subtract(GraphLayout.parseInstance((Object)values));
+		Assert.assertEquals(values.length, layout.getClassCounts().count(TrinaryTreeNode.class));
+		// Everything else is the tree itself and its comparator.
+		Assert.assertEquals(values.length + 2, layout.totalCount());
+	}
+	
+	/**
+	 * Collapsed duplicates should behave exactly like a center chain: insertion order for iteration, and
+	 * earliest-first for deletes.
+	 */
+	@Test public void collapsedDuplicates() {
+		TrinaryTree<String> tree = new TrinaryTree<String>(new Comparator<String>(){
+			public int compare(String o1, String o2) {
+				return o1.toLowerCase().compareTo(o2.toLowerCase());
+			}
+		}, true);
+		for(String value : new String[]{"abc", "abcd", "ABC", "ZYX", "Abc", "zyx", "zYx", "abcd", "ABCD"}) {
+			tree.insert(value);
+		}
+		
+		// Each group of equal strings is a single node.
+		Assert.assertNull(tree.getRoot().getCenter());
+		Assert.assertEquals(3, tree.getRoot().getCount());
+		Assert.assertEquals(Arrays.asList("abc", "ABC", "Abc", "abcd", "abcd", "ABCD", "ZYX", "zyx", "zYx"), toList(tree));
+		
+		Assert.assertTrue(tree.delete("ABCD"));
+		Assert.assertTrue(tree.delete("zyx"));
+		Assert.assertEquals(Arrays.asList("abc", "ABC", "Abc", "abcd", "ABCD", "zyx", "zYx"), toList(tree));
+		
+		// Remove the middle of each run, then what's left of the "abc" run entirely.
+		for(Iterator<String> iter = tree.iterator(); iter.hasNext();) {
+			String value = iter.next();
+			if(value.equals("ABC") || value.equals("ABCD") || value.equals("zYx")) {
+				iter.remove();
+			}
+		}
+		Assert.assertEquals(Arrays.asList("abc", "Abc", "abcd", "zyx"), toList(tree));
+		for(Iterator<String> iter = tree.iterator(); iter.hasNext();) {
+			if(iter.next().equalsIgnoreCase("abc")) {
+				iter.remove();
+			}
+		}
+		Assert.assertEquals(Arrays.asList("abcd", "zyx"), toList(tree));
+		assertBalanced(tree.getRoot());
+	}
+	
+	/**
+	 * Duplicates that are equals() to each other are only counted, so any number of them costs one node.
+	 */
+	@Test public void identicalDuplicatesAreCounted() {
+		TrinaryTree<Long> tree = TrinaryTree.create(true);
+		for(int i = 0; i < 100000; i++) {
+			tree.insert(1234567890L);
+		}
+		tree.insert(42L);
+		
+		GraphLayout layout = GraphLayout.parseInstance(tree);
+		Assert.assertEquals(2, layout.getClassCounts().count(TrinaryTreeRunNode.class));
+		Assert.assertEquals(0, layout.getClassCounts().count(Object[].class));
+		
+		int count = 0;
+		for(Iterator<Long> iter = tree.iterator(); iter.hasNext();) {
+			Assert.assertEquals(count == 0 ? 42L : 1234567890L, (long)iter.next());
+			count++;
+		}
+		Assert.assertEquals(100001, count);
+		
+		for(int i = 0; i < 100000; i++) {
+			Assert.assertTrue(tree.delete(1234567890L));
+		}
+		Assert.assertFalse(tree.delete(1234567890L));
+		Assert.assertEquals(Arrays.asList(42L), toList(tree));
+	}
+	
+	/**
+	 * A run used as a queue, removing from the front and adding at the back, has to stay O(1) per add even
+	 * when it's exactly as long as its array. Compacting the array every time a single slot frees up would
+	 * copy the whole run on every add, and take minutes here rather than milliseconds.
+	 */
+	@Test(timeout=5000) public void runUsedAsQueue() {
+		TrinaryTree<Integer> tree = new TrinaryTree<Integer>(new Comparator<Integer>() {
+			public int compare(Integer o1, Integer o2) {
+				return 0;
+			}
+		}, true);
+		for(int size : new int[]{64, 1 << 18}) {
+			for(int i = 0; i < size; i++) {
+				tree.insert(i);
+			}
+			for(int i = size; i < size * 2; i++) {
+				Assert.assertTrue(tree.delete(i));
+				tree.insert(i);
+			}
+			
+			Assert.assertEquals(size, tree.size());
+			int expected = size;
+			for(Integer value : toList(tree)) {
+				Assert.assertEquals(expected++, (int)value);
+			}
+			for(int i = 0; i < size; i++) {
+				Assert.assertTrue(tree.delete(i));
+			}
+			Assert.assertEquals(0, tree.size());
+		}
+	}
+	
+	/**
+	 * Point lookups and nearest-value lookups, including values on, between and beyond the ends of the tree.
+	 */
+	@Test public void lookups() {
+		TrinaryTree<Integer> tree = TrinaryTree.create();
+		for(int value : new int[]{50, 20, 80, 20, 10, 30, 70, 90, 20, 60}) {
+			tree.insert(value);
+		}
+		
+		Assert.assertTrue(tree.contains(20));
+		Assert.assertTrue(tree.contains(90));
+		Assert.assertFalse(tree.contains(25));
+		Assert.assertEquals(3, tree.count(20));
+		Assert.assertEquals(1, tree.count(50));
+		Assert.assertEquals(0, tree.count(55));
+		
+		Assert.assertEquals(30, (int)tree.floor(30));
+		Assert.assertEquals(30, (int)tree.floor(35));
+		Assert.assertNull(tree.floor(5));
+		Assert.assertEquals(30, (int)tree.ceiling(30));
+		Assert.assertEquals(50, (int)tree.ceiling(35));
+		Assert.assertNull(tree.ceiling(95));
+		Assert.assertEquals(50, (int)tree.higher(30));
+		Assert.assertEquals(10, (int)tree.higher(5));
+		Assert.assertNull(tree.higher(90));
+		Assert.assertEquals(20, (int)tree.lower(30));
+		Assert.assertEquals(90, (int)tree.lower(100));
+		Assert.assertNull(tree.lower(10));
+	}
+	
+	/**
+	 * Nearest-value lookups return the earliest inserted of several equal values, as does delete.
+	 */
+	@Test public void lookupsReturnEarliestEqual() {
+		TrinaryTree<String> tree = new TrinaryTree<String>(String.CASE_INSENSITIVE_ORDER);
+		for(String value : new String[]{"b", "B", "d", "D"}) {
+			tree.insert(value);
+		}
+		Assert.assertEquals("b", tree.floor("C"));
+		Assert.assertEquals("d", tree.ceiling("c"));
+		Assert.assertEquals("b", tree.ceiling("B"));
+		Assert.assertEquals(2, tree.count("D"));
+	}
+	
+	/**
+	 * Range iteration, with each combination of inclusive and exclusive bounds.
+	 */
+	@Test public void rangeIteration() {
+		TrinaryTree<Integer> tree = TrinaryTree.create();
+		for(int value = 0; value < 100; value++) {
+			tree.insert(value % 10);
+		}
+		
+		List<Integer> range = toList(tree.subTree(3, 5));
+		Assert.assertEquals(20, range.size());
+		Assert.assertEquals(3, (int)range.get(9));
+		Assert.assertEquals(4, (int)range.get(10));
+		Assert.assertEquals(30, toList(tree.subTree(3, 6)).size());
+		Assert.assertEquals(40, toList(tree.subTree(3, true, 6, true)).size());
+		Assert.assertEquals(20, toList(tree.subTree(3, false, 6, false)).size());
+		Assert.assertEquals(30, toList(tree.subTree(null, false, 3, false)).size());
+		Assert.assertEquals(30, toList(tree.subTree(7, true, null, false)).size());
+		
+		// Bounds between values, beyond the ends, and backwards.
+		Assert.assertEquals(20, toList(tree.subTree(-5, 2)).size());
+		Assert.assertEquals(0, toList(tree.subTree(10, 20)).size());
+		Assert.assertEquals(0, toList(tree.subTree(5, 5)).size());
+		Assert.assertEquals(0, toList(tree.subTree(6, 3)).size());
+	}
+	
+	/**
+	 * Removing through a range iterator only touches the range, even as the tree is rebalanced.
+	 */
+	@Test public void rangeIteratorRemove() {
+		TrinaryTree<Integer> tree = TrinaryTree.create();
+		for(int value = 0; value < 1000; value++) {
+			tree.insert(value);
+		}
+		for(Iterator<Integer> iter = tree.subTree(250, 750); iter.hasNext();) {
+			iter.next();
+			iter.remove();
+		}
+		assertBalanced(tree.getRoot());
+		
+		List<Integer> result = toList(tree);
+		Assert.assertEquals(500, result.size());
+		Assert.assertEquals(249, (int)result.get(249));
+		Assert.assertEquals(750, (int)result.get(250));
+	}
+	
+	/**
+	 * Size, rank and select on a small tree, including percentiles and out of range positions.
+	 */
+	@Test public void ranks() {
+		TrinaryTree<Integer> tree = TrinaryTree.create();
+		Assert.assertEquals(0, tree.size());
+		for(int value = 100; value > 0; value--) {
+			tree.insert(value);
+		}
+		tree.insert(50);
+		
+		Assert.assertEquals(101, tree.size());
+		Assert.assertEquals(0, tree.rank(1));
+		Assert.assertEquals(49, tree.rank(50));
+		Assert.assertEquals(51, tree.rank(51));
+		Assert.assertEquals(101, tree.rank(1000));
+		Assert.assertEquals(1, (int)tree.select(0));
+		Assert.assertEquals(50, (int)tree.select(49));
+		Assert.assertEquals(50, (int)tree.select(50));
+		Assert.assertEquals(51, (int)tree.select(51));
+		Assert.assertEquals(99, (int)tree.select(99 * tree.size() / 100));
+		
+		tree.delete(50);
+		tree.delete(1);
+		Assert.assertEquals(99, tree.size());
+		Assert.assertEquals(51, (int)tree.select(49));
+		try {
+			tree.select(99);
+			Assert.fail();
+		} catch(IndexOutOfBoundsException e) {
+			// Expected
+		}
+	}
+	
+	/**
+	 * Bulk loading sorted, reverse-sorted and random values gives the same contents as inserting them, in a
+	 * perfectly balanced tree that behaves normally afterwards.
+	 */
+	@Test public void bulkLoad() {
+		Random random = new Random(3);
+		List<List<Integer>> inputs = new ArrayList<List<Integer>>();
+		List<Integer> ascending = new ArrayList<Integer>();
+		List<Integer> descending = new ArrayList<Integer>();
+		List<Integer> shuffled = new ArrayList<Integer>();
+		for(int i = 0; i < 1000; i++) {
+			ascending.add(i / 3);
+			descending.add(1000 - i);
+			shuffled.add(random.nextInt(200));
+		}
+		inputs.add(ascending);
+		inputs.add(descending);
+		inputs.add(shuffled);
+		inputs.add(new ArrayList<Integer>());
+		
+		for(boolean collapse : new boolean[]{false, true}) {
+			for(List<Integer> input : inputs) {
+				TrinaryTree<Integer> expected = TrinaryTree.create(collapse);
+				for(Integer value : input) {
+					expected.insert(value);
+				}
+				TrinaryTree<Integer> tree = TrinaryTree.create(collapse);
+				tree.bulkLoad(input);
+				Assert.assertEquals(toList(expected), toList(tree));
+				Assert.assertEquals(input.size(), tree.size());
+				
+				// Perfectly balanced: no taller than the minimum for its number of center chains.
+				int chains = new HashSet<Integer>(input).size();
+				int minimum = 32 - Integer.numberOfLeadingZeros(chains);
+				Assert.assertEquals(minimum, assertBalanced(tree.getRoot()));
+				
+				for(int i = 0; i < 500; i++) {
+					int value = random.nextInt(300);
+					if(random.nextBoolean()) {
+						Assert.assertEquals(expected.delete(value), tree.delete(value));
+					} else {
+						expected.insert(value);
+						tree.insert(value);
+					}
+				}
+				Assert.assertEquals(toList(expected), toList(tree));
+				assertBalanced(tree.getRoot());
+			}
+		}
+	}
+	
+	/**
+	 * Equal values keep the order they were given in, and the tree has to start out empty.
+	 */
+	@Test public void bulkLoadKeepsOrder() {
+		for(boolean collapse : new boolean[]{false, true}) {
+			TrinaryTree<String> tree = new TrinaryTree<String>(String.CASE_INSENSITIVE_ORDER, collapse);
+			tree.bulkLoad(Arrays.asList("d", "B", "a", "D", "b", "A", "c", "d").iterator());
+			Assert.assertEquals(Arrays.asList("a", "A", "B", "b", "c", "d", "D", "d"), toList(tree));
+			Assert.assertEquals(3, tree.count("D"));
+			assertBalanced(tree.getRoot());
+			
+			try {
+				tree.bulkLoad(Arrays.asList("e"));
+				Assert.fail();
+			} catch(IllegalStateException e) {
+				// Expected
+			}
+		}
+		
+		TrinaryTree<String> tree = new TrinaryTree<String>(String.CASE_INSENSITIVE_ORDER);
+		try {
+			tree.bulkLoad(Arrays.asList("a", null));
+			Assert.fail();
+		} catch(IllegalArgumentException e) {
+			// Expected
+		}
+		Assert.assertEquals(0, tree.size());
+	}
+	
+	/**
+	 * Fail-fast iterators throw once the tree has been changed other than through them, and remove only once 
+	 * per value.
+	 */
+	@Test public void failFastIterators() {
+		TrinaryTree<Integer> tree = TrinaryTree.create();
+		for(int value = 0; value < 100; value++) {
+			tree.insert(value % 10);
+		}
+		
+		Iterator<Integer> iter = tree.iterator();
+		iter.next();
+		iter.remove();
+		try {
+			iter.remove();
+			Assert.fail();
+		} catch(IllegalStateException e) {
+			// Expected
+		}
+		iter.next();
+		tree.insert(5);
+		Assert.assertTrue(iter.hasNext());
+		try {
+			iter.next();
+			Assert.fail();
+		} catch(ConcurrentModificationException e) {
+			// Expected
+		}
+		
+		for(boolean range : new boolean[]{false, true}) {
+			Iterator<Integer> ranged = range ? tree.subTree(3, 6) : tree.iterator();
+			ranged.next();
+			Assert.assertTrue(tree.delete(7));
+			try {
+				ranged.remove();
+				Assert.fail();
+			} catch(ConcurrentModificationException e) {
+				// Expected
+			}
+		}
+		Assert.assertEquals(98, tree.size());
+	}
+	
+	/**
+	 * Weakly consistent iterators carry on through random inserts and deletes made outside them, as well as 
+	 * their own removals. They never hand out a value twice or out of order, and never miss a value that was 
+	 * there all along, unless values equal to it were inserted or deleted meanwhile.
+	 */
+	@Test public void weaklyConsistentIterators() {
+		Comparator<String> byKey = new Comparator<String>() {
+			public int compare(String o1, String o2) {
+				return Integer.parseInt(o1.split(":")[0]) - Integer.parseInt(o2.split(":")[0]);
+			}
+		};
+		Random random = new Random(13);
+		for(boolean collapse : new boolean[]{false, true}) {
+			for(int round = 0; round < 20; round++) {
+				TrinaryTree<String> tree = new TrinaryTree<String>(byKey, collapse);
+				// The values for each key, in the order the tree should hold them.
+				Map<Integer, LinkedList<String>> model = new HashMap<Integer, LinkedList<String>>();
+				int serial = 0;
+				for(int i = 0; i < 300; i++) {
+					int key = random.nextInt(60);
+					String value = key + ":" + serial++;
+					tree.insert(value);
+					if(!model.containsKey(key)) {
+						model.put(key, new LinkedList<String>());
+					}
+					model.get(key).add(value);
+				}
+				Set<String> untouched = new HashSet<String>();
+				for(List<String> values : model.values()) {
+					untouched.addAll(values);
+				}
+				Set<Integer> touchedKeys = new HashSet<Integer>();
+				
+				List<String> seen = new ArrayList<String>();
+				for(Iterator<String> iter = tree.weaklyConsistentIterator(); iter.hasNext();) {
+					String value = iter.next();
+					seen.add(value);
+					int action = random.nextInt(5);
+					int key = random.nextInt(60);
+					if(action == 0) {
+						iter.remove();
+						model.get(byKey(value)).remove(value);
+					} else if(action == 1) {
+						String inserted = key + ":" + serial++;
+						tree.insert(inserted);
+						if(!model.containsKey(key)) {
+							model.put(key, new LinkedList<String>());
+						}
+						model.get(key).add(inserted);
+						touchedKeys.add(key);
+					} else if(action == 2) {
+						LinkedList<String> values = model.get(key);
+						Assert.assertEquals(values != null && !values.isEmpty(), tree.delete(key + ":"));
+						if(values != null && !values.isEmpty()) {
+							untouched.remove(values.removeFirst());
+						}
+						touchedKeys.add(key);
+					}
+				}
+				
+				Assert.assertEquals(seen.size(), new HashSet<String>(seen).size());
+				for(int i = 1; i < seen.size(); i++) {
+					Assert.assertTrue(byKey.compare(seen.get(i - 1), seen.get(i)) <= 0);
+				}
+				for(String value : untouched) {
+					if(!touchedKeys.contains(byKey(value))) {
+						Assert.assertTrue(value, seen.contains(value));
+					}
+				}
+				
+				List<String> expected = new ArrayList<String>();
+				for(int key = 0; key < 60; key++) {
+					if(model.containsKey(key)) {
+						expected.addAll(model.get(key));
+					}
+				}
+				Assert.assertEquals(expected, toList(tree));
+				assertBalanced(tree.getRoot());
+			}
+		}
+	}
+	
+	/**
+	 * Random batches of inserts and deletes, of all sizes, give the same tree contents as one value at a time, 
+	 * and keep the tree balanced.
+	 */
+	@Test public void batches() {
+		Random random = new Random(17);
+		for(boolean collapse : new boolean[]{false, true}) {
+			TrinaryTree<Integer> expected = TrinaryTree.create(collapse);
+			TrinaryTree<Integer> tree = TrinaryTree.create(collapse);
+			for(int round = 0; round < 200; round++) {
+				List<Integer> batch = new ArrayList<Integer>();
+				int batchSize = random.nextInt(4) == 0 ? random.nextInt(2000) : random.nextInt(20);
+				int range = 1 + random.nextInt(3000);
+				for(int i = 0; i < batchSize; i++) {
+					batch.add(random.nextInt(range));
+				}
+				if(random.nextInt(3) == 0) {
+					int deleted = 0;
+					for(Integer value : batch) {
+						if(expected.delete(value)) {
+							deleted++;
+						}
+					}
+					Assert.assertEquals(deleted, tree.deleteAll(batch));
+				} else {
+					for(Integer value : batch) {
+						expected.insert(value);
+					}
+					tree.insertAll(batch);
+				}
+				Assert.assertEquals(expected.size(), tree.size());
+				assertBalanced(tree.getRoot());
+			}
+			Assert.assertEquals(toList(expected), toList(tree));
+			Assert.assertEquals(tree.size(), tree.deleteAll(toList(tree)));
+			Assert.assertNull(tree.getRoot());
+		}
+	}
+	
+	/**
+	 * Batches keep equal values in the order given, after any already in the tree, and delete the earliest.
+	 */
+	@Test public void batchesKeepOrder() {
+		for(boolean collapse : new boolean[]{false, true}) {
+			TrinaryTree<String> tree = new TrinaryTree<String>(String.CASE_INSENSITIVE_ORDER, collapse);
+			tree.insert("b");
+			tree.insert("d");
+			tree.insertAll(Arrays.asList("D", "B", "a", "b", "c", "d"));
+			Assert.assertEquals(Arrays.asList("a", "b", "B", "b", "c", "d", "D", "d"), toList(tree));
+			
+			Assert.assertEquals(3, tree.deleteAll(Arrays.asList("B", "D", "e", "b")));
+			Assert.assertEquals(Arrays.asList("a", "b", "c", "D", "d"), toList(tree));
+			assertBalanced(tree.getRoot());
+			
+			try {
+				tree.insertAll(Arrays.asList("e", null));
+				Assert.fail();
+			} catch(IllegalArgumentException e) {
+				Assert.assertEquals("Attempted null insert detected.", e.getMessage());
+			}
+			try {
+				tree.deleteAll(Arrays.asList("a", null));
+				Assert.fail();
+			} catch(IllegalArgumentException e) {
+				Assert.assertEquals("Attempted null delete detected.", e.getMessage());
+			}
+			Assert.assertEquals(5, tree.size());
+		}
+	}
+	
+	/**
+	 * Streams, sequential and parallel, see every value in order, and spliterators split into ordered pieces
+	 * whose sizes add up.
+	 */
+	@Test public void streams() {
+		for(boolean collapse : new boolean[]{false, true}) {
+			TrinaryTree<Integer> tree = TrinaryTree.create(collapse);
+			Random random = new Random(19);
+			for(int i = 0; i < 10000; i++) {
+				tree.insert(random.nextInt(3000));
+			}
+			List<Integer> expected = toList(tree);
+			long sum = 0;
+			for(int value : expected) {
+				sum += value;
+			}
+			
+			Assert.assertEquals(expected, tree.stream().collect(Collectors.toList()));
+			Assert.assertEquals(expected, tree.parallelStream().collect(Collectors.toList()));
+			Assert.assertEquals(sum, tree.parallelStream().mapToLong(Integer::longValue).sum());
+			Assert.assertEquals(expected.stream().filter(value -> value % 7 == 0).count(), 
+					tree.parallelStream().filter(value -> value % 7 == 0).count());
+			
+			Spliterator<Integer> spliterator = tree.spliterator();
+			Assert.assertTrue(spliterator.hasCharacteristics(Spliterator.SORTED | Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED));
+			Assert.assertEquals(expected.size(), spliterator.getExactSizeIfKnown());
+			List<Spliterator<Integer>> pieces = new ArrayList<Spliterator<Integer>>();
+			split(spliterator, 8, pieces);
+			Assert.assertTrue("" + pieces.size(), pieces.size() > 100);
+			List<Integer> values = new ArrayList<Integer>();
+			for(Spliterator<Integer> piece : pieces) {
+				long size = piece.estimateSize();
+				int before = values.size();
+				piece.forEachRemaining(values::add);
+				Assert.assertEquals(size, values.size() - before);
+				Assert.assertEquals(0, piece.estimateSize());
+			}
+			Assert.assertEquals(expected, values);
+		}
+		
+		TrinaryTree<Integer> tree = TrinaryTree.create();
+		Assert.assertEquals(0, tree.stream().count());
+		tree.insert(1);
+		tree.insert(2);
+		Spliterator<Integer> spliterator = tree.spliterator();
+		spliterator.tryAdvance(value -> { });
+		Assert.assertNull(spliterator.trySplit());
+		tree.insert(3);
+		try {
+			spliterator.tryAdvance(value -> { });
+			Assert.fail();
+		} catch(ConcurrentModificationException e) {
+			// Expected
+		}
+	}
+	
+	/**
+	 * Trees written out and read back have the same shape and values, and take a few bytes per value.
+	 */
+	@Test public void serialization() throws IOException {
+		for(boolean collapse : new boolean[]{false, true}) {
+			TrinaryTree<Long> tree = TrinaryTree.create(collapse);
+			Random random = new Random(23);
+			for(int i = 0; i < 20000; i++) {
+				tree.insert(random.nextInt(5000) * 1000L - 2000000);
+			}
+			tree.insert(Long.MAX_VALUE);
+			tree.insert(Long.MIN_VALUE);
+			for(int i = 0; i < 3000; i++) {
+				tree.delete(random.nextInt(5000) * 1000L - 2000000);
+			}
+			
+			byte[] bytes = write(tree, TrinaryTreeCodecs.LONG);
+			Assert.assertTrue(bytes.length < tree.size() * 4);
+			TrinaryTree<Long> read = TrinaryTree.readFrom(new DataInputStream(new ByteArrayInputStream(bytes)), tree.getComparator(), TrinaryTreeCodecs.LONG);
+			assertSameShape(tree.getRoot(), read.getRoot());
+			Assert.assertEquals(toList(tree), toList(read));
+			
+			// The tree read back works like any other.
+			read.insert(5L);
+			Assert.assertTrue(read.delete(Long.MIN_VALUE));
+			assertBalanced(read.getRoot());
+			Assert.assertEquals(tree.size(), read.size());
+		}
+		
+		// Duplicates that aren't equals() keep their order, and so do strings sharing a prefix.
+		for(boolean collapse : new boolean[]{false, true}) {
+			TrinaryTree<String> tree = new TrinaryTree<String>(String.CASE_INSENSITIVE_ORDER, collapse);
+			for(String value : new String[]{"apple", "Apple", "apple", "applesauce", "apricot", "b", "\uD83D\uDE00a", "\uD83D\uDE01"}) {
+				tree.insert(value);
+			}
+			byte[] bytes = write(tree, TrinaryTreeCodecs.STRING);
+			TrinaryTree<String> read = TrinaryTree.readFrom(new DataInputStream(new ByteArrayInputStream(bytes)), String.CASE_INSENSITIVE_ORDER, TrinaryTreeCodecs.STRING);
+			assertSameShape(tree.getRoot(), read.getRoot());
+			Assert.assertEquals(toList(tree), toList(read));
+		}
+		
+		TrinaryTree<Integer> empty = TrinaryTree.create();
+		TrinaryTree<Integer> read = TrinaryTree.readFrom(new DataInputStream(new ByteArrayInputStream(write(empty, TrinaryTreeCodecs.INTEGER))), empty.getComparator(), TrinaryTreeCodecs.INTEGER);
+		Assert.assertEquals(0, read.size());
+		Assert.assertFalse(read.iterator().hasNext());
+	}
+	
+	/**
+	 * Damaged streams are refused rather than read into a broken tree.
+	 */
+	@Test public void serializationRejectsCorruption() throws IOException {
+		TrinaryTree<Integer> tree = TrinaryTree.create();
+		for(int value = 0; value < 100; value++) {
+			tree.insert(value);
+		}
+		byte[] bytes = write(tree, TrinaryTreeCodecs.INTEGER);
+		
+		int rejected = 0;
+		for(int i = 0; i < bytes.length; i++) {
+			byte[] damaged = bytes.clone();
+			damaged[i] ^= 0x55;
+			try {
+				TrinaryTree<Integer> read = TrinaryTree.readFrom(new DataInputStream(new ByteArrayInputStream(damaged)), tree.getComparator(), TrinaryTreeCodecs.INTEGER);
+				// Damage to a value can go unnoticed, but never damage to the shape.
+				assertBalanced(read.getRoot());
+				Assert.assertEquals(100, read.size());
+			} catch(IOException e) {
+				rejected++;
+			}
+		}
+		Assert.assertTrue(rejected > 0);
+		
+		try {
+			TrinaryTree.readFrom(new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 1)), tree.getComparator(), TrinaryTreeCodecs.INTEGER);
+			Assert.fail();
+		} catch(IOException e) {
+			// Expected
+		}
+	}
+	
+	private static <T> byte[] write(TrinaryTree<T> tree, TrinaryTreeCodec<T> codec) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		tree.writeTo(out, codec);
+		out.flush();
+		return bytes.toByteArray();
+	}
+	
+	private static <T> void assertSameShape(TrinaryTreeNode<T> expected, TrinaryTreeNode<T> actual) {
+		if(expected == null) {
+			Assert.assertNull(actual);
+			return;
+		}
+		Assert.assertEquals(expected.getClass(), actual.getClass());
+		Assert.assertEquals(expected.getHeight(), actual.getHeight());
+		Assert.assertEquals(expected.getWeight(), actual.getWeight());
+		Assert.assertEquals(expected.getSize(), actual.getSize());
+		for(TrinaryTreeNode<T> e = expected, a = actual; e != null || a != null; e = e.getCenter(), a = a.getCenter()) {
+			Assert.assertEquals(e.getCount(), a.getCount());
+			for(int i = 0; i < e.getCount(); i++) {
+				Assert.assertEquals(e.getValue(i), a.getValue(i));
+			}
+		}
+		assertSameShape(expected.getLeft(), actual.getLeft());
+		assertSameShape(expected.getRight(), actual.getRight());
+	}
+	
+	private static <T> void split(Spliterator<T> spliterator, int depth, List<Spliterator<T>> pieces) {
+		Spliterator<T> prefix = depth == 0 ? null : spliterator.trySplit();
+		if(prefix != null) {
+			split(prefix, depth - 1, pieces);
+			split(spliterator, depth - 1, pieces);
+		} else {
+			pieces.add(spliterator);
+		}
+	}
+	
+	private static int byKey(String value) {
+		return Integer.parseInt(value.split(":")[0]);
+	}
+	
+	private static <T> List<T> toList(TrinaryTree<T> tree) {
+		return toList(tree.iterator());
+	}
+	
+	private static <T> List<T> toList(Iterator<T> iter) {
+		List<T> result = new ArrayList<T>();
+		while(iter.hasNext()) {
+			result.add(iter.next());
+		}
+		return result;
+	}
+	
+	/**
+	 * Checks the AVL invariant, and the cached heights and counts, throughout a subtree.
+	 * 
+	 * @return The height of the subtree.
+	 */
+	private static <T> int assertBalanced(TrinaryTreeNode<T> node) {
+		if(node == null) {
+			return 0;
+		}
+		int leftHeight = assertBalanced(node.getLeft());
+		int rightHeight = assertBalanced(node.getRight());
+		Assert.assertTrue(Math.abs(leftHeight - rightHeight) <= 1);
+		Assert.assertEquals(1 + Math.max(leftHeight, rightHeight), node.getHeight());
+		
+		// Center chains never branch.
+		int weight = node.getCount();
+		for(TrinaryTreeNode<T> equal = node.getCenter(); equal != null; equal = equal.getCenter()) {
+			Assert.assertNull(equal.getLeft());
+			Assert.assertNull(equal.getRight());
+			weight += equal.getCount();
+		}
+		Assert.assertEquals(weight, node.getWeight());
+		Assert.assertEquals(weight + TrinaryTreeNode.size(node.getLeft()) + TrinaryTreeNode.size(node.getRight()), node.getSize());
+		return node.getHeight();
+	}
 }
@@ -0,0 +1,231 @@
+package com.bernerbits.zillow.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WideTrinaryTreeTest {
+	
+	/**
+	 * Test that insertion and iteration work.
+	 */
+	@Test public void insert() {
+		WideTrinaryTree<Integer> tree = new WideTrinaryTree<Integer>(Comparator.<Integer>naturalOrder(), 4);
+		for(int value : new int[]{9, 1, 9, 2, 5, 6, 9, 8, 2, 7, 0, 4, 7, 0, 7, 6, 4, 8, 0, 9, 8}) {
+			tree.insert(value);
+		}
+		Assert.assertEquals(Arrays.asList(0, 0, 0, 1, 2, 2, 4, 4, 5, 6, 6, 7, 7, 7, 8, 8, 8, 9, 9, 9, 9), values(tree));
+		Assert.assertEquals(21, tree.size());
+		Assert.assertEquals(4, tree.count(9));
+		Assert.assertEquals(0, tree.count(3));
+		Assert.assertTrue(tree.contains(5));
+		Assert.assertFalse(tree.contains(10));
+		assertStructure(tree, 4);
+	}
+	
+	/**
+	 * Random inserts and deletes leave the same values, in the same order, as a TrinaryTree.
+	 */
+	@Test public void matchesTrinaryTree() {
+		for(int capacity : new int[]{4, 5, 64}) {
+			Random random = new Random(capacity);
+			TrinaryTree<Integer> expected = TrinaryTree.create();
+			WideTrinaryTree<Integer> tree = new WideTrinaryTree<Integer>(Comparator.<Integer>naturalOrder(), capacity);
+			for(int i = 0; i < 20000; i++) {
+				int value = random.nextInt(300);
+				if(random.nextInt(5) < 2) {
+					Assert.assertEquals(expected.delete(value), tree.delete(value));
+				} else {
+					expected.insert(value);
+					tree.insert(value);
+				}
+				if(i % 1000 == 0) {
+					assertStructure(tree, capacity);
+				}
+			}
+			Assert.assertEquals(values(expected), values(tree));
+			Assert.assertEquals(expected.size(), tree.size());
+			assertStructure(tree, capacity);
+			
+			// Empty it again.
+			List<Integer> remaining = values(expected);
+			Collections.shuffle(remaining, random);
+			for(int value : remaining) {
+				Assert.assertTrue(tree.delete(value));
+			}
+			Assert.assertEquals(0, tree.size());
+			Assert.assertFalse(tree.iterator().hasNext());
+			assertStructure(tree, capacity);
+		}
+	}
+	
+	/**
+	 * Values that compare equal but aren't the same come out in the order they went in, across leaves,
+	 * and delete takes the earliest.
+	 */
+	@Test public void duplicatesKeepInsertionOrder() {
+		// Only the first letter counts, ignoring case.
+		WideTrinaryTree<String> tree = new WideTrinaryTree<String>(new Comparator<String>() {
+			public int compare(String o1, String o2) {
+				return o1.substring(0, 1).compareToIgnoreCase(o2.substring(0, 1));
+			}
+		}, 4);
+		List<String> expected = new ArrayList<String>();
+		for(int i = 0; i < 30; i++) {
+			String value = (i % 2 == 0 ? "a" : "A") + i;
+			tree.insert(value);
+			expected.add(value);
+		}
+		tree.insert("b");
+		tree.insert("0");
+		expected.add("b");
+		expected.add(0, "0");
+		Assert.assertEquals(expected, values(tree));
+		Assert.assertEquals(30, tree.count("a"));
+		assertStructure(tree, 4);
+		
+		Assert.assertTrue(tree.delete("a"));
+		expected.remove("a0");
+		Assert.assertTrue(tree.delete("A"));
+		expected.remove("A1");
+		Assert.assertEquals(expected, values(tree));
+		assertStructure(tree, 4);
+	}
+	
+	/**
+	 * Removing through the iterator removes the exact value just returned, even among equal ones.
+	 */
+	@Test public void iteratorRemove() {
+		Comparator<String> firstLetter = new Comparator<String>() {
+			public int compare(String o1, String o2) {
+				return o1.substring(0, 1).compareTo(o2.substring(0, 1));
+			}
+		};
+		WideTrinaryTree<String> tree = new WideTrinaryTree<String>(firstLetter, 4);
+		List<String> expected = new ArrayList<String>();
+		Random random = new Random(37);
+		for(int i = 0; i < 500; i++) {
+			String value = (char)('a' + random.nextInt(6)) + Integer.toString(i);
+			tree.insert(value);
+		}
+		expected.addAll(values(tree));
+		
+		List<String> seen = new ArrayList<String>();
+		for(Iterator<String> iter = tree.iterator(); iter.hasNext();) {
+			String value = iter.next();
+			seen.add(value);
+			if(random.nextInt(3) > 0) {
+				iter.remove();
+				expected.remove(value);
+			}
+		}
+		Assert.assertEquals(500, seen.size());
+		Assert.assertEquals(expected, values(tree));
+		Assert.assertEquals(expected.size(), tree.size());
+		assertStructure(tree, 4);
+		
+		for(Iterator<String> iter = tree.iterator(); iter.hasNext();) {
+			iter.next();
+			iter.remove();
+		}
+		Assert.assertEquals(0, tree.size());
+		Assert.assertFalse(tree.iterator().hasNext());
+	}
+	
+	@Test(expected=ConcurrentModificationException.class) public void iteratorFailFast() {
+		WideTrinaryTree<Integer> tree = WideTrinaryTree.create();
+		tree.insert(1);
+		tree.insert(2);
+		Iterator<Integer> iter = tree.iterator();
+		iter.next();
+		tree.insert(3);
+		iter.next();
+	}
+	
+	@Test(expected=IllegalStateException.class) public void iteratorRemoveTwice() {
+		WideTrinaryTree<Integer> tree = WideTrinaryTree.create();
+		tree.insert(1);
+		tree.insert(2);
+		Iterator<Integer> iter = tree.iterator();
+		iter.next();
+		iter.remove();
+		iter.remove();
+	}
+	
+	@Test(expected=NoSuchElementException.class) public void emptyTree() {
+		WideTrinaryTree<Integer> tree = WideTrinaryTree.create();
+		Assert.assertFalse(tree.delete(1));
+		Assert.assertFalse(tree.contains(1));
+		Assert.assertEquals(0, tree.size());
+		tree.iterator().next();
+	}
+	
+	@Test(expected=IllegalArgumentException.class) public void nullInsert() {
+		WideTrinaryTree.<Integer>create().insert(null);
+	}
+	
+	private static <T> List<T> values(WideTrinaryTree<T> tree) {
+		List<T> values = new ArrayList<T>();
+		for(Iterator<T> iter = tree.iterator(); iter.hasNext();) {
+			values.add(iter.next());
+		}
+		return values;
+	}
+	
+	private static <T> List<T> values(TrinaryTree<T> tree) {
+		List<T> values = new ArrayList<T>();
+		for(Iterator<T> iter = tree.iterator(); iter.hasNext();) {
+			values.add(iter.next());
+		}
+		return values;
+	}
+	
+	/**
+	 * Checks that every node but the root is at least half full, that separators bound the values below them,
+	 * that all leaves are at the same depth, and that the leaf links visit every leaf in order.
+	 */
+	private static <T> void assertStructure(WideTrinaryTree<T> tree, int capacity) {
+		List<WideTrinaryTreeNode<T>> leaves = new ArrayList<WideTrinaryTreeNode<T>>();
+		assertStructure(tree.getRoot(), tree.getComparator(), capacity, true, null, null, leaves, new int[]{-1}, 0);
+		for(int i = 0; i < leaves.size(); i++) {
+			Assert.assertSame(i + 1 < leaves.size() ? leaves.get(i + 1) : null, leaves.get(i).getNext());
+		}
+	}
+	
+	private static <T> void assertStructure(WideTrinaryTreeNode<T> node, Comparator<T> comparator, int capacity, boolean root,
+			T low, T high, List<WideTrinaryTreeNode<T>> leaves, int[] leafDepth, int depth) {
+		Assert.assertTrue(node.getCount() <= capacity);
+		if(!root) {
+			Assert.assertTrue(node.getCount() >= capacity / 2);
+		}
+		if(node.isLeaf()) {
+			if(leafDepth[0] < 0) {
+				leafDepth[0] = depth;
+			}
+			Assert.assertEquals(leafDepth[0], depth);
+			leaves.add(node);
+			for(int i = 0; i < node.getCount(); i++) {
+				T value = node.getValue(i);
+				Assert.assertTrue(low == null || comparator.compare(low, value) <= 0);
+				Assert.assertTrue(high == null || comparator.compare(value, high) <= 0);
+				Assert.assertTrue(i == 0 || comparator.compare(node.getValue(i - 1), value) <= 0);
+			}
+			return;
+		}
+		Assert.assertTrue(node.getCount() >= 2);
+		for(int i = 0; i < node.getCount(); i++) {
+			T childLow = i == 0 ? low : node.getValue(i - 1);
+			T childHigh = i == node.getCount() - 1 ? high : node.getValue(i);
+			assertStructure(node.getChild(i), comparator, capacity, false, childLow, childHigh, leaves, leafDepth, depth + 1);
+		}
+	}
+}